@@ -0,0 +1,90 @@
+package oh.neural.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import oh.neural.Batch;
+import oh.neural.FeedForwardNetwork;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+import oh.neural.ParallelTrainer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Mini-batch training over 1024 samples, single-threaded (Batch) and data-parallel (ParallelTrainer).
+ * Time is per 1024 samples, so results compare across batch sizes.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+
+    static final int SAMPLES = 1024;
+
+    @Param({"10", "100", "1024"})
+    public int width;
+    @Param({"1", "32", "256"})
+    public int batchSize;
+    @Param({"1", "4", "8"})
+    public int threads;
+
+    List<NodeLayer> system;
+    Batch batch;
+    ParallelTrainer trainer;
+    double[][] samples;
+    int[] inputValueOffsets;
+    int[] targetValueOffsets;
+    double[][] learningRateCoefficients;
+
+    @Setup
+    public void setup()
+    {
+        system = Networks.network(width, true);
+        batch = new Batch(system, batchSize);
+        trainer = new ParallelTrainer(batch.network, threads, batchSize, 1L);
+        samples = Networks.samples(SAMPLES, width);
+        inputValueOffsets = new int[]{0, -1, -1};
+        targetValueOffsets = new int[]{-1, -1, width};
+        learningRateCoefficients = Networks.learningRateCoefficients(system);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        trainer.shutdown();
+    }
+
+    @Benchmark
+    public Batch batch()
+    {
+        for(int from = 0; from < SAMPLES; from += batchSize)
+        {
+            int to = Math.min(SAMPLES, from + batchSize);
+            FeedForwardNetwork.feedForward(batch, samples, from, to, inputValueOffsets);
+            FeedForwardNetwork.backpropagate(batch, samples, from, to, targetValueOffsets, learningRateCoefficients);
+        }
+        return batch;
+    }
+
+    @Benchmark
+    public ParallelTrainer parallel()
+    {
+        for(int from = 0; from < SAMPLES; from += batchSize)
+            trainer.trainBatch(samples, from, Math.min(SAMPLES, from + batchSize),
+                    inputValueOffsets, targetValueOffsets, learningRateCoefficients);
+        return trainer;
+    }
+}
@@ -0,0 +1,25 @@
+package oh.neural.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/** Runs benchmarks with the GC profiler, reporting allocation rate per operation.
+ * Accepts usual JMH command line options, e.g. a benchmark name pattern, -p width=1024, -t 8.
+ * On JDK 9 or later, benchmark JVMs get module jdk.incubator.vector, enabling vector kernels on JDK 17 or later.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws Exception
+    {
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class);
+        if (!System.getProperty("java.specification.version").startsWith("1."))
+            options.jvmArgsAppend("--add-modules", "jdk.incubator.vector");
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,103 @@
+package oh.neural.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import oh.neural.Batch;
+import oh.neural.FeedForwardNetwork;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Mini-batch training over 256 samples in batches of 32: without biases, with biases,
+ * and with a constant input node feeding the hidden and output layers in place of biases.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BiasBenchmark {
+
+    static final int SAMPLES = 256;
+    static final int BATCH = 32;
+
+    @Param({"100", "1024"})
+    public int width;
+
+    Batch plain, biases, constantInput;
+    double[][] samples;
+    double[][] lrc;
+    double[][] constantLrc;
+    int[] inputValueOffsets = {0, -1, -1};
+    int[] targetValueOffsets;
+    int[] constantInputValueOffsets = {0, -1, -1, -1};
+    int[] constantTargetValueOffsets;
+
+    @Setup
+    public void setup()
+    {
+        samples = Networks.samples(SAMPLES, width);
+        List<NodeLayer> system = Networks.network(width, true);
+        lrc = Networks.learningRateCoefficients(system);
+        targetValueOffsets = new int[]{-1, -1, width};
+        plain = new Batch(system, BATCH);
+
+        system = Networks.network(width, true);
+        system.get(1).addBiases();
+        system.get(2).addBiases();
+        biases = new Batch(system, BATCH);
+
+        system = Networks.network(width, true);
+        NodeLayer one = new NodeLayer(1, true);
+        one.nodeValues[0] = 1.0;
+        system.get(1).addFeedingLayer(one, null);
+        system.get(2).addFeedingLayer(one, null);
+        system = new ArrayList<>(Arrays.asList(system.get(0), one, system.get(1), system.get(2)));
+        constantLrc = Networks.learningRateCoefficients(system);
+        constantTargetValueOffsets = new int[]{-1, -1, -1, width};
+        constantInput = new Batch(system, BATCH);
+    }
+
+    static Batch train(Batch batch, double[][] samples, int[] inputValueOffsets, int[] targetValueOffsets,
+            double[][] lrc)
+    {
+        for(int from = 0; from < SAMPLES; from += BATCH)
+        {
+            FeedForwardNetwork.feedForward(batch, samples, from, from + BATCH, inputValueOffsets);
+            FeedForwardNetwork.backpropagate(batch, samples, from, from + BATCH, targetValueOffsets, lrc);
+        }
+        return batch;
+    }
+
+    @Benchmark
+    public Batch plain()
+    {
+        return train(plain, samples, inputValueOffsets, targetValueOffsets, lrc);
+    }
+
+    @Benchmark
+    public Batch biases()
+    {
+        return train(biases, samples, inputValueOffsets, targetValueOffsets, lrc);
+    }
+
+    @Benchmark
+    public Batch constantInput()
+    {
+        return train(constantInput, samples, constantInputValueOffsets, constantTargetValueOffsets, constantLrc);
+    }
+}
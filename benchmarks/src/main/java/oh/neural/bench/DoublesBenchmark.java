@@ -0,0 +1,95 @@
+package oh.neural.bench;
+
+import java.util.concurrent.TimeUnit;
+import oh.neural.Doubles;
+import oh.neural.Prob;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Doubles: allocating operations against destination and in-place ones,
+ * and plain, pairwise, compensated and parallel sums.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DoublesBenchmark {
+
+    @Param({"1024", "1048576"})
+    public int length;
+
+    double[] a;
+    double[] b;
+    double[] out;
+
+    @Setup
+    public void setup()
+    {
+        a = new double[length];
+        b = new double[length];
+        out = new double[length];
+        Prob.fillFromU(a, -1, 1);
+        Prob.fillFromU(b, -1, 1);
+    }
+
+    @Benchmark
+    public double[] addAllocating()
+    {
+        return Doubles.add(Doubles.mul(a, 0.5), b);
+    }
+
+    @Benchmark
+    public double[] addInto()
+    {
+        return Doubles.add(Doubles.mul(a, 0.5, out), b, out);
+    }
+
+    @Benchmark
+    public double[] axpy()
+    {
+        return Doubles.axpy(1e-9, a, b);
+    }
+
+    @Benchmark
+    public double[] parallelAxpy()
+    {
+        return Doubles.parallelAxpy(1e-9, a, b);
+    }
+
+    @Benchmark
+    public double sum()
+    {
+        return Doubles.sum(a);
+    }
+
+    @Benchmark
+    public double pairwiseSum()
+    {
+        return Doubles.pairwiseSum(a, 0, a.length);
+    }
+
+    @Benchmark
+    public double kahanSum()
+    {
+        return Doubles.kahanSum(a, 0, a.length);
+    }
+
+    @Benchmark
+    public double parallelSum()
+    {
+        return Doubles.parallelSum(a);
+    }
+}
@@ -0,0 +1,150 @@
+package oh.neural.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import oh.neural.Batch;
+import oh.neural.CompiledNetwork;
+import oh.neural.Doubles;
+import oh.neural.FeedForwardNetwork;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+import oh.neural.Fn;
+import oh.neural.HogwildTrainer;
+import oh.neural.ParallelTrainer;
+import oh.neural.Rng;
+import oh.neural.WeightMatrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Convergence per wall-clock second: time to train from the same initial weights to a target error,
+ * per-sample Hogwild against mini-batch ParallelTrainer, on one thread and on several.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HogwildBenchmark {
+
+    @Param({"hogwild", "parallel"})
+    public String trainer;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    /** Average absolute error to train to */
+    @Param({"0.12"})
+    public double target;
+
+    static final int WIDTH = 8, MAX_EPOCHS = 1000;
+    static final int[] inputValueOffsets = { 0, -1, -1 };
+    static final int[] targetValueOffsets = { -1, -1, WIDTH };
+
+    List<NodeLayer> system;
+    double[][][] initialWeights;
+    double[][] data;
+    double[][] lrc;
+    Batch eval;
+    HogwildTrainer hogwild;
+    ParallelTrainer parallel;
+
+    @Setup
+    public void setup()
+    {
+        NodeLayer in = new NodeLayer(WIDTH, true);
+        NodeLayer hidden = new NodeLayer(256, true);
+        NodeLayer out = new NodeLayer(1, true);
+        hidden.transferFunction = Fn.Transfer.tanh(2.0);
+        hidden.deltaFunction = Fn.Transfer.tanhD1(2.0);
+        out.transferFunction = Fn.Transfer.linear(1.0);
+        out.deltaFunction = Fn.Transfer.linearD1(1.0);
+        system = new ArrayList<>();
+        hidden.addFeedingLayer(in, system);
+        out.addFeedingLayer(hidden, system);
+        FeedForwardNetwork.resetWeights(system, 1L);
+        initialWeights = new double[system.size()][][];
+        for(int x = 1; x < system.size(); x++)
+            initialWeights[x] = system.get(x).weights[0].toArray();
+
+        // one input of WIDTH is set per sample, so concurrent per-sample updates seldom touch the same weights
+        Rng random = Rng.xoroshiro(2L);
+        data = new double[4000][];
+        for(int i = 0; i < data.length; i++)
+        {
+            double[] sample = new double[WIDTH + 1];
+            double x = random.nextDouble();
+            sample[(int)(x * WIDTH)] = x;
+            sample[WIDTH] = 1 - (x * x + Math.sin(x*10)*0.2);
+            data[i] = sample;
+        }
+        // per-sample steps take the rate as is, mini-batch steps the average gradient of 64 rows
+        double rate = trainer.equals("hogwild") ? 0.01 : 0.3;
+        lrc = new double[][]{ Doubles.fill(WIDTH, rate), Doubles.fill(256, rate), Doubles.fill(1, rate) };
+        CompiledNetwork network = FeedForwardNetwork.compile(system);
+        eval = new Batch(network, data.length);
+        if (trainer.equals("hogwild"))
+            hogwild = new HogwildTrainer(network, threads, 7L);
+        else
+            parallel = new ParallelTrainer(network, threads, 64, 7L);
+    }
+
+    @Setup(Level.Invocation)
+    public void resetWeights()
+    {
+        for(int x = 1; x < system.size(); x++)
+        {
+            WeightMatrix w = system.get(x).weights[0];
+            for(int i = 0; i < w.rows; i++)
+                for(int j = 0; j < w.cols; j++)
+                    w.set(i, j, initialWeights[x][i][j]);
+        }
+    }
+
+    @TearDown
+    public void shutdown()
+    {
+        if (hogwild != null)
+            hogwild.shutdown();
+        if (parallel != null)
+            parallel.shutdown();
+    }
+
+    double error()
+    {
+        eval.feedForward(data, 0, data.length, inputValueOffsets);
+        double error = 0;
+        for(int b = 0; b < data.length; b++)
+            error += Math.abs(eval.values[2][b] - data[b][WIDTH]);
+        return error / data.length;
+    }
+
+    /** Trains epochs until the target error; returns epochs taken */
+    @Benchmark
+    public int toTarget()
+    {
+        for(int epoch = 1; epoch <= MAX_EPOCHS; epoch++)
+        {
+            if (hogwild != null)
+                hogwild.trainEpoch(data, inputValueOffsets, targetValueOffsets, lrc);
+            else
+                parallel.trainEpoch(data, inputValueOffsets, targetValueOffsets, lrc);
+            if (error() < target)
+                return epoch;
+        }
+        throw new IllegalStateException(trainer + " did not reach error " + target + " in " + MAX_EPOCHS + " epochs");
+    }
+}
@@ -0,0 +1,88 @@
+package oh.neural.bench;
+
+import java.util.concurrent.TimeUnit;
+import oh.neural.Kernels;
+import oh.neural.Prob;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Kernels in use (see Kernels.implementation()) against plain loops.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KernelsBenchmark {
+
+    @Param({"16", "256", "4096"})
+    public int length;
+
+    double[] x, y;
+    float[] fx, fy;
+
+    @Setup
+    public void setup()
+    {
+        System.out.println("kernels: " + Kernels.implementation());
+        x = new double[length];
+        y = new double[length];
+        Prob.fillFromU(x, -1, 1);
+        Prob.fillFromU(y, -1, 1);
+        fx = new float[length];
+        fy = new float[length];
+        for(int i = 0; i < length; i++)
+        {
+            fx[i] = (float)x[i];
+            fy[i] = (float)y[i];
+        }
+    }
+
+    @Benchmark
+    public double dotLoop()
+    {
+        double sum = 0.0;
+        for(int i = 0; i < length; i++)
+            sum += x[i] * y[i];
+        return sum;
+    }
+
+    @Benchmark
+    public double dot()
+    {
+        return Kernels.dot(x, 0, y, 0, length);
+    }
+
+    @Benchmark
+    public float dotFloat()
+    {
+        return Kernels.dot(fx, 0, fy, 0, length);
+    }
+
+    @Benchmark
+    public double[] axpyLoop()
+    {
+        for(int i = 0; i < length; i++)
+            y[i] += 1e-9 * x[i];
+        return y;
+    }
+
+    @Benchmark
+    public double[] axpy()
+    {
+        Kernels.axpy(1e-9, x, 0, y, 0, length);
+        return y;
+    }
+}
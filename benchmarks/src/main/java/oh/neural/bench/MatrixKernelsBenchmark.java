@@ -0,0 +1,96 @@
+package oh.neural.bench;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import oh.neural.Kernels;
+import oh.neural.MatrixKernels;
+import oh.neural.Prob;
+import oh.neural.WeightMatrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Blocked matrix products against one dot product / axpy per weight row,
+ * for a width x width layer and a batch of 32 rows.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatrixKernelsBenchmark {
+
+    static final int ROWS = 32;
+
+    @Param({"64", "256", "1024"})
+    public int width;
+
+    WeightMatrix w;
+    double[] x, y;
+
+    @Setup
+    public void setup()
+    {
+        w = WeightMatrix.flat(width, width);
+        for(int i = 0; i < width; i++)
+            Prob.fillFromU(w.row(i), -1, 1, w.offset(i), w.offset(i) + width - 1);
+        x = new double[ROWS * width];
+        y = new double[ROWS * width];
+        Prob.fillFromU(x, -1, 1);
+    }
+
+    @Benchmark
+    public double[] multiplyRows()
+    {
+        Arrays.fill(y, 0.0);
+        for(int i = 0; i < width; i++)
+            for(int b = 0; b < ROWS; b++)
+                y[b * width + i] += Kernels.dot(x, b * width, w.row(i), w.offset(i), width);
+        return y;
+    }
+
+    @Benchmark
+    public double[] multiply()
+    {
+        Arrays.fill(y, 0.0);
+        MatrixKernels.multiply(w, x, y, ROWS);
+        return y;
+    }
+
+    @Benchmark
+    public double[] multiplyTransposedRows()
+    {
+        Arrays.fill(y, 0.0);
+        for(int i = 0; i < width; i++)
+            for(int b = 0; b < ROWS; b++)
+                Kernels.axpy(x[b * width + i], w.row(i), w.offset(i), y, b * width, width);
+        return y;
+    }
+
+    @Benchmark
+    public double[] multiplyTransposed()
+    {
+        Arrays.fill(y, 0.0);
+        MatrixKernels.multiplyTransposed(w, x, y, ROWS);
+        return y;
+    }
+
+    @Benchmark
+    public double[] multiplyVector()
+    {
+        Arrays.fill(y, 0, width, 0.0);
+        MatrixKernels.multiply(w, x, 0, y, 0);
+        return y;
+    }
+}
@@ -0,0 +1,80 @@
+package oh.neural.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import oh.neural.FeedForwardNetwork;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+import oh.neural.Model;
+import oh.neural.NetworkFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Inference with model weights on heap, in direct buffers, and mapped from a file.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBenchmark {
+
+    @Param({"100", "1024"})
+    public int width;
+
+    @Param({"heap", "direct", "mapped"})
+    public String storage;
+
+    Model model;
+    Model.Workspace workspace;
+    double[][] samples;
+    double[] out;
+    Path path;
+    int next;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        List<NodeLayer> system = Networks.network(width, true);
+        switch(storage)
+        {
+            case "heap": model = Model.snapshot(FeedForwardNetwork.compile(system), false); break;
+            case "direct": model = Model.snapshot(FeedForwardNetwork.compile(system), true); break;
+            default:
+                path = Files.createTempFile("bench", ".ohnn");
+                NetworkFile.write(system, path);
+                model = NetworkFile.map(path);
+        }
+        workspace = model.newWorkspace();
+        samples = Networks.samples(64, width);
+        out = new double[model.outputSize];
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        if (path != null)
+            Files.deleteIfExists(path);
+    }
+
+    @Benchmark
+    public double[] predict()
+    {
+        return model.predict(samples[next++ & 63], out, workspace);
+    }
+}
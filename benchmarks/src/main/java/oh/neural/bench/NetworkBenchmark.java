@@ -0,0 +1,75 @@
+package oh.neural.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import oh.neural.CompiledNetwork;
+import oh.neural.FeedForwardNetwork;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Per-sample end-to-end training step: feed forward and backpropagate one sample.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NetworkBenchmark {
+
+    @Param({"10", "100", "1024", "4096"})
+    public int width;
+
+    List<NodeLayer> system;
+    CompiledNetwork network;
+    double[][] samples;
+    int[] targetValueOffsets;
+    double[][] learningRateCoefficients;
+    int next;
+
+    @Setup
+    public void setup()
+    {
+        system = Networks.network(width, true);
+        network = FeedForwardNetwork.compile(system);
+        samples = Networks.samples(64, width);
+        targetValueOffsets = new int[]{-1, -1, width};
+        learningRateCoefficients = Networks.learningRateCoefficients(system);
+    }
+
+    private double[] nextSample()
+    {
+        double[] sample = samples[next++ & 63];
+        System.arraycopy(sample, 0, system.get(0).nodeValues, 0, width);
+        return sample;
+    }
+
+    @Benchmark
+    public double[] backpropagate()
+    {
+        double[] sample = nextSample();
+        FeedForwardNetwork.feedForward(system);
+        FeedForwardNetwork.backpropagate(system, sample, targetValueOffsets, learningRateCoefficients);
+        return system.get(2).nodeValues;
+    }
+
+    @Benchmark
+    public double[] compiledTrain()
+    {
+        double[] sample = nextSample();
+        network.train(sample, targetValueOffsets, learningRateCoefficients);
+        return system.get(2).nodeValues;
+    }
+}
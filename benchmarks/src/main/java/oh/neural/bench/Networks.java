@@ -0,0 +1,49 @@
+package oh.neural.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import oh.neural.Doubles;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+import oh.neural.Fn;
+import oh.neural.Prob;
+
+/** Networks and data shared by benchmarks.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+final class Networks {  private Networks(){}
+
+    /** input(width) -> hidden(width, tanh) -> output(1, linear) */
+    static List<NodeLayer> network(int width, boolean flatWeights)
+    {
+        NodeLayer in = new NodeLayer(width, flatWeights);
+        NodeLayer hidden = new NodeLayer(width, flatWeights);
+        NodeLayer out = new NodeLayer(1, flatWeights);
+        hidden.transferFunction = Fn.Transfer.tanh(1.0);
+        hidden.deltaFunction = Fn.Transfer.tanhD1(1.0);
+        out.transferFunction = Fn.Transfer.linear(1.0);
+        out.deltaFunction = Fn.Transfer.linearD1(1.0);
+        List<NodeLayer> system = new ArrayList<>();
+        hidden.addFeedingLayer(in, system);
+        out.addFeedingLayer(hidden, system);
+        Prob.fillFromU(in.nodeValues, -1, 1);
+        return system;
+    }
+
+    static double[][] learningRateCoefficients(List<NodeLayer> system)
+    {
+        double[][] lrc = new double[system.size()][];
+        for(int i = 0; i < lrc.length; i++)
+            lrc[i] = Doubles.fill(system.get(i).size(), 0.0001);
+        return lrc;
+    }
+
+    /** Samples of width inputs followed by one target value */
+    static double[][] samples(int count, int width)
+    {
+        double[][] samples = new double[count][width + 1];
+        for(double[] sample : samples)
+            Prob.fillFromU(sample, -1, 1);
+        return samples;
+    }
+}
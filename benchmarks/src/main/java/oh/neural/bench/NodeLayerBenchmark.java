@@ -0,0 +1,70 @@
+package oh.neural.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import oh.neural.Doubles;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+import oh.neural.Prob;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Single layer forward and backward pass, width x width weights.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NodeLayerBenchmark {
+
+    @Param({"10", "100", "1024", "4096"})
+    public int width;
+    @Param({"false", "true"})
+    public boolean flatWeights;
+
+    NodeLayer hidden;
+    double[] learningRateCoefs;
+
+    @Setup
+    public void setup()
+    {
+        List<NodeLayer> system = Networks.network(width, flatWeights);
+        hidden = system.get(1);
+        hidden.feedForward();
+        Prob.fillFromU(hidden.errorTerms, -0.01, 0.01);
+        learningRateCoefs = Doubles.fill(width, 0.0001);
+    }
+
+    @Benchmark
+    public double[] feedForward()
+    {
+        hidden.feedForward();
+        return hidden.nodeValues;
+    }
+
+    @Benchmark
+    public double[] backpropagate()
+    {
+        hidden.backpropagate(hidden.errorTerms, learningRateCoefs);
+        return hidden.errorDeltas;
+    }
+
+    /** Error terms of the feeding (input) layer from hidden layer error terms; transposed weight product */
+    @Benchmark
+    public double[] computeHiddenLayerErrorTerms()
+    {
+        return hidden.feedingLayers.get(0).computeHiddenLayerErrorTerms();
+    }
+}
@@ -0,0 +1,115 @@
+package oh.neural.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import oh.neural.Doubles;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+import oh.neural.Fn;
+import oh.neural.Optimizer;
+import oh.neural.Prob;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Applying gradients of a width x width layer: plain SGD by NodeLayer.applyGradients
+ * against each optimizer's one-pass update.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OptimizerBenchmark {
+
+    @Param({"1024"})
+    public int width;
+
+    List<NodeLayer> system;
+    NodeLayer layer;
+    double[][] gradients;
+    double[] lrc;
+    Optimizer sgd, momentum, nesterov, rmsProp, adam, adamW;
+
+    @Setup
+    public void setup()
+    {
+        NodeLayer in = new NodeLayer(width, true);
+        layer = new NodeLayer(width, true);
+        layer.transferFunction = Fn.Transfer.tanh(1.0);
+        layer.deltaFunction = Fn.Transfer.tanhD1(1.0);
+        system = new ArrayList<>();
+        layer.addFeedingLayer(in, system);
+        gradients = new double[][]{ new double[width * width] };
+        // small gradients keep weights finite over the run
+        Prob.fillFromU(gradients[0], -1e-9, 1e-9);
+        lrc = Doubles.fill(width, 0.01);
+        sgd = Optimizer.sgd(system);
+        momentum = Optimizer.momentum(system, 0.9);
+        nesterov = Optimizer.nesterov(system, 0.9);
+        rmsProp = Optimizer.rmsProp(system, 0.9, 1e-8);
+        adam = Optimizer.adam(system, 0.9, 0.999, 1e-8);
+        adamW = Optimizer.adamW(system, 0.9, 0.999, 1e-8, 1e-4);
+    }
+
+    @Benchmark
+    public NodeLayer plain()
+    {
+        layer.applyGradients(gradients, lrc, 1.0);
+        return layer;
+    }
+
+    Optimizer apply(Optimizer optimizer)
+    {
+        optimizer.beginStep();
+        optimizer.apply(1, gradients, lrc, 1.0, 0, width);
+        return optimizer;
+    }
+
+    @Benchmark
+    public Optimizer sgd()
+    {
+        return apply(sgd);
+    }
+
+    @Benchmark
+    public Optimizer momentum()
+    {
+        return apply(momentum);
+    }
+
+    @Benchmark
+    public Optimizer nesterov()
+    {
+        return apply(nesterov);
+    }
+
+    @Benchmark
+    public Optimizer rmsProp()
+    {
+        return apply(rmsProp);
+    }
+
+    @Benchmark
+    public Optimizer adam()
+    {
+        return apply(adam);
+    }
+
+    @Benchmark
+    public Optimizer adamW()
+    {
+        return apply(adamW);
+    }
+}
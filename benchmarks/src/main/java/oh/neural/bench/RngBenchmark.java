@@ -0,0 +1,105 @@
+package oh.neural.bench;
+
+import java.util.concurrent.TimeUnit;
+import oh.neural.Prob;
+import oh.neural.Rng;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Filling 4096 weights: Math.random() as Prob used to, against Rng generators;
+ * and with four threads at once, where Math.random() contends on its one generator.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RngBenchmark {
+
+    double[] weights;
+    Rng xoroshiro;
+    Rng splittable;
+
+    @Setup
+    public void setup()
+    {
+        weights = new double[4096];
+        xoroshiro = Rng.xoroshiro(1L);
+        splittable = Rng.splittable(1L);
+    }
+
+    private double[] mathRandom()
+    {
+        for(int i = 0; i < weights.length; i++)
+            weights[i] = Math.random() - 0.5;
+        return weights;
+    }
+
+    @Benchmark
+    public double[] uniformMathRandom()
+    {
+        return mathRandom();
+    }
+
+    @Benchmark
+    public double[] uniformCurrent()
+    {
+        Prob.fillFromU(weights, -0.5, 0.5);
+        return weights;
+    }
+
+    @Benchmark
+    public double[] uniformXoroshiro()
+    {
+        Prob.fillFromU(xoroshiro, weights, -0.5, 0.5, 0, weights.length - 1);
+        return weights;
+    }
+
+    @Benchmark
+    public double[] uniformSplittable()
+    {
+        Prob.fillFromU(splittable, weights, -0.5, 0.5, 0, weights.length - 1);
+        return weights;
+    }
+
+    @Benchmark
+    public double[] normalXoroshiro()
+    {
+        Prob.fillFromN(xoroshiro, weights, 0.0, 0.1, 0, weights.length - 1);
+        return weights;
+    }
+
+    @Benchmark
+    public double[] truncatedNormalXoroshiro()
+    {
+        Prob.fillFromTruncatedN(xoroshiro, weights, 0.0, 0.1, 0, weights.length - 1);
+        return weights;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public double[] uniformMathRandom4Threads()
+    {
+        return mathRandom();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public double[] uniformCurrent4Threads()
+    {
+        Prob.fillFromU(weights, -0.5, 0.5);
+        return weights;
+    }
+}
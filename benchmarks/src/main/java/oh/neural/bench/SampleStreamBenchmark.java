@@ -0,0 +1,125 @@
+package oh.neural.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import oh.neural.DDArray;
+import oh.neural.FeedForwardNetwork;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+import oh.neural.ParallelTrainer;
+import oh.neural.SampleStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** One epoch of mini-batch training over 16384 samples: from memory, streamed from
+ * a binary and a CSV file (in page cache) with reading overlapped with training,
+ * and from a memory-mapped dataset (DDArray).
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SampleStreamBenchmark {
+
+    static final int SAMPLES = 16384;
+
+    @Param({"10", "100"})
+    public int width;
+    @Param({"1024"})
+    public int chunkRows;
+
+    List<NodeLayer> system;
+    ParallelTrainer trainer;
+    double[][] samples;
+    Path binary;
+    Path csv;
+    Path dataset;
+    DDArray mapped;
+    int[] inputValueOffsets;
+    int[] targetValueOffsets;
+    double[][] learningRateCoefficients;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        system = Networks.network(width, true);
+        trainer = new ParallelTrainer(FeedForwardNetwork.compile(system), 1, 32, 1L);
+        samples = Networks.samples(SAMPLES, width);
+        binary = Files.createTempFile("samples", ".bin");
+        SampleStream.writeBinary(samples, binary);
+        csv = Files.createTempFile("samples", ".csv");
+        StringBuilder text = new StringBuilder();
+        for(double[] sample : samples)
+        {
+            for(int j = 0; j < sample.length; j++)
+                text.append(j == 0 ? "" : ",").append(sample[j]);
+            text.append('\n');
+        }
+        Files.write(csv, text.toString().getBytes("US-ASCII"));
+        dataset = Files.createTempFile("samples", ".ohds");
+        DDArray.write(samples, 0, width, dataset);
+        mapped = DDArray.map(dataset);
+        inputValueOffsets = new int[]{0, -1, -1};
+        targetValueOffsets = new int[]{-1, -1, width};
+        learningRateCoefficients = Networks.learningRateCoefficients(system);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        trainer.shutdown();
+        Files.deleteIfExists(binary);
+        Files.deleteIfExists(csv);
+        Files.deleteIfExists(dataset);
+    }
+
+    @Benchmark
+    public ParallelTrainer memory()
+    {
+        trainer.trainEpoch(samples, inputValueOffsets, targetValueOffsets, learningRateCoefficients);
+        return trainer;
+    }
+
+    @Benchmark
+    public ParallelTrainer binary() throws IOException
+    {
+        try(SampleStream stream = SampleStream.binary(binary, width + 1, chunkRows))
+        {
+            trainer.train(stream, inputValueOffsets, targetValueOffsets, learningRateCoefficients);
+        }
+        return trainer;
+    }
+
+    @Benchmark
+    public ParallelTrainer mapped()
+    {
+        trainer.trainEpoch(mapped, learningRateCoefficients);
+        return trainer;
+    }
+
+    @Benchmark
+    public ParallelTrainer csv() throws IOException
+    {
+        try(SampleStream stream = SampleStream.csv(csv, width + 1, chunkRows))
+        {
+            trainer.train(stream, inputValueOffsets, targetValueOffsets, learningRateCoefficients);
+        }
+        return trainer;
+    }
+}
@@ -0,0 +1,127 @@
+package oh.neural.bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import oh.neural.Model;
+import oh.neural.SampleStream;
+import oh.neural.Scoring;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Writing 65536 predictions: String.format("%.3f") through a BufferedWriter,
+ * as hand-written scoring loops do, against Scoring outputs; and the whole
+ * scoring pipeline from a binary file, with CSV and binary output.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScoringBenchmark {
+
+    static final int ROWS = 65536;
+
+    @Param({"10"})
+    public int width;
+    @Param({"1", "4"})
+    public int threads;
+
+    Model model;
+    Scoring scoring;
+    double[] predictions;
+    Path input;
+    Path output;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        model = Model.snapshot(Networks.network(width, true));
+        scoring = new Scoring(model, threads);
+        predictions = new double[ROWS];
+        double[][] samples = Networks.samples(ROWS, width);
+        for(int r = 0; r < ROWS; r++)
+            predictions[r] = model.predict(samples[r], new double[1])[0];
+        input = Files.createTempFile("samples", ".bin");
+        SampleStream.writeBinary(samples, input);
+        output = Files.createTempFile("scores", ".out");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        scoring.close();
+        Files.deleteIfExists(input);
+        Files.deleteIfExists(output);
+    }
+
+    @Benchmark
+    public Path stringFormat() throws IOException
+    {
+        try(BufferedWriter out = Files.newBufferedWriter(output, StandardCharsets.US_ASCII))
+        {
+            for(double p : predictions)
+            {
+                out.write(String.format("%.3f", p));
+                out.write('\n');
+            }
+        }
+        return output;
+    }
+
+    @Benchmark
+    public Path csvOutput() throws IOException
+    {
+        try(Scoring.Output out = Scoring.Output.csv(output, 3))
+        {
+            out.write(predictions, ROWS, 1);
+        }
+        return output;
+    }
+
+    @Benchmark
+    public Path binaryOutput() throws IOException
+    {
+        try(Scoring.Output out = Scoring.Output.binary(output))
+        {
+            out.write(predictions, ROWS, 1);
+        }
+        return output;
+    }
+
+    @Benchmark
+    public Scoring.Report scoreToCsv() throws IOException
+    {
+        try(SampleStream in = SampleStream.binary(input, width + 1, 4096);
+                Scoring.Output out = Scoring.Output.csv(output, 3))
+        {
+            return scoring.score(in, 0, out);
+        }
+    }
+
+    @Benchmark
+    public Scoring.Report scoreToBinary() throws IOException
+    {
+        try(SampleStream in = SampleStream.binary(input, width + 1, 4096);
+                Scoring.Output out = Scoring.Output.binary(output))
+        {
+            return scoring.score(in, 0, out);
+        }
+    }
+}
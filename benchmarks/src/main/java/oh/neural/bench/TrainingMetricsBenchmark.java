@@ -0,0 +1,80 @@
+package oh.neural.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import oh.neural.Batch;
+import oh.neural.CompiledNetwork;
+import oh.neural.FeedForwardNetwork;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+import oh.neural.TrainingMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Overhead of TrainingMetrics on per-sample and mini-batch (32) training steps:
+ * without a listener (interval 0), measuring every step, and measuring every 100th.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrainingMetricsBenchmark {
+
+    @Param({"10", "1024"})
+    public int width;
+    @Param({"0", "1", "100"})
+    public int interval;
+
+    List<NodeLayer> system;
+    CompiledNetwork network;
+    Batch batch;
+    double[][] samples;
+    int[] inputValueOffsets;
+    int[] targetValueOffsets;
+    double[][] learningRateCoefficients;
+    int next;
+
+    @Setup
+    public void setup()
+    {
+        system = Networks.network(width, true);
+        network = FeedForwardNetwork.compile(system);
+        if (interval > 0)
+            network.listener = new TrainingMetrics(system, interval);
+        batch = new Batch(network, 32);
+        samples = Networks.samples(64, width);
+        inputValueOffsets = new int[]{0, -1, -1};
+        targetValueOffsets = new int[]{-1, -1, width};
+        learningRateCoefficients = Networks.learningRateCoefficients(system);
+    }
+
+    @Benchmark
+    public double[] compiledTrain()
+    {
+        double[] sample = samples[next++ & 63];
+        System.arraycopy(sample, 0, system.get(0).nodeValues, 0, width);
+        network.train(sample, targetValueOffsets, learningRateCoefficients);
+        return system.get(2).nodeValues;
+    }
+
+    @Benchmark
+    public Batch batchTrain()
+    {
+        int from = (next++ & 1) * 32;
+        batch.feedForward(samples, from, from + 32, inputValueOffsets);
+        FeedForwardNetwork.backpropagate(batch, samples, from, from + 32, targetValueOffsets, learningRateCoefficients);
+        return batch;
+    }
+}
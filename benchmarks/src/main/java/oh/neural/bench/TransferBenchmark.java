@@ -0,0 +1,106 @@
+package oh.neural.bench;
+
+import java.util.concurrent.TimeUnit;
+import oh.neural.Fn;
+import oh.neural.Fn.Dd;
+import oh.neural.Prob;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Fn.Transfer functions and their derivatives over 1024 values:
+ * one call per value, bulk apply, bulk apply of an interpolated table (max error 1e-5),
+ * and the derivative of a Fused pair from cached inputs and outputs.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransferBenchmark {
+
+    @Param({"linear", "staircase", "sigmoid", "tanh", "softsign", "gaussian"})
+    public String function;
+
+    Dd f;
+    Dd d1;
+    Dd approximation;
+    Fn.Transfer.Fused fused;
+    double[] in = new double[1024];
+    double[] out = new double[1024];
+    double[] values = new double[1024];
+
+    @Setup
+    public void setup()
+    {
+        switch(function)
+        {
+            case "linear":    f = Fn.Transfer.linear(1.0);      d1 = Fn.Transfer.linearD1(1.0); break;
+            case "staircase": f = Fn.Transfer.staircase(8);     d1 = Fn.Transfer.staircaseD1(8); break;
+            case "sigmoid":   f = Fn.Transfer.sigmoid(3.0);     d1 = Fn.Transfer.sigmoidD1(3.0); break;
+            case "tanh":      f = Fn.Transfer.tanh(1.0);        d1 = Fn.Transfer.tanhD1(1.0); break;
+            case "softsign":  f = Fn.Transfer.softsign();       d1 = Fn.Transfer.softsignD1(); break;
+            case "gaussian":  f = Fn.Transfer.gaussian(1.0);    d1 = Fn.Transfer.gaussianD1(1.0); break;
+            default: throw new IllegalArgumentException(function);
+        }
+        approximation = Fn.Transfer.approximate(f, -10, 10, 1e-5);
+        fused = Fn.Transfer.fused(f);
+        Prob.fillFromU(in, -3, 3);
+        f.apply(in, values);
+    }
+
+    @Benchmark
+    public double[] transfer()
+    {
+        for(int i = 0; i < in.length; i++)
+            out[i] = f.f(in[i]);
+        return out;
+    }
+
+    @Benchmark
+    public double[] derivative()
+    {
+        for(int i = 0; i < in.length; i++)
+            out[i] = d1.f(in[i]);
+        return out;
+    }
+
+    @Benchmark
+    public double[] transferApply()
+    {
+        f.apply(in, out);
+        return out;
+    }
+
+    @Benchmark
+    public double[] derivativeApply()
+    {
+        d1.apply(in, out);
+        return out;
+    }
+
+    @Benchmark
+    public double[] derivativeFused()
+    {
+        fused.d1(in, values, out, 0, in.length);
+        return out;
+    }
+
+    @Benchmark
+    public double[] transferApproximation()
+    {
+        approximation.apply(in, out);
+        return out;
+    }
+}
@@ -0,0 +1,87 @@
+package oh.neural.bench;
+
+import java.util.concurrent.TimeUnit;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+import oh.neural.Fn;
+import oh.neural.Rng;
+import oh.neural.WeightInit;
+import oh.neural.WeightMatrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Initializing a width x width layer: serially with Math.random(), as resetFeedingWeights did,
+ * against block-seeded schemes; and building a layer of four feeding layers,
+ * which initializes only each new connection.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WeightInitBenchmark {
+
+    @Param({"1024", "4096"})
+    public int width;
+
+    NodeLayer layer;
+
+    @Setup
+    public void setup()
+    {
+        layer = new NodeLayer(width, true);
+        layer.transferFunction = Fn.Transfer.tanh(1.0);
+        layer.random = Rng.xoroshiro(1L);
+        layer.addFeedingLayer(new NodeLayer(width), null);
+    }
+
+    @Benchmark
+    public NodeLayer serialMathRandom()
+    {
+        WeightMatrix w = layer.weights[0];
+        double limit = 0.5 * layer.glorotBengioWeightFactor(layer.transferFunction);
+        for(int i = 0; i < w.rows; i++)
+        {
+            double[] row = w.row(i);
+            for(int j = w.offset(i); j < w.offset(i) + w.cols; j++)
+                row[j] = Math.random() * 2 * limit - limit;
+        }
+        return layer;
+    }
+
+    @Benchmark
+    public NodeLayer glorotBengio()
+    {
+        WeightInit.glorotBengio.init(layer, 0, 1L);
+        return layer;
+    }
+
+    @Benchmark
+    public NodeLayer he()
+    {
+        WeightInit.he.init(layer, 0, 1L);
+        return layer;
+    }
+
+    @Benchmark
+    public NodeLayer addFourFeedingLayers()
+    {
+        NodeLayer receiving = new NodeLayer(width, true);
+        receiving.transferFunction = Fn.Transfer.tanh(1.0);
+        receiving.random = Rng.xoroshiro(1L);
+        for(int k = 0; k < 4; k++)
+            receiving.addFeedingLayer(new NodeLayer(width / 4), null);
+        return receiving;
+    }
+}
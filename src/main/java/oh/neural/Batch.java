@@ -0,0 +1,288 @@
+package oh.neural;
+
+import java.util.Arrays;
+import java.util.List;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+
+/** Buffers for feeding a batch of samples through a system of layers at once.
+ *
+ * Values of a layer are held row-major, one row (of layer size) per sample.
+ * Weight gradients are accumulated over the batch and applied in one update,
+ * so that each weight is loaded once per batch instead of once per sample.
+ *
+ * Layers are evaluated in the order of a CompiledNetwork, so the system
+ * must not contain cycles. Steps (applyGradients, or per-sample backpropagate)
+ * are reported to the network's TrainingListener, if any.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public class Batch {
+
+    public final List<NodeLayer> system;
+    public final CompiledNetwork network;
+    public final int capacity;
+    /** Number of rows fed forward last */
+    public int rows;
+    /** [layer][row * size + node], layers indexed as in system;
+     * inputs hold inputs of transfer functions, for Fn.Transfer.Fused derivatives */
+    public final double[][] inputs;
+    public final double[][] values;
+    public final double[][] errorTerms;
+    public final double[][] errorDeltas;
+    /** [layer][feeding][node * feedingSize + feedingNode], then [layer][feeding count][node] for biases
+     * of layers that have them */
+    public final double[][][] gradients;
+    /** Number of rows accumulated in gradients */
+    public int gradientRows;
+
+    final double[][][] feedingValues;
+    final double[][][] receivingErrorTerms;
+    /** Whether layers are timed, for a measured step */
+    boolean measuring;
+    /** [layer] time spent in the step being measured */
+    final long[] forwardNanos;
+    final long[] backwardNanos;
+    /** [2 * layer] squared gradient norm, [2 * layer + 1] squared update norm */
+    final double[] squaredNorms;
+    /** A row of weights before an optimizer's update, for measuring it */
+    final double[] previousWeights;
+
+    public Batch(List<NodeLayer> system, int capacity)
+    {
+        this(new CompiledNetwork(system), capacity);
+    }
+
+    public Batch(CompiledNetwork network, int capacity)
+    {
+        this.network = network;
+        this.system = network.system;
+        this.capacity = capacity;
+        int L = system.size();
+        inputs = new double[L][];
+        values = new double[L][];
+        errorTerms = new double[L][];
+        errorDeltas = new double[L][];
+        gradients = new double[L][][];
+        for(int x = 0; x < L; x++)
+        {
+            NodeLayer layer = system.get(x);
+            int size = capacity * layer.size();
+            inputs[x] = new double[size];
+            values[x] = new double[size];
+            errorTerms[x] = new double[size];
+            errorDeltas[x] = new double[size];
+            gradients[x] = new double[layer.gradientCount()][];
+            for(int k = 0; k < gradients[x].length; k++)
+                gradients[x][k] = new double[layer.size() * layer.gradientCols(k)];
+        }
+        forwardNanos = new long[L];
+        backwardNanos = new long[L];
+        squaredNorms = new double[2 * L];
+        int cols = 0;
+        for(NodeLayer layer : system)
+            for(int k = 0; k < layer.weights.length; k++)
+                cols = Math.max(cols, layer.weights[k].cols);
+        previousWeights = new double[cols];
+        feedingValues = new double[L][][];
+        receivingErrorTerms = new double[L][][];
+        for(int p = 0; p < L; p++)
+        {
+            int x = network.systemIndices[p];
+            int[] feeding = network.feeding[p];
+            feedingValues[x] = new double[feeding.length][];
+            for(int k = 0; k < feeding.length; k++)
+                feedingValues[x][k] = values[network.systemIndices[feeding[k]]];
+            int[] receiving = network.receiving[p];
+            receivingErrorTerms[x] = new double[receiving.length][];
+            for(int r = 0; r < receiving.length; r++)
+                receivingErrorTerms[x][r] = errorTerms[network.systemIndices[receiving[r]]];
+        }
+    }
+
+    /** Feeds samples [from, to) forward.
+     * @param inputValueOffsets index values for a sample where input layer(s)' values are to be found,
+     * indexed as layers in system; for an input layer with negative offset, its current nodeValues
+     * are used for every row
+     */
+    public void feedForward(double[][] samples, int from, int to, int[] inputValueOffsets)
+    {
+        rows = checkRows(from, to);
+        for(int p = 0; p < network.layers.length; p++)
+        {
+            NodeLayer layer = network.layers[p];
+            int x = network.systemIndices[p];
+            int n = layer.size();
+            long t = measuring ? System.nanoTime() : 0L;
+            if (layer.feedingLayers.isEmpty())
+            {
+                int offset = inputValueOffsets[x];
+                for(int b = 0; b < rows; b++)
+                    System.arraycopy(offset < 0 ? layer.nodeValues : samples[from + b], Math.max(0, offset),
+                            values[x], b * n, n);
+            }
+            else
+            {
+                layer.feedForward(feedingValues[x], inputs[x], values[x], rows);
+            }
+            if (measuring)
+                forwardNanos[x] += System.nanoTime() - t;
+        }
+    }
+
+    /** Computes error terms and adds weight gradients for the rows fed forward last.
+     * @param samples same samples as given to feedForward
+     * @param targetValueOffsets index values for a sample where output layer(s)' target values are to be found,
+     * indexed as layers in system
+     */
+    public void accumulateGradients(double[][] samples, int from, int[] targetValueOffsets)
+    {
+        for(int q = 0; q < network.backward.length; q++)
+        {
+            int p = network.backward[q];
+            int x = network.systemIndices[p];
+            long t = measuring ? System.nanoTime() : 0L;
+            computeErrorTerms(p, samples, from, targetValueOffsets);
+            network.layers[p].accumulateGradients(values[x], inputs[x], errorTerms[x], errorDeltas[x], 
+                    feedingValues[x], gradients[x], rows);
+            if (measuring)
+                backwardNanos[x] += System.nanoTime() - t;
+        }
+        gradientRows += rows;
+    }
+
+    /** Learning, backpropagates error deltas of the one row fed forward last, 
+     * updating weights immediately layer by layer as FeedForwardNetwork.backpropagate does.
+     * Weights are not locked; concurrent callers with batches of their own may share layers.
+     * @param samples same samples as given to feedForward
+     */
+    public void backpropagate(double[][] samples, int from, int[] targetValueOffsets, double[][] learningRateCoefficients)
+    {
+        if (rows != 1)
+            throw new IllegalStateException("per-sample backpropagation of " + rows + " rows");
+        TrainingListener l = network.listener;
+        for(int q = 0; q < network.backward.length; q++)
+        {
+            int p = network.backward[q];
+            int x = network.systemIndices[p];
+            NodeLayer layer = network.layers[p];
+            long t = measuring ? System.nanoTime() : 0L;
+            computeErrorTerms(p, samples, from, targetValueOffsets);
+            layer.backpropagate(values[x], inputs[x], errorTerms[x], errorDeltas[x], feedingValues[x], 
+                    learningRateCoefficients[x]);
+            if (measuring && l != null)
+            {
+                backwardNanos[x] += System.nanoTime() - t;
+                double feedingSquaredNorm = layer.biases != null ? 1.0 : 0.0;
+                for(int k = 0; k < layer.weights.length; k++)
+                    feedingSquaredNorm += Kernels.dot(feedingValues[x][k], 0, feedingValues[x][k], 0, layer.weights[k].cols);
+                CompiledNetwork.addSquaredNorms(errorDeltas[x], layer.size(), feedingSquaredNorm, 
+                        learningRateCoefficients[x], squaredNorms, 2 * x);
+            }
+        }
+        if (l != null)
+            endStep(l, 1, 1.0, 1.0);
+    }
+
+    /** Reports a step to a listener, with its measurements if measured, and decides whether to measure the next.
+     * @param scale gradient norms are multiplied by this
+     * @param updateScale update norms are multiplied by this */
+    void endStep(TrainingListener l, int rows, double scale, double updateScale)
+    {
+        if (measuring)
+        {
+            for(int x = 0; x < system.size(); x++)
+                if (!system.get(x).feedingLayers.isEmpty())
+                    l.layer(x, rows, forwardNanos[x], backwardNanos[x], 
+                            Math.sqrt(squaredNorms[2 * x]) * scale, Math.sqrt(squaredNorms[2 * x + 1]) * updateScale);
+            Arrays.fill(forwardNanos, 0L);
+            Arrays.fill(backwardNanos, 0L);
+            Arrays.fill(squaredNorms, 0.0);
+        }
+        l.trained(rows);
+        measuring = network.sampleStep(l);
+    }
+
+    private void computeErrorTerms(int p, double[][] samples, int from, int[] targetValueOffsets)
+    {
+        NodeLayer layer = network.layers[p];
+        int x = network.systemIndices[p];
+        int n = layer.size();
+        if (layer.receivingLayers.isEmpty())
+        {
+            int offset = targetValueOffsets[x];
+            for(int b = 0; b < rows; b++)
+            {
+                double[] sample = samples[from + b];
+                for(int i = 0; i < n; i++)
+                    errorTerms[x][b * n + i] = sample[offset + i] - values[x][b * n + i];
+            }
+        }
+        else
+        {
+            layer.computeHiddenLayerErrorTerms(receivingErrorTerms[x], network.receivingFeedingIndices[p], 
+                    errorTerms[x], rows);
+        }
+    }
+
+    /** Applies gradients averaged over accumulated rows to weights, with the network's optimizer if any,
+     * and clears gradients.
+     * @param learningRateCoefficients individuated for each neuron
+     */
+    public void applyGradients(double[][] learningRateCoefficients)
+    {
+        if (gradientRows == 0)
+            return;
+        int rows = gradientRows;
+        double scale = 1.0 / rows;
+        TrainingListener l = network.listener;
+        Optimizer optimizer = network.optimizer;
+        if (optimizer != null)
+            optimizer.beginStep();
+        for(int x = 0; x < system.size(); x++)
+        {
+            NodeLayer layer = system.get(x);
+            long t = measuring ? System.nanoTime() : 0L;
+            if (optimizer != null && measuring && l != null)
+                optimizer.apply(x, gradients[x], learningRateCoefficients[x], scale, 0, layer.size(), 
+                        previousWeights, squaredNorms, 2 * x + 1);
+            else if (optimizer != null)
+                optimizer.apply(x, gradients[x], learningRateCoefficients[x], scale, 0, layer.size());
+            else
+                layer.applyGradients(gradients[x], learningRateCoefficients[x], scale);
+            if (measuring && l != null)
+            {
+                backwardNanos[x] += System.nanoTime() - t;
+                CompiledNetwork.addSquaredNorms(layer, gradients[x], optimizer != null ? null : learningRateCoefficients[x], 
+                        0, layer.size(), squaredNorms, 2 * x);
+            }
+        }
+        clearGradients();
+        // an optimizer measures the change it made, already scaled
+        if (l != null)
+            endStep(l, rows, scale, optimizer != null ? 1.0 : scale);
+    }
+
+    public void clearGradients()
+    {
+        for(double[][] layerGradients : gradients)
+            for(double[] g : layerGradients)
+                Arrays.fill(g, 0.0);
+        gradientRows = 0;
+    }
+
+    /** Values of given layer for given row, copied to out */
+    public double[] getValues(int layerIndex, int row, double[] out)
+    {
+        int n = system.get(layerIndex).size();
+        System.arraycopy(values[layerIndex], row * n, out, 0, n);
+        return out;
+    }
+
+    private int checkRows(int from, int to)
+    {
+        int count = to - from;
+        if (count < 0 || count > capacity)
+            throw new IllegalArgumentException("batch of " + count + " rows, capacity is " + capacity);
+        return count;
+    }
+}
@@ -0,0 +1,275 @@
+package oh.neural;
+
+import java.util.List;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+
+/** A system of layers with its evaluation order resolved once.
+ *
+ * Forward schedule is a topological order of the layers
+ * (feeding layers before receiving ones, ties broken by system order);
+ * the backward schedule is its reverse, without input layers.
+ * Connections are not expected to change after compiling.
+ *
+ * Arguments indexed by layer (target value offsets, learning rate coefficients)
+ * are indexed as layers in the system list, as with FeedForwardNetwork.
+ *
+ * A TrainingListener set as listener receives measurements of training through
+ * this network, per sample with train, or with Batch and the trainers.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public class CompiledNetwork {
+
+    public final List<NodeLayer> system;
+    /** Layers in forward order */
+    public final NodeLayer[] layers;
+    /** System index of each layer in forward order */
+    public final int[] systemIndices;
+    /** Forward order positions of layers to backpropagate, output layers first */
+    public final int[] backward;
+    /** [forward position][feeding] forward position of feeding layer */
+    final int[][] feeding;
+    /** [forward position][receiving] forward position of receiving layer */
+    final int[][] receiving;
+    /** [forward position][receiving] index of this layer in receiving layer's feedingLayers */
+    final int[][] receivingFeedingIndices;
+    /** Receives measurements of training steps, or null */
+    public TrainingListener listener;
+    /** Learning rule for accumulated gradients (Batch, ParallelTrainer), or null for plain SGD;
+     * per-sample training is always plain SGD */
+    public Optimizer optimizer;
+    /** Steps counted for sampling measured steps; not synchronized, so only approximate
+     * when threads train concurrently */
+    long steps;
+    private final long[] forwardNanos;
+    private final double[] squaredNorms = new double[2];
+
+    public CompiledNetwork(List<NodeLayer> system)
+    {
+        this.system = system;
+        int L = system.size();
+        int[][] feedingX = new int[L][];
+        int[] unresolved = new int[L];
+        for(int x = 0; x < L; x++)
+        {
+            NodeLayer layer = system.get(x);
+            feedingX[x] = new int[layer.feedingLayers.size()];
+            for(int k = 0; k < feedingX[x].length; k++)
+            {
+                feedingX[x][k] = system.indexOf(layer.feedingLayers.get(k));
+                if (feedingX[x][k] < 0)
+                    throw new IllegalArgumentException("feeding layer " + k + " of layer " + x + " is not in system");
+            }
+            for(NodeLayer r : layer.receivingLayers)
+                if (system.indexOf(r) < 0)
+                    throw new IllegalArgumentException("a receiving layer of layer " + x + " is not in system");
+            unresolved[x] = feedingX[x].length;
+        }
+
+        layers = new NodeLayer[L];
+        systemIndices = new int[L];
+        int[] position = new int[L];
+        boolean[] scheduled = new boolean[L];
+        for(int p = 0; p < L; p++)
+        {
+            int next = -1;
+            for(int x = 0; x < L && next < 0; x++)
+                if (!scheduled[x] && unresolved[x] == 0)
+                    next = x;
+            if (next < 0)
+                throw new IllegalArgumentException("system contains a cycle through layers " + cycle(feedingX, scheduled)
+                        + " (recurrent connections are not supported by compiled networks)");
+            scheduled[next] = true;
+            layers[p] = system.get(next);
+            systemIndices[p] = next;
+            position[next] = p;
+            for(int x = 0; x < L; x++)
+                for(int f : feedingX[x])
+                    if (f == next)
+                        unresolved[x]--;
+        }
+
+        feeding = new int[L][];
+        receiving = new int[L][];
+        receivingFeedingIndices = new int[L][];
+        int trainable = 0;
+        for(int p = 0; p < L; p++)
+        {
+            NodeLayer layer = layers[p];
+            feeding[p] = new int[feedingX[systemIndices[p]].length];
+            for(int k = 0; k < feeding[p].length; k++)
+                feeding[p][k] = position[feedingX[systemIndices[p]][k]];
+            receiving[p] = new int[layer.receivingLayers.size()];
+            receivingFeedingIndices[p] = new int[receiving[p].length];
+            for(int r = 0; r < receiving[p].length; r++)
+            {
+                NodeLayer receivingLayer = layer.receivingLayers.get(r);
+                receiving[p][r] = position[system.indexOf(receivingLayer)];
+                receivingFeedingIndices[p][r] = receivingLayer.feedingLayers.indexOf(layer);
+            }
+            if (!layer.feedingLayers.isEmpty())
+                trainable++;
+        }
+        forwardNanos = new long[L];
+        backward = new int[trainable];
+        for(int p = L - 1, b = 0; p >= 0; p--)
+            if (!layers[p].feedingLayers.isEmpty())
+                backward[b++] = p;
+    }
+
+    /** System indices of layers on a cycle, in feeding order, as "2 -> 3 -> 2".
+     * Each unscheduled layer has an unscheduled feeding layer, so walking back through these repeats a layer.
+     */
+    private static String cycle(int[][] feedingX, boolean[] scheduled)
+    {
+        int[] walk = new int[scheduled.length];
+        int[] step = new int[scheduled.length];
+        int n = 0;
+        int x = 0;
+        while(scheduled[x])
+            x++;
+        while(step[x] == 0)
+        {
+            walk[n++] = x;
+            step[x] = n;
+            for(int f : feedingX[x])
+                if (!scheduled[f])
+                {
+                    x = f;
+                    break;
+                }
+        }
+        StringBuilder b = new StringBuilder();
+        for(int i = n - 1; i >= step[x] - 1; i--)
+            b.append(walk[i]).append(" -> ");
+        return b.append(walk[n - 1]).toString();
+    }
+
+    /** Feeds activation forward; input layers' nodeValues are expected to be set */
+    public void forward()
+    {
+        for(int p = 0; p < layers.length; p++)
+            layers[p].feedForward();
+    }
+
+    /** Learning, backpropagates error deltas of the sample fed forward last.
+     * @see FeedForwardNetwork#backpropagate(java.util.List, double[], int[], double[][])
+     */
+    public void backpropagate(double[] sample, int[] targetValueOffsets, double[][] learningRateCoefficients)
+    {
+        for(int b = 0; b < backward.length; b++)
+        {
+            int p = backward[b];
+            NodeLayer layer = layers[p];
+            int x = systemIndices[p];
+            if (receiving[p].length == 0)
+                layer.computeOutputLayerErrorTerms(sample, targetValueOffsets[x]);
+            else
+                layer.computeHiddenLayerErrorTerms(receivingFeedingIndices[p]);
+            layer.backpropagate(layer.errorTerms, learningRateCoefficients[x]);
+        }
+    }
+
+    /** Feeds forward and backpropagates one sample; input layers' nodeValues are expected to be set.
+     * With a listener, every call is counted and every sampleInterval()'th call measured;
+     * forward and backpropagate called on their own are not.
+     */
+    public void train(double[] sample, int[] targetValueOffsets, double[][] learningRateCoefficients)
+    {
+        TrainingListener l = listener;
+        if (l != null && sampleStep(l))
+        {
+            trainMeasured(l, sample, targetValueOffsets, learningRateCoefficients);
+            return;
+        }
+        forward();
+        backpropagate(sample, targetValueOffsets, learningRateCoefficients);
+        if (l != null)
+            l.trained(1);
+    }
+
+    private void trainMeasured(TrainingListener l, double[] sample, int[] targetValueOffsets, 
+            double[][] learningRateCoefficients)
+    {
+        for(int p = 0; p < layers.length; p++)
+        {
+            long t = System.nanoTime();
+            layers[p].feedForward();
+            forwardNanos[p] = System.nanoTime() - t;
+        }
+        for(int b = 0; b < backward.length; b++)
+        {
+            int p = backward[b];
+            NodeLayer layer = layers[p];
+            int x = systemIndices[p];
+            long t = System.nanoTime();
+            if (receiving[p].length == 0)
+                layer.computeOutputLayerErrorTerms(sample, targetValueOffsets[x]);
+            else
+                layer.computeHiddenLayerErrorTerms(receivingFeedingIndices[p]);
+            layer.backpropagate(layer.errorTerms, learningRateCoefficients[x]);
+            long backwardNanos = System.nanoTime() - t;
+            double feedingSquaredNorm = layer.biases != null ? 1.0 : 0.0;
+            for(NodeLayer f : layer.feedingLayers)
+                feedingSquaredNorm += Kernels.dot(f.nodeValues, 0, f.nodeValues, 0, f.nodeValues.length);
+            squaredNorms[0] = squaredNorms[1] = 0.0;
+            addSquaredNorms(layer.errorDeltas, layer.size(), feedingSquaredNorm, learningRateCoefficients[x], 
+                    squaredNorms, 0);
+            l.layer(x, 1, forwardNanos[p], backwardNanos, Math.sqrt(squaredNorms[0]), Math.sqrt(squaredNorms[1]));
+        }
+        l.trained(1);
+    }
+
+    /** Counts a step, and tells if it is to be measured */
+    boolean sampleStep(TrainingListener l)
+    {
+        return ++steps % Math.max(1, l.sampleInterval()) == 0;
+    }
+
+    /** Adds squared norms of the gradient of one row, errorDeltas times feeding values, to out[at],
+     * and of the weight update (gradient times learning rate coefficients) to out[at + 1].
+     * The squared norm of an outer product is the product of squared norms of its factors,
+     * so the gradient is not formed.
+     * @param feedingSquaredNorm sum of squares of the row's values of all feeding layers,
+     * plus one for the constant input of biases
+     */
+    static void addSquaredNorms(double[] errorDeltas, int n, double feedingSquaredNorm, double[] learningRateCoefs,
+            double[] out, int at)
+    {
+        for(int i = 0; i < n; i++)
+        {
+            double g = errorDeltas[i] * errorDeltas[i] * feedingSquaredNorm;
+            out[at] += g;
+            out[at + 1] += learningRateCoefs[i] * learningRateCoefs[i] * g;
+        }
+    }
+
+    /** Adds squared norms of accumulated gradients (biases included) of nodes [fromNode, toNode) to out[at],
+     * and of their weight updates (gradient times learning rate coefficients) to out[at + 1];
+     * with null learningRateCoefs, as when an Optimizer measures its own update, only the former */
+    static void addSquaredNorms(NodeLayer layer, double[][] gradients, double[] learningRateCoefs, 
+            int fromNode, int toNode, double[] out, int at)
+    {
+        for(int k = 0; k < layer.gradientCount(); k++)
+        {
+            int cols = layer.gradientCols(k);
+            double[] g = gradients[k];
+            for(int i = fromNode; i < toNode; i++)
+            {
+                double s = Kernels.dot(g, i * cols, g, i * cols, cols);
+                out[at] += s;
+                if (learningRateCoefs != null)
+                    out[at + 1] += learningRateCoefs[i] * learningRateCoefs[i] * s;
+            }
+        }
+    }
+
+    /** Position of given layer in forward order, or -1 */
+    public int positionOf(NodeLayer layer)
+    {
+        for(int p = 0; p < layers.length; p++)
+            if (layers[p] == layer)
+                return p;
+        return -1;
+    }
+}
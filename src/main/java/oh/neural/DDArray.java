@@ -1,25 +1,109 @@
 package oh.neural;
 
-/**
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Random;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+
+/** A dataset of rows, held in memory or mapped from a file; next() reads values in order.
+ *
+ * A mapped dataset is read-only and is not copied onto heap, so processes mapping
+ * the same file share one page-cached copy. Rows have a fixed width (columns);
+ * the file is mapped in segments of whole rows, as one mapping is limited to 2 GB.
+ *
+ * File format, little-endian: int magic "OHDS", int version, int columns,
+ * int input offset, int target offset, int padding, long rows; rows of doubles
+ * follow at offset HEADER_SIZE.
+ *
+ * Input and target offsets locate input and target values in a row,
+ * see inputValueOffsets and targetValueOffsets.
  *
  * @author Paavo Toivanen https://github.com/pvto
  */
 public class DDArray {
 
+    static final int MAGIC = 'O' | 'H' << 8 | 'D' << 16 | 'S' << 24;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+
     double[][] sources;
+    /** Mapped rows, segmentRows rows per segment */
+    final DoubleBuffer[] segments;
+    final int segmentRows;
+    /** Values per row; 0 for in-memory sources of different lengths */
+    public final int columns;
+    public final long rows;
+    public final int inputOffset;
+    public final int targetOffset;
     public int offsetY = 0;
     public int offset = 0;
+    /** Number of values, or Integer.MAX_VALUE if a mapped dataset has more.
+     * @deprecated use valueCount(), which counts values of mapped datasets beyond Integer.MAX_VALUE */
+    @Deprecated
     public int size = 0;
-    
+    final long valueCount;
+
     public DDArray(double[][] sources)
+    {
+        this(sources, 0, -1);
+    }
+
+    public DDArray(double[][] sources, int inputOffset, int targetOffset)
     {
         this.sources = sources;
+        long valueCount = 0;
         for(int i = 0; i < sources.length; i++)
-            size += sources[i].length;
+            valueCount += sources[i].length;
+        this.valueCount = valueCount;
+        size = (int)Math.min(valueCount, Integer.MAX_VALUE);
+        int columns = sources.length > 0 ? sources[0].length : 0;
+        for(double[] source : sources)
+            if (source.length != columns)
+                columns = 0;
+        this.columns = columns;
+        this.rows = sources.length;
+        this.inputOffset = inputOffset;
+        this.targetOffset = targetOffset;
+        segments = null;
+        segmentRows = 0;
+    }
+
+    DDArray(DoubleBuffer[] segments, int segmentRows, int columns, long rows, int inputOffset, int targetOffset)
+    {
+        this.segments = segments;
+        this.segmentRows = segmentRows;
+        this.columns = columns;
+        this.rows = rows;
+        this.inputOffset = inputOffset;
+        this.targetOffset = targetOffset;
+        valueCount = rows * columns;
+        size = (int)Math.min(valueCount, Integer.MAX_VALUE);
+    }
+
+    /** Number of values */
+    public long valueCount()
+    {
+        return valueCount;
     }
-    
+
     public double next()
     {
+        if (segments != null)
+        {
+            double d = segments[offsetY].get(offset++);
+            if (segments[offsetY].limit() == offset)
+            {
+                offsetY++;
+                offset = 0;
+            }
+            return d;
+        }
         double d = sources[offsetY][offset++];
         if (sources[offsetY].length == offset)
         {
@@ -28,11 +112,236 @@ public class DDArray {
         }
         return d;
     }
-    
+
     public void reset()
     {
         offsetY = 0;
         offset = 0;
     }
-    
+
+    public boolean isMapped()
+    {
+        return segments != null;
+    }
+
+    /** A read-only view of row i, sharing the mapped file or the source array */
+    public DoubleBuffer row(long i)
+    {
+        if (segments == null)
+            return DoubleBuffer.wrap(sources[(int)i]).asReadOnlyBuffer();
+        DoubleBuffer segment = segments[(int)(i / segmentRows)].duplicate();
+        int from = (int)(i % segmentRows) * columns;
+        segment.limit(from + columns).position(from);
+        return segment.slice();
+    }
+
+    public double get(long i, int column)
+    {
+        if (segments == null)
+            return sources[(int)i][column];
+        return segments[(int)(i / segmentRows)].get((int)(i % segmentRows) * columns + column);
+    }
+
+    /** Copies row i to out */
+    public double[] get(long i, double[] out)
+    {
+        if (segments == null)
+        {
+            System.arraycopy(sources[(int)i], 0, out, 0, sources[(int)i].length);
+            return out;
+        }
+        DoubleBuffer segment = segments[(int)(i / segmentRows)].duplicate();
+        segment.position((int)(i % segmentRows) * columns);
+        segment.get(out, 0, columns);
+        return out;
+    }
+
+    /** Copies rows order[from], ..., order[to - 1] to out[0], ..., out[to - from - 1] */
+    public void get(int[] order, int from, int to, double[][] out)
+    {
+        for(int k = from; k < to; k++)
+            get(order[k], out[k - from]);
+    }
+
+    /** Row indices in random order, for get(int[], int, int, double[][]) */
+    public int[] shuffle(Random random)
+    {
+        if (rows > Integer.MAX_VALUE)
+            throw new IllegalStateException(rows + " rows do not fit an int permutation");
+        int[] order = new int[(int)rows];
+        for(int i = 0; i < order.length; i++)
+            order[i] = i;
+        for(int i = order.length - 1; i > 0; i--)
+        {
+            int j = random.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+        return order;
+    }
+
+    /** Input value offsets for a system of layers: input layers (without feeding layers)
+     * read consecutive values from inputOffset on, in system order; other layers get -1. */
+    public int[] inputValueOffsets(List<NodeLayer> system)
+    {
+        int[] offsets = new int[system.size()];
+        int at = inputOffset;
+        for(int x = 0; x < offsets.length; x++)
+        {
+            NodeLayer layer = system.get(x);
+            offsets[x] = layer.feedingLayers.isEmpty() ? at : -1;
+            if (layer.feedingLayers.isEmpty())
+                at += layer.size();
+        }
+        return offsets;
+    }
+
+    /** Target value offsets for a system of layers: output layers (without receiving layers)
+     * read consecutive values from targetOffset on, in system order; other layers get -1. */
+    public int[] targetValueOffsets(List<NodeLayer> system)
+    {
+        int[] offsets = new int[system.size()];
+        int at = targetOffset;
+        for(int x = 0; x < offsets.length; x++)
+        {
+            NodeLayer layer = system.get(x);
+            offsets[x] = layer.receivingLayers.isEmpty() ? at : -1;
+            if (layer.receivingLayers.isEmpty())
+                at += layer.size();
+        }
+        return offsets;
+    }
+
+
+    /** Maps a dataset file read-only */
+    public static DDArray map(Path path) throws IOException
+    {
+        return map(path, 0);
+    }
+
+    /** @param segmentRows rows per mapped segment, or 0 for as many as fit in 2 GB */
+    static DDArray map(Path path, int segmentRows) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while(header.hasRemaining() && channel.read(header) >= 0);
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC)
+                throw new IOException("not a dataset file: " + path);
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException("unsupported dataset version " + version);
+            int columns = header.getInt();
+            int inputOffset = header.getInt();
+            int targetOffset = header.getInt();
+            header.getInt();
+            long rows = header.getLong();
+            if (columns < 1 || rows < 0 || channel.size() < HEADER_SIZE + rows * columns * 8)
+                throw new IOException("truncated dataset file: " + path);
+            if (segmentRows <= 0)
+                segmentRows = (int)Math.max(1L, Integer.MAX_VALUE / (columns * 8L));
+            int count = (int)((rows + segmentRows - 1) / segmentRows);
+            DoubleBuffer[] segments = new DoubleBuffer[count];
+            for(int s = 0; s < count; s++)
+            {
+                long segmentSize = Math.min(segmentRows, rows - (long)s * segmentRows) * columns * 8;
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_SIZE + (long)s * segmentRows * columns * 8, segmentSize)
+                        .order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            }
+            return new DDArray(segments, segmentRows, columns, rows, inputOffset, targetOffset);
+        }
+    }
+
+    /** Writes rows of equal length to a dataset file */
+    public static void write(double[][] rows, int inputOffset, int targetOffset, Path path) throws IOException
+    {
+        int columns = rows.length > 0 ? rows[0].length : 0;
+        try(Writer writer = new Writer(path, columns, inputOffset, targetOffset))
+        {
+            for(double[] row : rows)
+                writer.write(row);
+        }
+    }
+
+    /** Converts a CSV file (see SampleStream) to a dataset file */
+    public static void fromCsv(Path csv, int columns, int inputOffset, int targetOffset, Path path) throws IOException
+    {
+        try(SampleStream stream = SampleStream.csv(csv, columns, 4096);
+                Writer writer = new Writer(path, columns, inputOffset, targetOffset))
+        {
+            for(SampleStream.Chunk chunk = stream.next(); chunk != null; chunk = stream.next())
+                for(int r = 0; r < chunk.count; r++)
+                    writer.write(chunk.rows[r]);
+        }
+    }
+
+    /** Appends rows to a new dataset file; the row count is written on close */
+    public static final class Writer implements AutoCloseable
+    {
+        final FileChannel channel;
+        final int columns;
+        /** Rows to write, 64 KB or one row if wider */
+        final ByteBuffer block;
+        final DoubleBuffer doubles;
+        long rows;
+
+        /** @throws IllegalArgumentException unless 1 to Integer.MAX_VALUE / 8 columns, as a mapped row is limited to 2 GB */
+        public Writer(Path path, int columns, int inputOffset, int targetOffset) throws IOException
+        {
+            if (columns < 1 || columns > Integer.MAX_VALUE / 8)
+                throw new IllegalArgumentException(columns + " columns");
+            this.columns = columns;
+            block = ByteBuffer.allocateDirect(Math.max(1 << 16, columns * 8)).order(ByteOrder.LITTLE_ENDIAN);
+            doubles = block.asDoubleBuffer();
+            channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            channel.position(HEADER_SIZE);
+            ByteBuffer header = header(columns, inputOffset, targetOffset, 0);
+            while(header.hasRemaining())
+                channel.write(header, header.position());
+        }
+
+        public void write(double[] row) throws IOException
+        {
+            if (row.length != columns)
+                throw new IllegalArgumentException("row of " + row.length + " values, expected " + columns);
+            if (doubles.remaining() < columns)
+                flush();
+            doubles.put(row);
+            rows++;
+        }
+
+        private void flush() throws IOException
+        {
+            block.clear().limit(doubles.position() * 8);
+            while(block.hasRemaining())
+                channel.write(block);
+            doubles.clear();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try {
+                flush();
+                ByteBuffer count = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putLong(0, rows);
+                while(count.hasRemaining())
+                    channel.write(count, 24 + count.position());
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    static ByteBuffer header(int columns, int inputOffset, int targetOffset, long rows)
+    {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(columns).putInt(inputOffset).putInt(targetOffset)
+                .putInt(0).putLong(rows);
+        header.flip();
+        return header;
+    }
 }
@@ -1,29 +1,113 @@
 package oh.neural;
 
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
-/**
+/** Element-wise operations and reductions on double arrays.
+ *
+ * Each operation comes in three forms: one allocating its result, as ret = op(A, ...);
+ * one writing into a given destination, op(A, ..., out), which returns out; and one
+ * on ranges, op(A, aOffset, ..., out, outOffset, length). A destination may be one of
+ * the sources, which computes in place. Operations on whole arrays go through Kernels
+ * where Kernels has them.
+ *
+ * Parallel variants split arrays of at least PARALLEL_THRESHOLD values into blocks
+ * for the common fork-join pool; the result does not depend on the number of threads.
  *
  * @author Paavo Toivanen https://github.com/pvto
  */
 public final class Doubles {  private Doubles(){}
-    
+
+    /** Arrays shorter than this are not split by the parallel variants */
+    public static final int PARALLEL_THRESHOLD = 1 << 16;
+    /** Block of values summed in a plain loop by pairwise summation */
+    static final int PAIRWISE_BLOCK = 128;
+
     public static final double[] column(double[][] AA, int column)
     {
-        double[] ret = new double[AA.length];
-        for (int i = 0; i < ret.length; i++)
-            ret[i] = AA[i][column];
-        return ret;
+        return column(AA, column, new double[AA.length]);
     }
-    
+
+    public static final double[] column(double[][] AA, int column, double[] out)
+    {
+        for (int i = 0; i < AA.length; i++)
+            out[i] = AA[i][column];
+        return out;
+    }
+
     public static final double sum(double[] A)
+    {
+        return sum(A, 0, A.length);
+    }
+
+    /** Plain sum of A[from], ..., A[to - 1] */
+    public static final double sum(double[] A, int from, int to)
     {
         double sum = 0.0;
-        for(int i = 0; i < A.length; i++)
+        for(int i = from; i < to; i++)
             sum += A[i];
         return sum;
     }
-    
+
+    /** Compensated (Kahan-Babuska-Neumaier) sum of A[from], ..., A[to - 1]; the error does not grow
+     * with the number of values, at about four times the cost of a plain sum */
+    public static final double kahanSum(double[] A, int from, int to)
+    {
+        double sum = 0.0, compensation = 0.0;
+        for(int i = from; i < to; i++)
+        {
+            double t = sum + A[i];
+            if (Math.abs(sum) >= Math.abs(A[i]))
+                compensation += (sum - t) + A[i];
+            else
+                compensation += (A[i] - t) + sum;
+            sum = t;
+        }
+        return sum + compensation;
+    }
+
+    /** Pairwise sum of A[from], ..., A[to - 1]; the error grows with the logarithm of the number
+     * of values, at nearly the cost of a plain sum */
+    public static final double pairwiseSum(double[] A, int from, int to)
+    {
+        if (to - from <= PAIRWISE_BLOCK)
+            return sum(A, from, to);
+        int middle = from + (to - from) / 2;
+        return pairwiseSum(A, from, middle) + pairwiseSum(A, middle, to);
+    }
+
+    /** Largest of A[from], ..., A[to - 1], or NaN if one is NaN; negative infinity for an empty range */
+    public static final double max(double[] A, int from, int to)
+    {
+        double max = Double.NEGATIVE_INFINITY;
+        for(int i = from; i < to; i++)
+        {
+            if (A[i] != A[i])
+                return Double.NaN;
+            if (A[i] > max)
+                max = A[i];
+        }
+        return max;
+    }
+
+    public static final double max(double[] A)
+    {
+        return max(A, 0, A.length);
+    }
+
+    /** Euclidean (L2) norm of length values from offset; overflows for values beyond 1e154 */
+    public static final double norm(double[] A, int offset, int length)
+    {
+        return Math.sqrt(Kernels.dot(A, offset, A, offset, length));
+    }
+
+    public static final double norm(double[] A)
+    {
+        return norm(A, 0, A.length);
+    }
+
     public static final double[] fill(int size, double x)
     {
         double[] ret = new double[size];
@@ -39,113 +123,350 @@ public final class Doubles {  private Doubles(){}
             ret[i] = Arrays.copyOf(A, A.length);
         return ret;
     }
-    
+
     public static final double[] sub(double[] A, double[] B)
     {
-        double[] ret = new double[A.length];
-        for(int i = 0; i < A.length; i++)
-            ret[i] = A[i] - B[i];
-        return ret;
+        return sub(A, B, new double[A.length]);
+    }
+
+    public static final double[] sub(double[] A, double[] B, double[] out)
+    {
+        Kernels.sub(A, B, out, A.length);
+        return out;
+    }
+
+    public static final void sub(double[] A, int aOffset, double[] B, int bOffset, double[] out, int outOffset, int length)
+    {
+        for(int i = 0; i < length; i++)
+            out[outOffset + i] = A[aOffset + i] - B[bOffset + i];
     }
-    
+
     public static final double[] add(double[] A, double[] B)
     {
-        double[] ret = new double[A.length];
-        for(int i = 0; i < A.length; i++)
-            ret[i] = A[i] + B[i];
-        return ret;
+        return add(A, B, new double[A.length]);
+    }
+
+    public static final double[] add(double[] A, double[] B, double[] out)
+    {
+        Kernels.add(A, B, out, A.length);
+        return out;
+    }
+
+    public static final void add(double[] A, int aOffset, double[] B, int bOffset, double[] out, int outOffset, int length)
+    {
+        for(int i = 0; i < length; i++)
+            out[outOffset + i] = A[aOffset + i] + B[bOffset + i];
     }
 
     public static final double[] mul(double[] A, double[] B)
     {
         return dot(A, B);
     }
-    
+
+    public static final double[] mul(double[] A, double[] B, double[] out)
+    {
+        Kernels.mul(A, B, out, A.length);
+        return out;
+    }
+
+    public static final void mul(double[] A, int aOffset, double[] B, int bOffset, double[] out, int outOffset, int length)
+    {
+        for(int i = 0; i < length; i++)
+            out[outOffset + i] = A[aOffset + i] * B[bOffset + i];
+    }
+
+    /** Element-wise product, as mul; for the scalar product see Kernels.dot */
     public static final double[] dot(double[] A, double[] B)
     {
-        double[] ret = new double[A.length];
-        for(int i = 0; i < A.length; i++)
-            ret[i] = A[i] * B[i];
-        return ret;
+        return mul(A, B, new double[A.length]);
     }
 
     public static final double[] div(double[] A, double[] B)
     {
-        double[] ret = new double[A.length];
-        for(int i = 0; i < A.length; i++)
-            ret[i] = A[i] / B[i];
-        return ret;
+        return div(A, B, new double[A.length]);
+    }
+
+    public static final double[] div(double[] A, double[] B, double[] out)
+    {
+        div(A, 0, B, 0, out, 0, A.length);
+        return out;
+    }
+
+    public static final void div(double[] A, int aOffset, double[] B, int bOffset, double[] out, int outOffset, int length)
+    {
+        for(int i = 0; i < length; i++)
+            out[outOffset + i] = A[aOffset + i] / B[bOffset + i];
     }
 
     public static final double[] sub(double[] A, double b)
     {
-        double[] ret = new double[A.length];
-        for(int i = 0; i < A.length; i++)
-            ret[i] = A[i] - b;
-        return ret;
+        return add(A, -b, new double[A.length]);
     }
-    
+
+    public static final double[] sub(double[] A, double b, double[] out)
+    {
+        return add(A, -b, out);
+    }
+
     public static final double[] add(double[] A, double b)
     {
-        double[] ret = new double[A.length];
-        for(int i = 0; i < A.length; i++)
-            ret[i] = A[i] + b;
-        return ret;
+        return add(A, b, new double[A.length]);
     }
-    
+
+    public static final double[] add(double[] A, double b, double[] out)
+    {
+        add(A, 0, b, out, 0, A.length);
+        return out;
+    }
+
+    public static final void add(double[] A, int aOffset, double b, double[] out, int outOffset, int length)
+    {
+        for(int i = 0; i < length; i++)
+            out[outOffset + i] = A[aOffset + i] + b;
+    }
+
     public static final double[] mul(double[] A, double b)
     {
-        double[] ret = new double[A.length];
-        for(int i = 0; i < A.length; i++)
-            ret[i] = A[i] * b;
-        return ret;
+        return mul(A, b, new double[A.length]);
+    }
+
+    public static final double[] mul(double[] A, double b, double[] out)
+    {
+        Kernels.scale(b, A, 0, out, 0, A.length);
+        return out;
+    }
+
+    public static final void mul(double[] A, int aOffset, double b, double[] out, int outOffset, int length)
+    {
+        Kernels.scale(b, A, aOffset, out, outOffset, length);
     }
-    
+
     public static final double[] div(double[] A, double b)
     {
-        double[] ret = new double[A.length];
-        for(int i = 0; i < A.length; i++)
-            ret[i] = A[i] / b;
-        return ret;
+        return div(A, b, new double[A.length]);
+    }
+
+    public static final double[] div(double[] A, double b, double[] out)
+    {
+        div(A, 0, b, out, 0, A.length);
+        return out;
+    }
+
+    public static final void div(double[] A, int aOffset, double b, double[] out, int outOffset, int length)
+    {
+        for(int i = 0; i < length; i++)
+            out[outOffset + i] = A[aOffset + i] / b;
     }
-    
+
     public static final double[] abs(double[] A)
     {
-        double[] ret = new double[A.length];
-        for(int i = 0; i < A.length; i++)
-            ret[i] = Math.abs(A[i]);
-        return ret;
+        return abs(A, new double[A.length]);
+    }
+
+    public static final double[] abs(double[] A, double[] out)
+    {
+        abs(A, 0, out, 0, A.length);
+        return out;
+    }
+
+    public static final void abs(double[] A, int aOffset, double[] out, int outOffset, int length)
+    {
+        for(int i = 0; i < length; i++)
+            out[outOffset + i] = Math.abs(A[aOffset + i]);
     }
-        
+
     public static final double[] counter(double[] A)
     {
-        double[] ret = new double[A.length];
-        for(int i = 0; i < A.length; i++)
-            ret[i] = 1.0 / A[i];
-        return ret;
+        return counter(A, new double[A.length]);
+    }
+
+    public static final double[] counter(double[] A, double[] out)
+    {
+        counter(A, 0, out, 0, A.length);
+        return out;
+    }
+
+    public static final void counter(double[] A, int aOffset, double[] out, int outOffset, int length)
+    {
+        for(int i = 0; i < length; i++)
+            out[outOffset + i] = 1.0 / A[aOffset + i];
     }
 
     public static final double[] sqr(double[] A)
     {
-        double[] ret = new double[A.length];
-        for(int i = 0; i < A.length; i++)
-            ret[i] = A[i] * A[i];
-        return ret;
+        return sqr(A, new double[A.length]);
     }
-    
+
+    public static final double[] sqr(double[] A, double[] out)
+    {
+        Kernels.mul(A, A, out, A.length);
+        return out;
+    }
+
+    public static final void sqr(double[] A, int aOffset, double[] out, int outOffset, int length)
+    {
+        mul(A, aOffset, A, aOffset, out, outOffset, length);
+    }
+
     public static final double[] sqrt(double[] A)
     {
-        double[] ret = new double[A.length];
-        for(int i = 0; i < A.length; i++)
-            ret[i] = Math.sqrt(A[i]);
-        return ret;
+        return sqrt(A, new double[A.length]);
+    }
+
+    public static final double[] sqrt(double[] A, double[] out)
+    {
+        sqrt(A, 0, out, 0, A.length);
+        return out;
     }
-    
+
+    public static final void sqrt(double[] A, int aOffset, double[] out, int outOffset, int length)
+    {
+        for(int i = 0; i < length; i++)
+            out[outOffset + i] = Math.sqrt(A[aOffset + i]);
+    }
+
     public static final double[] pow(double[] A, double exp)
     {
-        double[] ret = new double[A.length];
-        for(int i = 0; i < A.length; i++)
-            ret[i] = Math.pow(A[i], exp);
-        return ret;
+        return pow(A, exp, new double[A.length]);
+    }
+
+    public static final double[] pow(double[] A, double exp, double[] out)
+    {
+        pow(A, 0, exp, out, 0, A.length);
+        return out;
+    }
+
+    public static final void pow(double[] A, int aOffset, double exp, double[] out, int outOffset, int length)
+    {
+        for(int i = 0; i < length; i++)
+            out[outOffset + i] = Math.pow(A[aOffset + i], exp);
+    }
+
+
+    /** Y += a * X */
+    public static final double[] axpy(double a, double[] X, double[] Y)
+    {
+        Kernels.axpy(a, X, 0, Y, 0, X.length);
+        return Y;
+    }
+
+    public static final void axpy(double a, double[] X, int xOffset, double[] Y, int yOffset, int length)
+    {
+        Kernels.axpy(a, X, xOffset, Y, yOffset, length);
+    }
+
+    /** Y = a * X + b * Y */
+    public static final double[] scaleAdd(double a, double[] X, double b, double[] Y)
+    {
+        scaleAdd(a, X, 0, b, Y, 0, X.length);
+        return Y;
+    }
+
+    public static final void scaleAdd(double a, double[] X, int xOffset, double b, double[] Y, int yOffset, int length)
+    {
+        for(int i = 0; i < length; i++)
+            Y[yOffset + i] = a * X[xOffset + i] + b * Y[yOffset + i];
+    }
+
+    /** Y += A * B, element-wise (multiply-accumulate) */
+    public static final double[] mulAdd(double[] A, double[] B, double[] Y)
+    {
+        mulAdd(A, 0, B, 0, Y, 0, A.length);
+        return Y;
+    }
+
+    public static final void mulAdd(double[] A, int aOffset, double[] B, int bOffset, double[] Y, int yOffset, int length)
+    {
+        for(int i = 0; i < length; i++)
+            Y[yOffset + i] += A[aOffset + i] * B[bOffset + i];
+    }
+
+
+    /** An operation on a range of indices [from, to), for parallelFor */
+    public interface Range
+    {
+        void apply(int from, int to);
+    }
+
+    /** Applies op to consecutive blocks of [0, length) in parallel, or to the whole range
+     * in the calling thread if length is below PARALLEL_THRESHOLD. Blocks do not depend on
+     * the number of threads. */
+    public static final void parallelFor(int length, Range op)
+    {
+        if (length < PARALLEL_THRESHOLD)
+            op.apply(0, length);
+        else
+            ForkJoinPool.commonPool().invoke(new Split(op, 0, length));
+    }
+
+    /** Y += a * X, in parallel for long arrays */
+    public static final double[] parallelAxpy(final double a, final double[] X, final double[] Y)
+    {
+        parallelFor(X.length, (from, to) -> Kernels.axpy(a, X, from, Y, from, to - from));
+        return Y;
+    }
+
+    /** Pairwise sum of A, in parallel for long arrays; equal to pairwiseSum(A, 0, A.length)
+     * whatever the number of threads */
+    public static final double parallelSum(double[] A)
+    {
+        if (A.length < PARALLEL_THRESHOLD)
+            return pairwiseSum(A, 0, A.length);
+        return ForkJoinPool.commonPool().invoke(new PairwiseSum(A, 0, A.length));
+    }
+
+    static final class Split extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+        final Range op;
+        final int from;
+        final int to;
+
+        Split(Range op, int from, int to)
+        {
+            this.op = op;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from <= PARALLEL_THRESHOLD)
+            {
+                op.apply(from, to);
+                return;
+            }
+            int middle = from + (to - from) / 2;
+            invokeAll(new Split(op, from, middle), new Split(op, middle, to));
+        }
+    }
+
+    /** Splits as pairwiseSum does, so the sums are equal */
+    static final class PairwiseSum extends RecursiveTask<Double>
+    {
+        private static final long serialVersionUID = 1L;
+        final double[] A;
+        final int from;
+        final int to;
+
+        PairwiseSum(double[] A, int from, int to)
+        {
+            this.A = A;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Double compute()
+        {
+            if (to - from <= PARALLEL_THRESHOLD)
+                return pairwiseSum(A, from, to);
+            int middle = from + (to - from) / 2;
+            PairwiseSum right = new PairwiseSum(A, middle, to);
+            right.fork();
+            double left = new PairwiseSum(A, from, middle).compute();
+            return left + right.join();
+        }
     }
 }
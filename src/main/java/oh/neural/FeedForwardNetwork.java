@@ -3,9 +3,8 @@ package oh.neural;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import oh.neural.Fn.Dd;
 import oh.neural.Fn.Ddd;
 
@@ -19,8 +18,8 @@ public class FeedForwardNetwork {
     /** Feeds activation from input layer(s) in correct order towards output layer(s) */
     public static void feedForward(List<NodeLayer> system)
     {
-        for(NodeLayer layer : system)
-            layer.feedForward();
+        for(int x = 0; x < system.size(); x++)
+            system.get(x).feedForward();
     }
     
     /** Learning, backpropagates error deltas in correct order from output layer(s) back 
@@ -30,33 +29,33 @@ public class FeedForwardNetwork {
      * @param targetValueOffsets index values for given sample where output layer(s)' target values are to be found. 
      * Their indices match the indices of respective layers in supplied system (list).
      * @param learningRateCoefficients individuated for each neuron
+     * 
+     * Does not allocate; layers are marked done with a pass number instead of a set.
      */
     public static void backpropagate(List<NodeLayer> system, double[] sample, 
             int[] targetValueOffsets,
             double[][] learningRateCoefficients)
     {
-        Set<Integer> done = new HashSet<>();
-        while(done.size() < system.size() - 1)
+        long pass = backpropagationPasses.incrementAndGet();
+        int done = 0;
+        while(done < system.size() - 1)
             for(int x = 0; x < system.size(); x++)
             {
                 NodeLayer xLayer = system.get(x);
                 if (xLayer.receivingLayers.size() == 0)
                 {
-                    double[] targetTermsOut = Arrays.copyOfRange(sample, 
-                            targetValueOffsets[x], 
-                            targetValueOffsets[x] + xLayer.nodeValues.length
-                    );
-                    xLayer.errorTerms = Doubles.sub(targetTermsOut, xLayer.nodeValues);
-                    done.add(xLayer.hashCode());
+                    xLayer.computeOutputLayerErrorTerms(sample, targetValueOffsets[x]);
+                    done += xLayer.markDone(pass);
                     xLayer.backpropagate(xLayer.errorTerms, learningRateCoefficients[x]);
                 }
                 else
                 {
                     boolean canDo = true;
-                    for(NodeLayer receiving : xLayer.receivingLayers)
+                    for(int r = 0; r < xLayer.receivingLayers.size(); r++)
                     {
+                        NodeLayer receiving = xLayer.receivingLayers.get(r);
                         canDo &= 
-                                (done.contains(receiving.hashCode())
+                                (receiving.backpropagationPass == pass
                                 || system.indexOf(receiving) <= system.indexOf(xLayer)
                                 || receiving == xLayer);
                         if (!canDo)
@@ -65,23 +64,91 @@ public class FeedForwardNetwork {
                     if (canDo)
                     {
                         xLayer.computeHiddenLayerErrorTerms();
-                        done.add(xLayer.hashCode());
+                        done += xLayer.markDone(pass);
                         xLayer.backpropagate(xLayer.errorTerms, learningRateCoefficients[x]);
                     }
                 }
             }
     }
     
+    private static final AtomicLong backpropagationPasses = new AtomicLong();
+    
+    /** Resolves forward and backward schedules of given system once.
+     * @throws IllegalArgumentException if layers form a cycle, or connect to layers outside system */
+    public static CompiledNetwork compile(List<NodeLayer> system)
+    {
+        return new CompiledNetwork(system);
+    }
+    
+    /** Re-initializes all feeding weights reproducibly: layer x of system with the x'th generator 
+     * split from Rng.xoroshiro(seed), which is also set as the layer's random. */
+    public static void resetWeights(List<NodeLayer> system, long seed)
+    {
+        Rng random = Rng.xoroshiro(seed);
+        for(NodeLayer layer : system)
+        {
+            layer.random = random.split();
+            layer.resetFeedingWeights(0, true);
+        }
+    }
+    
+    /** Feeds a batch of samples [from, to) forward; see Batch.feedForward */
+    public static void feedForward(Batch batch, double[][] samples, int from, int to, 
+            int[] inputValueOffsets)
+    {
+        batch.feedForward(samples, from, to, inputValueOffsets);
+    }
+    
+    /** Learning, backpropagates error deltas of a batch of samples [from, to) 
+     * that was fed forward last, and applies one weight update with gradients averaged over the batch.
+     * @see #backpropagate(java.util.List, double[], int[], double[][]) 
+     */
+    public static void backpropagate(Batch batch, double[][] samples, int from, int to, 
+            int[] targetValueOffsets,
+            double[][] learningRateCoefficients)
+    {
+        batch.accumulateGradients(samples, from, targetValueOffsets);
+        batch.applyGradients(learningRateCoefficients);
+    }
     
 
+    /** Computes the input that nodes of a layer receive from feeding nodes and their weights.
+     *
+     * Implementations need only compute one node, f; apply computes a whole layer
+     * and by default calls f once per node, which adapts per-node functions.
+     * Dot and diff compute all nodes in one pass with matrix kernels.
+     *
+     * Node biases (NodeLayer.biases) are added by apply, in the same pass that computes input;
+     * f computes input without bias.
+     */
     public interface InputFunction {
 
-        double f(NodeLayer layer, int nodeIndex); // signature would be more correct as f(double[] inputWeights, double[] inputNeuronValues)... can we sacrifice public double[] NodeLayer.nodeValues ?
+        /** Input of one node */
+        double f(NodeLayer layer, int nodeIndex);
+        
+        /** Computes input of all nodes of layer into out. */
+        default void apply(NodeLayer layer, double[] out)
+        {
+            double[] biases = layer.biases;
+            for(int i = 0; i < layer.nodeValues.length; i++)
+                out[i] = biases != null ? f(layer, i) + biases[i] : f(layer, i);
+        }
+        
+        /** Computes input of all nodes for given number of rows of feeding values; see Batch.
+         * Not supported by default, as per-node functions read feeding layers' own values.
+         * @param feedingValues values of each feeding layer, in order of feedingLayers, row-major
+         * @param out output, row-major, one row of layer size per sample
+         */
+        default void apply(NodeLayer layer, double[][] feedingValues, double[] out, int rows)
+        {
+            throw new UnsupportedOperationException("batch feed forward is not supported by input function " + this);
+        }
         
         public static final InputFunction dot       = new Dot();
         public static final InputFunction diff      = new Diff();
         
         
+        /** Weighted sum of feeding values */
         public static final class Dot implements InputFunction {
             @Override
             public double f(NodeLayer layer, int nodeIndex)
@@ -89,16 +156,31 @@ public class FeedForwardNetwork {
                 double sum = 0.0;
                 for (int k = 0; k < layer.feedingLayers.size(); k++)
                 {
-                    NodeLayer feedingLayer = layer.feedingLayers.get(k);
-                    for(int j = 0; j < feedingLayer.nodeValues.length; j++)
-                    {
-                        sum += feedingLayer.nodeValues[j] * layer.transmissionWeights[k][nodeIndex][j];
-                    }
+                    double[] feedingValues = layer.feedingLayers.get(k).nodeValues;
+                    WeightMatrix w = layer.weights[k];
+                    sum += Kernels.dot(feedingValues, 0, w.row(nodeIndex), w.offset(nodeIndex), feedingValues.length);
                 }
                 return sum;
             }
+            
+            @Override
+            public void apply(NodeLayer layer, double[] out)
+            {
+                layer.startInputs(out, 1);
+                for(int k = 0; k < layer.feedingLayers.size(); k++)
+                    MatrixKernels.multiply(layer.weights[k], layer.feedingLayers.get(k).nodeValues, 0, out, 0);
+            }
+            
+            @Override
+            public void apply(NodeLayer layer, double[][] feedingValues, double[] out, int rows)
+            {
+                layer.startInputs(out, rows);
+                for(int k = 0; k < layer.weights.length; k++)
+                    MatrixKernels.multiply(layer.weights[k], feedingValues[k], out, rows);
+            }
         }
         
+        /** Euclidean distance of feeding values from weights, as in radial basis function networks */
         public static final class Diff implements InputFunction {
             @Override
             public double f(NodeLayer layer, int nodeIndex)
@@ -106,15 +188,46 @@ public class FeedForwardNetwork {
                 double sum = 0.0;
                 for (int k = 0; k < layer.feedingLayers.size(); k++)
                 {
-                    NodeLayer feedingLayer = layer.feedingLayers.get(k);
-                    for(int j = 0; j < feedingLayer.nodeValues.length; j++)
-                    {
-                        double delta = feedingLayer.nodeValues[j] - layer.transmissionWeights[k][nodeIndex][j];
-                        sum += delta * delta;
-                    }
+                    double[] feedingValues = layer.feedingLayers.get(k).nodeValues;
+                    WeightMatrix w = layer.weights[k];
+                    sum += Kernels.squaredDistance(feedingValues, 0, w.row(nodeIndex), w.offset(nodeIndex), feedingValues.length);
                 }
                 return Math.sqrt(sum);
             }
+            
+            @Override
+            public void apply(NodeLayer layer, double[] out)
+            {
+                Arrays.fill(out, 0, layer.nodeValues.length, 0.0);
+                for(int k = 0; k < layer.feedingLayers.size(); k++)
+                    MatrixKernels.squaredDistances(layer.weights[k], layer.feedingLayers.get(k).nodeValues, 0, out, 0);
+                sqrtPlusBiases(layer, out, 1);
+            }
+            
+            @Override
+            public void apply(NodeLayer layer, double[][] feedingValues, double[] out, int rows)
+            {
+                Arrays.fill(out, 0, rows * layer.nodeValues.length, 0.0);
+                for(int k = 0; k < layer.weights.length; k++)
+                    MatrixKernels.squaredDistances(layer.weights[k], feedingValues[k], out, rows);
+                sqrtPlusBiases(layer, out, rows);
+            }
+
+            /** out = sqrt(out) + bias, for rows of layer size */
+            private static void sqrtPlusBiases(NodeLayer layer, double[] out, int rows)
+            {
+                int n = layer.nodeValues.length;
+                double[] biases = layer.biases;
+                if (biases == null)
+                {
+                    for(int p = 0; p < rows * n; p++)
+                        out[p] = Math.sqrt(out[p]);
+                    return;
+                }
+                for(int b = 0; b < rows; b++)
+                    for(int i = 0; i < n; i++)
+                        out[b * n + i] = Math.sqrt(out[b * n + i]) + biases[i];
+            }
         }
     }
     
@@ -127,7 +240,14 @@ public class FeedForwardNetwork {
         public double[] errorDeltas; // used by backpropagation learning
         public List<NodeLayer> feedingLayers = new ArrayList<>();
         public List<NodeLayer> receivingLayers = new ArrayList<>();
+        /** Jagged weights [feeding][node][input]; rows are null with flat weight storage, 
+         * see weights */
         public double[][][] transmissionWeights;
+        /** Weights [feeding] as matrices [node][input]; views over transmissionWeights 
+         * unless flat weight storage is used */
+        public WeightMatrix[] weights;
+        /** If true, each feeding layer's weights are kept in one row-major double[] */
+        public final boolean flatWeights;
         
         /** Computes the input that a node receives from feeding nodes and associated feeding weights */
         public InputFunction inputFunction = InputFunction.dot;
@@ -137,26 +257,79 @@ public class FeedForwardNetwork {
         /** A squashing transmission function on input, like, a sigmoid or tanh function. */
         public Dd transferFunction; 
         /** This is used in error backpropagation; 
-         * one should use the first derivative of transmissionFunction */
+         * one should use the first derivative of transmissionFunction.
+         * Not used if transferFunction is Fn.Transfer.Fused. */
         public Dd deltaFunction;
         public double[] errorTerms;
+        /** Swapped with errorTerms on computing hidden layer error terms */
+        private double[] nextErrorTerms;
+        private long backpropagationPass;
+        /** Inputs of transferFunction (after gateFunction) from the last feedForward;
+         * a Fn.Transfer.Fused derivative is computed from these and nodeValues */
+        public double[] preActivations = new double[0];
         /** Computes a value from node value.
          *  Used with getModulatedActivation().
          * Receives node index in layer and node value.
          *  */ 
         public Ddd modulationFunction;
+        /** Number of NaN or infinite weights reset to a random value by weight updates */
+        public final AtomicLong nonFiniteResets = new AtomicLong();
+        /** Generator for weight initialization; set before addFeedingLayer to initialize 
+         * reproducibly. If null, the calling thread's Rng.current() is used. */
+        public Rng random;
+        /** Scheme for initial weights of feeding connections */
+        public WeightInit weightInit = WeightInit.glorotBengio;
+        /** Bias of each node, added to its input before gateFunction and transferFunction, 
+         * and trained with weights; null for none. See addBiases */
+        public double[] biases;
 
         public NodeLayer(int size)
+        {
+            this(size, false);
+        }
+        
+        public NodeLayer(int size, boolean flatWeights)
         {
             nodeValues = new double[size];
             errorDeltas = new double[size];
             errorTerms = new double[size];
+            nextErrorTerms = new double[size];
             transmissionWeights = new double[0][][];
+            weights = new WeightMatrix[0];
+            this.flatWeights = flatWeights;
         }
         
         public int size() { return nodeValues.length; }
+
+        /** Gives nodes biases, initially zero, unless they have them already.
+         * Call before creating a Batch, trainer or Optimizer for the layer, which size their buffers on creation. */
+        public void addBiases()
+        {
+            if (biases == null)
+                biases = new double[nodeValues.length];
+        }
+
+        /** Fills rows of out with biases, or with zeros without biases; an input function that sums
+         * into these adds biases without a pass of its own */
+        public void startInputs(double[] out, int rows)
+        {
+            int n = nodeValues.length;
+            if (biases == null)
+            {
+                Arrays.fill(out, 0, rows * n, 0.0);
+                return;
+            }
+            for(int b = 0; b < rows; b++)
+                System.arraycopy(biases, 0, out, b * n, n);
+        }
         
-        /** Locks a feeding layer to this layer.
+        /** Locks a feeding layer to this layer, and initializes weights of the new connection only;
+         * weights from earlier feeding layers are kept. 
+         * 
+         * Schemes such as glorotBengio and he scale weights by fan-in, which counts all feeding layers,
+         * so earlier connections keep the larger scale of a smaller fan-in. For every connection
+         * at the scale of the final fan-in, call resetFeedingWeights(0, true) once all feeding layers
+         * are added, as FeedForwardNetwork.resetWeights does; this also redraws earlier weights.
          * 
          * Additionally adds this layer, if not already added,
          * and feeding layer, if not already added,
@@ -170,10 +343,19 @@ public class FeedForwardNetwork {
         {
             feedingLayers.add(feeding);
             feeding.receivingLayers.add(this);
-            int newFeedingLayerIndex = transmissionWeights.length;
+            int newFeedingLayerIndex = weights.length;
             transmissionWeights = Arrays.copyOf(transmissionWeights, newFeedingLayerIndex + 1);
-            transmissionWeights[newFeedingLayerIndex] = new double[nodeValues.length][feeding.nodeValues.length];
-            resetFeedingWeights(newFeedingLayerIndex, true);
+            weights = Arrays.copyOf(weights, newFeedingLayerIndex + 1);
+            if (flatWeights)
+            {
+                weights[newFeedingLayerIndex] = WeightMatrix.flat(nodeValues.length, feeding.nodeValues.length);
+            }
+            else
+            {
+                transmissionWeights[newFeedingLayerIndex] = new double[nodeValues.length][feeding.nodeValues.length];
+                weights[newFeedingLayerIndex] = WeightMatrix.wrap(transmissionWeights[newFeedingLayerIndex]);
+            }
+            resetFeedingWeights(newFeedingLayerIndex, false);
             if (system != null)
             {
                 int feedingInd = system.indexOf(feeding);
@@ -193,13 +375,15 @@ public class FeedForwardNetwork {
         
         public void resetFeedingWeights(int feedingLayerIndex, boolean resetAllFeedingWeights)
         {
-            double glorot = glorotBengioWeightFactor(transferFunction);
-            
+            resetFeedingWeights(feedingLayerIndex, resetAllFeedingWeights, random != null ? random : Rng.current());
+        }
+
+        /** Initializes weights with weightInit, each feeding layer's seeded with random.nextLong() */
+        public void resetFeedingWeights(int feedingLayerIndex, boolean resetAllFeedingWeights, Rng random)
+        {
             for(int layer = 0; layer < feedingLayers.size(); layer++)
                 if (resetAllFeedingWeights || feedingLayerIndex == layer)
-                    for(int i = 0; i < nodeValues.length; i++)
-                        Prob.fillFromU(transmissionWeights[layer][i], -0.5 * glorot, 0.5 * glorot);
-            
+                    weightInit.init(this, layer, random.nextLong());
         }
         
         // Glorot & Bengio [2010]
@@ -229,13 +413,22 @@ public class FeedForwardNetwork {
             {
                 return;
             }
+            if (preActivations.length != nodeValues.length)
+                preActivations = new double[nodeValues.length];
+            if (!feedingLayers.contains(this))
+            {
+                feedForwardLayer();
+                return;
+            }
+            // a layer feeding itself sees values of nodes computed before
             for (int i = 0; i < nodeValues.length; i++)
             {
                 double nodeValue = nodeValues[i];
-                double input = inputFunction.f(this, i);
+                double input = inputFunction.f(this, i) + (biases != null ? biases[i] : 0.0);
                 double newValue =  (gateFunction != null ?
                         gateFunction.f(input, nodeValue):
                         input);
+                preActivations[i] = newValue;
                 newValue = transferFunction.f(newValue);
 //                if (modulationFunction != null)
 //                {
@@ -245,6 +438,23 @@ public class FeedForwardNetwork {
             }
         }
         
+        /** Input function computed for all nodes at once */
+        private void feedForwardLayer()
+        {
+            inputFunction.apply(this, preActivations);
+            if (gateFunction == null)
+            {
+                transferFunction.apply(preActivations, nodeValues);
+                return;
+            }
+            for (int i = 0; i < nodeValues.length; i++)
+            {
+                double newValue = gateFunction.f(preActivations[i], nodeValues[i]);
+                preActivations[i] = newValue;
+                nodeValues[i] = transferFunction.f(newValue);
+            }
+        }
+        
         public void backpropagate(double[] errorTerms, double[] learningRateCoefs)
         {
             // deltaWij = coef*delta_j*o_i
@@ -253,44 +463,246 @@ public class FeedForwardNetwork {
             //     (for hidden layers)
             //          = coef * (f'(a_j) * sum(delta_k * w_jk)) * o_i
             
-            double[] corrections = new double[nodeValues.length];
-            for (int i = 0; i < corrections.length; i++)
-            {
-                // compute and store:  coef * (k*o_j*(1-o_j)) * (t_j - o_j)
-                errorDeltas[i] = (deltaFunction.f(nodeValues[i]) * (errorTerms[i]));
-                corrections[i] = learningRateCoefs[i] * errorDeltas[i];
-            }
+            // compute and store:  (k*o_j*(1-o_j)) * (t_j - o_j)
+            computeErrorDeltas(nodeValues, preActivations, errorTerms, errorDeltas, nodeValues.length);
             for(int k = 0; k < feedingLayers.size(); k++)
+                updateWeights(weights[k], feedingLayers.get(k).nodeValues, errorDeltas, learningRateCoefs);
+            updateBiases(errorDeltas, learningRateCoefs);
+        }
+        
+        /** Per-sample backpropagation on given buffers instead of this layer's own; 
+         * threads may train shared weights this way, each with buffers of its own.
+         * @param values this layer's values
+         * @param errorTerms this layer's error terms
+         * @param errorDeltas output
+         * @param feedingValues values of each feeding layer, in order of feedingLayers
+         */
+        public void backpropagate(double[] values, double[] errorTerms, double[] errorDeltas, 
+                double[][] feedingValues, double[] learningRateCoefs)
+        {
+            backpropagate(values, null, errorTerms, errorDeltas, feedingValues, learningRateCoefs);
+        }
+
+        /** @param preActivations inputs of transferFunction, for a Fused derivative; 
+         * or null to apply deltaFunction to values
+         * @see #backpropagate(double[], double[], double[], double[][], double[]) */
+        public void backpropagate(double[] values, double[] preActivations, double[] errorTerms, double[] errorDeltas, 
+                double[][] feedingValues, double[] learningRateCoefs)
+        {
+            computeErrorDeltas(values, preActivations, errorTerms, errorDeltas, nodeValues.length);
+            for(int k = 0; k < feedingValues.length; k++)
+                updateWeights(weights[k], feedingValues[k], errorDeltas, learningRateCoefs);
+            updateBiases(errorDeltas, learningRateCoefs);
+        }
+        
+        /** errorDeltas = f'(node) * errorTerms over length values */
+        private void computeErrorDeltas(double[] values, double[] preActivations, double[] errorTerms, 
+                double[] errorDeltas, int length)
+        {
+            if (preActivations != null && transferFunction instanceof Fn.Transfer.Fused)
+                ((Fn.Transfer.Fused)transferFunction).d1(preActivations, values, errorDeltas, 0, length);
+            else
+                deltaFunction.apply(values, errorDeltas, 0, length);
+            Kernels.mul(errorDeltas, errorTerms, errorDeltas, length);
+        }
+        
+        private void updateWeights(WeightMatrix w, double[] feedingValues, double[] errorDeltas, double[] learningRateCoefs)
+        {
+            for(int i = 0; i < w.rows; i++)
             {
-                NodeLayer feeding = feedingLayers.get(k);
-                for (int j = 0; j < feeding.nodeValues.length; j++)
-                    for(int i = 0; i < nodeValues.length; i++)
-                    {
-                        double newWeight = transmissionWeights[k][i][j] + corrections[i] * feeding.nodeValues[j];
-                        if (Double.isNaN(newWeight) || Double.isInfinite(newWeight))
-                        {
-                            newWeight = Math.random() - 0.5;
-                        }
-                        transmissionWeights[k][i][j] = newWeight;
-                    }
+                double[] row = w.row(i);
+                int offset = w.offset(i);
+                double correction = learningRateCoefs[i] * errorDeltas[i];
+                Kernels.axpy(correction, feedingValues, 0, row, offset, w.cols);
+                resetNonFinite(row, offset, w.cols);
             }
         }
+
+        /** A bias is a weight from a constant input of 1 */
+        private void updateBiases(double[] errorDeltas, double[] learningRateCoefs)
+        {
+            if (biases == null)
+                return;
+            for(int i = 0; i < biases.length; i++)
+                biases[i] += learningRateCoefs[i] * errorDeltas[i];
+            resetNonFinite(biases, 0, biases.length);
+        }
+
+        /** Resets NaN and infinite weights of a row to random values, counting them in nonFiniteResets */
+        void resetNonFinite(double[] row, int offset, int length)
+        {
+            if (Kernels.isFinite(row, offset, length))
+                return;
+            for (int j = offset; j < offset + length; j++)
+                if (Double.isNaN(row[j]) || Double.isInfinite(row[j]))
+                {
+                    row[j] = Rng.current().nextDouble() - 0.5;
+                    nonFiniteResets.incrementAndGet();
+                }
+        }
+        
+        /** Computes error terms (target - value) of an output layer into errorTerms. */
+        public double[] computeOutputLayerErrorTerms(double[] sample, int targetValueOffset)
+        {
+            if (errorTerms.length != nodeValues.length)
+                errorTerms = new double[nodeValues.length];
+            for(int i = 0; i < nodeValues.length; i++)
+                errorTerms[i] = sample[targetValueOffset + i] - nodeValues[i];
+            return errorTerms;
+        }
         
         public double[] computeHiddenLayerErrorTerms()
         {
-            double[] hiddenErrors = Doubles.fill(nodeValues.length, 0);
+            return computeHiddenLayerErrorTerms(null);
+        }
+        
+        /** @param receivingFeedingIndices index of this layer in feedingLayers of each receiving layer, 
+         * or null to look them up */
+        public double[] computeHiddenLayerErrorTerms(int[] receivingFeedingIndices)
+        {
+            if (nextErrorTerms.length != nodeValues.length)
+                nextErrorTerms = new double[nodeValues.length];
+            double[] hiddenErrors = nextErrorTerms;
+            Arrays.fill(hiddenErrors, 0.0);
             for(int k = 0; k < receivingLayers.size(); k++)
             {
                 NodeLayer receiving = receivingLayers.get(k);
-                int feedingIndex = receiving.feedingLayers.indexOf(this);
-                for(int j = 0; j < hiddenErrors.length; j++)
-                    for(int i = 0; i < receiving.errorTerms.length; i++)
-                        hiddenErrors[j] += receiving.transmissionWeights[feedingIndex][i][j] * receiving.errorTerms[i];
+                WeightMatrix w = receiving.weights[receivingFeedingIndices != null ?
+                        receivingFeedingIndices[k] :
+                        receiving.feedingLayers.indexOf(this)];
+                MatrixKernels.multiplyTransposed(w, receiving.errorTerms, 0, hiddenErrors, 0);
             }
+            nextErrorTerms = errorTerms;
             errorTerms = hiddenErrors;
             return hiddenErrors;
         }
         
+        private int markDone(long pass)
+        {
+            if (backpropagationPass == pass)
+                return 0;
+            backpropagationPass = pass;
+            return 1;
+        }
+
+
+
+        /* Batch variants. Buffers hold one row (of layer size) per sample, row-major. */
+
+        /** Computes activations for given number of rows of feeding layer values.
+         * Input functions compute all rows at once; see InputFunction.apply.
+         * @param feedingValues values of each feeding layer, in order of feedingLayers
+         * @param inputs output, input of transferFunction per node (after gateFunction)
+         * @param values this layer's values; previous content is passed to gateFunction
+         * @param rows number of samples in batch
+         */
+        public void feedForward(double[][] feedingValues, double[] inputs, double[] values, int rows)
+        {
+            int n = nodeValues.length;
+            inputFunction.apply(this, feedingValues, inputs, rows);
+            if (gateFunction == null)
+            {
+                transferFunction.apply(inputs, values, 0, rows * n);
+                return;
+            }
+            for(int p = 0; p < rows * n; p++)
+            {
+                inputs[p] = gateFunction.f(inputs[p], values[p]);
+                values[p] = transferFunction.f(inputs[p]);
+            }
+        }
+
+        /** Computes hidden layer error terms for given number of rows.
+         * @param receivingErrorTerms error terms of each receiving layer, in order of receivingLayers
+         * @param receivingFeedingIndices index of this layer in feedingLayers of each receiving layer
+         * @param errorTerms output
+         */
+        public void computeHiddenLayerErrorTerms(double[][] receivingErrorTerms, int[] receivingFeedingIndices, 
+                double[] errorTerms, int rows)
+        {
+            int n = nodeValues.length;
+            Arrays.fill(errorTerms, 0, rows * n, 0.0);
+            for(int r = 0; r < receivingLayers.size(); r++)
+            {
+                NodeLayer receiving = receivingLayers.get(r);
+                MatrixKernels.multiplyTransposed(receiving.weights[receivingFeedingIndices[r]], receivingErrorTerms[r], 
+                        errorTerms, rows);
+            }
+        }
+
+        /** Adds weight gradients (error delta * feeding value), summed over rows, to gradients.
+         * @param values this layer's values
+         * @param errorTerms this layer's error terms
+         * @param errorDeltas output, error deltas per row
+         * @param feedingValues values of each feeding layer, in order of feedingLayers
+         * @param gradients accumulated gradients per feeding layer, laid out as in flat weight storage,
+         * followed by gradients of biases [node] if the layer has biases
+         */
+        public void accumulateGradients(double[] values, double[] errorTerms, double[] errorDeltas,
+                double[][] feedingValues, double[][] gradients, int rows)
+        {
+            accumulateGradients(values, null, errorTerms, errorDeltas, feedingValues, gradients, rows);
+        }
+
+        /** @param inputs inputs of transferFunction, for a Fused derivative; 
+         * or null to apply deltaFunction to values
+         * @see #accumulateGradients(double[], double[], double[], double[][], double[][], int) */
+        public void accumulateGradients(double[] values, double[] inputs, double[] errorTerms, double[] errorDeltas,
+                double[][] feedingValues, double[][] gradients, int rows)
+        {
+            int n = nodeValues.length;
+            computeErrorDeltas(values, inputs, errorTerms, errorDeltas, rows * n);
+            for(int k = 0; k < weights.length; k++)
+                MatrixKernels.addOuterProducts(errorDeltas, n, feedingValues[k], weights[k].cols, gradients[k], rows);
+            if (biases != null)
+                for(int b = 0; b < rows; b++)
+                    Kernels.axpy(1.0, errorDeltas, b * n, gradients[weights.length], 0, n);
+        }
+
+        /** Applies accumulated gradients to weights: w += learningRateCoefs[i] * scale * g. */
+        public void applyGradients(double[][] gradients, double[] learningRateCoefs, double scale)
+        {
+            applyGradients(gradients, learningRateCoefs, scale, 0, nodeValues.length);
+        }
+
+        /** Applies accumulated gradients to weights of nodes [fromNode, toNode) */
+        public void applyGradients(double[][] gradients, double[] learningRateCoefs, double scale, 
+                int fromNode, int toNode)
+        {
+            for(int k = 0; k < weights.length; k++)
+            {
+                WeightMatrix w = weights[k];
+                double[] g = gradients[k];
+                for(int i = fromNode; i < toNode; i++)
+                {
+                    double[] row = w.row(i);
+                    int offset = w.offset(i);
+                    double coef = learningRateCoefs[i] * scale;
+                    Kernels.axpy(coef, g, i * w.cols, row, offset, w.cols);
+                    resetNonFinite(row, offset, w.cols);
+                }
+            }
+            if (biases != null)
+            {
+                double[] g = gradients[weights.length];
+                for(int i = fromNode; i < toNode; i++)
+                    biases[i] += learningRateCoefs[i] * scale * g[i];
+                resetNonFinite(biases, fromNode, toNode - fromNode);
+            }
+        }
+
+        /** Number of gradient arrays of the layer: one per feeding layer, and one for biases if it has them */
+        public int gradientCount()
+        {
+            return weights.length + (biases != null ? 1 : 0);
+        }
+
+        /** Length of a row (values per node) of given gradient array */
+        public int gradientCols(int k)
+        {
+            return k < weights.length ? weights[k].cols : 1;
+        }
+
         public double[] getModulatedOutput()
         {
             double[] res = Arrays.copyOf(nodeValues, nodeValues.length);
@@ -304,11 +716,13 @@ public class FeedForwardNetwork {
         public void print(PrintStream out)
         {
             out.println("N: " + Arrays.toString(nodeValues));
-            for(int k = 0; k < transmissionWeights.length; k++)
+            if (biases != null)
+                out.println("B: " + Arrays.toString(biases));
+            for(int k = 0; k < weights.length; k++)
             {
                 out.println("->");
                 for (int i = 0; i < nodeValues.length; i++) {
-                    out.println(" " + i + ":" + Arrays.toString(transmissionWeights[k][i]));
+                    out.println(" " + i + ":" + Arrays.toString(weights[k].copyRow(i)));
                 }
             }
         }
@@ -0,0 +1,315 @@
+package oh.neural;
+
+import java.util.Arrays;
+import java.util.List;
+import oh.neural.FeedForwardNetwork.InputFunction;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+import oh.neural.Fn.Ddd;
+import oh.neural.Fn.Ff;
+
+/** A compiled network in single precision, for training and inference.
+ *
+ * Weights are copied from the layers of a CompiledNetwork into float arrays,
+ * which halves the memory traffic of the weight loops; store() copies them back.
+ * Training follows per-sample backpropagation of CompiledNetwork,
+ * computed in float instead of double.
+ *
+ * Buffers and arguments are indexed by layer as in the system list.
+ * Only dot and diff input functions are supported.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public final class FloatNetwork {
+
+    public final CompiledNetwork network;
+    /** [layer][node] */
+    public final float[][] values;
+    /** Inputs of transfer functions, for Fn.Transfer.Fused derivatives */
+    public final float[][] preActivations;
+    public final float[][] errorTerms;
+    public final float[][] errorDeltas;
+    /** [layer][feeding][node * feedingSize + feedingNode] */
+    public final float[][][] weights;
+    /** [layer][node], null for a layer without biases */
+    public final float[][] biases;
+
+    final boolean[] diff;
+    final Ff[] transferFunctions;
+    final Ff[] deltaFunctions;
+    final Fn.Transfer.Fused[] fused;
+    final Ddd[] gateFunctions;
+    /** [layer][feeding] system index of feeding layer */
+    final int[][] feeding;
+    /** [layer][receiving] system index of receiving layer */
+    final int[][] receiving;
+    /** [layer][receiving] index of this layer in receiving layer's feeding layers */
+    final int[][] receivingFeedingIndices;
+    private final float[][] nextErrorTerms;
+
+    public FloatNetwork(List<NodeLayer> system)
+    {
+        this(FeedForwardNetwork.compile(system));
+    }
+
+    public FloatNetwork(CompiledNetwork network)
+    {
+        this.network = network;
+        int L = network.layers.length;
+        values = new float[L][];
+        preActivations = new float[L][];
+        errorTerms = new float[L][];
+        nextErrorTerms = new float[L][];
+        errorDeltas = new float[L][];
+        weights = new float[L][][];
+        biases = new float[L][];
+        diff = new boolean[L];
+        transferFunctions = new Ff[L];
+        deltaFunctions = new Ff[L];
+        fused = new Fn.Transfer.Fused[L];
+        gateFunctions = new Ddd[L];
+        feeding = new int[L][];
+        receiving = new int[L][];
+        receivingFeedingIndices = new int[L][];
+        for(int p = 0; p < L; p++)
+        {
+            NodeLayer layer = network.layers[p];
+            int x = network.systemIndices[p];
+            int n = layer.size();
+            values[x] = new float[n];
+            preActivations[x] = new float[n];
+            errorTerms[x] = new float[n];
+            nextErrorTerms[x] = new float[n];
+            errorDeltas[x] = new float[n];
+            weights[x] = new float[layer.weights.length][];
+            for(int k = 0; k < layer.weights.length; k++)
+                weights[x][k] = new float[layer.weights[k].rows * layer.weights[k].cols];
+            if (layer.biases != null)
+                biases[x] = new float[n];
+            feeding[x] = new int[network.feeding[p].length];
+            for(int k = 0; k < feeding[x].length; k++)
+                feeding[x][k] = network.systemIndices[network.feeding[p][k]];
+            receiving[x] = new int[network.receiving[p].length];
+            for(int r = 0; r < receiving[x].length; r++)
+                receiving[x][r] = network.systemIndices[network.receiving[p][r]];
+            receivingFeedingIndices[x] = network.receivingFeedingIndices[p];
+            if (feeding[x].length > 0)
+            {
+                diff[x] = layer.inputFunction instanceof InputFunction.Diff;
+                if (!diff[x] && !(layer.inputFunction instanceof InputFunction.Dot))
+                    throw new UnsupportedOperationException("float networks support dot and diff input functions, got "
+                            + layer.inputFunction);
+                transferFunctions[x] = Fn.FloatTransfer.of(layer.transferFunction);
+                if (layer.transferFunction instanceof Fn.Transfer.Fused)
+                    fused[x] = (Fn.Transfer.Fused)layer.transferFunction;
+                else if (layer.deltaFunction != null)
+                    deltaFunctions[x] = Fn.FloatTransfer.of(layer.deltaFunction);
+                gateFunctions[x] = layer.gateFunction;
+            }
+        }
+        load();
+    }
+
+    /** Copies weights and biases from layers, rounding them to float. */
+    public void load()
+    {
+        for(int p = 0; p < network.layers.length; p++)
+        {
+            NodeLayer layer = network.layers[p];
+            float[][] layerWeights = weights[network.systemIndices[p]];
+            for(int k = 0; k < layerWeights.length; k++)
+            {
+                WeightMatrix w = layer.weights[k];
+                float[] f = layerWeights[k];
+                for(int i = 0; i < w.rows; i++)
+                {
+                    double[] row = w.row(i);
+                    int offset = w.offset(i);
+                    for(int j = 0; j < w.cols; j++)
+                        f[i * w.cols + j] = (float)row[offset + j];
+                }
+            }
+            float[] b = biases[network.systemIndices[p]];
+            for(int i = 0; b != null && i < b.length; i++)
+                b[i] = (float)layer.biases[i];
+        }
+    }
+
+    /** Copies weights and biases back to layers. */
+    public void store()
+    {
+        for(int p = 0; p < network.layers.length; p++)
+        {
+            NodeLayer layer = network.layers[p];
+            float[][] layerWeights = weights[network.systemIndices[p]];
+            for(int k = 0; k < layerWeights.length; k++)
+            {
+                WeightMatrix w = layer.weights[k];
+                float[] f = layerWeights[k];
+                for(int i = 0; i < w.rows; i++)
+                {
+                    double[] row = w.row(i);
+                    int offset = w.offset(i);
+                    for(int j = 0; j < w.cols; j++)
+                        row[offset + j] = f[i * w.cols + j];
+                }
+            }
+            float[] b = biases[network.systemIndices[p]];
+            for(int i = 0; b != null && i < b.length; i++)
+                layer.biases[i] = b[i];
+        }
+    }
+
+    /** Sets values of input layers from a sample.
+     * @param inputValueOffsets per layer, offset of layer's values in sample, or -1
+     */
+    public void setInputs(double[] sample, int[] inputValueOffsets)
+    {
+        for(int x = 0; x < values.length; x++)
+        {
+            if (feeding[x].length > 0 || inputValueOffsets[x] < 0)
+                continue;
+            float[] v = values[x];
+            for(int i = 0; i < v.length; i++)
+                v[i] = (float)sample[inputValueOffsets[x] + i];
+        }
+    }
+
+    /** Feeds activation forward; input layers' values are expected to be set */
+    public void forward()
+    {
+        for(int p = 0; p < network.layers.length; p++)
+        {
+            int x = network.systemIndices[p];
+            if (feeding[x].length == 0)
+                continue;
+            float[] v = values[x];
+            Ff transferFunction = transferFunctions[x];
+            Ddd gateFunction = gateFunctions[x];
+            float[] b = biases[x];
+            for(int i = 0; i < v.length; i++)
+            {
+                float input = b != null && !diff[x] ? b[i] : 0f;
+                for(int k = 0; k < feeding[x].length; k++)
+                {
+                    float[] in = values[feeding[x][k]];
+                    float[] w = weights[x][k];
+                    input += diff[x] ?
+                            Kernels.squaredDistance(in, 0, w, i * in.length, in.length) :
+                            Kernels.dot(in, 0, w, i * in.length, in.length);
+                }
+                if (diff[x])
+                    input = (float)Math.sqrt(input) + (b != null ? b[i] : 0f);
+                if (gateFunction != null)
+                    input = (float)gateFunction.f(input, v[i]);
+                preActivations[x][i] = input;
+                v[i] = transferFunction.f(input);
+            }
+        }
+    }
+
+    /** Learning, backpropagates error deltas of the sample fed forward last.
+     * @see CompiledNetwork#backpropagate(double[], int[], double[][])
+     */
+    public void backpropagate(double[] sample, int[] targetValueOffsets, float[][] learningRateCoefficients)
+    {
+        for(int b = 0; b < network.backward.length; b++)
+        {
+            int x = network.systemIndices[network.backward[b]];
+            float[] v = values[x];
+            if (receiving[x].length == 0)
+                for(int i = 0; i < v.length; i++)
+                    errorTerms[x][i] = (float)sample[targetValueOffsets[x] + i] - v[i];
+            else
+                computeHiddenLayerErrorTerms(x);
+            float[] e = errorTerms[x];
+            float[] d = errorDeltas[x];
+            if (fused[x] != null)
+            {
+                float[] a = preActivations[x];
+                for(int i = 0; i < v.length; i++)
+                    d[i] = (float)fused[x].d1(a[i], v[i]) * e[i];
+            }
+            else
+            {
+                Ff deltaFunction = deltaFunctions[x];
+                for(int i = 0; i < v.length; i++)
+                    d[i] = deltaFunction.f(v[i]) * e[i];
+            }
+            float[] lrc = learningRateCoefficients[x];
+            for(int k = 0; k < feeding[x].length; k++)
+            {
+                float[] in = values[feeding[x][k]];
+                float[] w = weights[x][k];
+                for(int i = 0; i < v.length; i++)
+                {
+                    int offset = i * in.length;
+                    Kernels.axpy(lrc[i] * d[i], in, 0, w, offset, in.length);
+                    if (!Kernels.isFinite(w, offset, in.length))
+                        for(int j = offset; j < offset + in.length; j++)
+                            if (Float.isNaN(w[j]) || Float.isInfinite(w[j]))
+                            {
+                                w[j] = (float)(Rng.current().nextDouble() - 0.5);
+                                network.system.get(x).nonFiniteResets.incrementAndGet();
+                            }
+                }
+            }
+            float[] bias = biases[x];
+            if (bias != null)
+                for(int i = 0; i < v.length; i++)
+                {
+                    bias[i] += lrc[i] * d[i];
+                    if (Float.isNaN(bias[i]) || Float.isInfinite(bias[i]))
+                    {
+                        bias[i] = (float)(Rng.current().nextDouble() - 0.5);
+                        network.system.get(x).nonFiniteResets.incrementAndGet();
+                    }
+                }
+        }
+    }
+
+    private void computeHiddenLayerErrorTerms(int x)
+    {
+        float[] hiddenErrors = nextErrorTerms[x];
+        Arrays.fill(hiddenErrors, 0f);
+        for(int r = 0; r < receiving[x].length; r++)
+        {
+            int y = receiving[x][r];
+            float[] w = weights[y][receivingFeedingIndices[x][r]];
+            float[] e = errorTerms[y];
+            int n = hiddenErrors.length;
+            for(int i = 0; i < e.length; i++)
+                Kernels.axpy(e[i], w, i * n, hiddenErrors, 0, n);
+        }
+        nextErrorTerms[x] = errorTerms[x];
+        errorTerms[x] = hiddenErrors;
+    }
+
+    /** Feeds forward and backpropagates one sample; counted as a step by the network's TrainingListener,
+     * if any, but not measured.
+     * @param inputValueOffsets per layer, offset of input layer's values in sample, or -1
+     * @param targetValueOffsets per layer, offset of output layer's target values in sample, or -1
+     */
+    public void train(double[] sample, int[] inputValueOffsets, int[] targetValueOffsets,
+            float[][] learningRateCoefficients)
+    {
+        setInputs(sample, inputValueOffsets);
+        forward();
+        backpropagate(sample, targetValueOffsets, learningRateCoefficients);
+        TrainingListener l = network.listener;
+        if (l != null)
+            l.trained(1);
+    }
+
+    /** Single precision copy of learning rate coefficients */
+    public static float[][] learningRateCoefficients(double[][] learningRateCoefficients)
+    {
+        float[][] ret = new float[learningRateCoefficients.length][];
+        for(int x = 0; x < ret.length; x++)
+        {
+            ret[x] = new float[learningRateCoefficients[x].length];
+            for(int i = 0; i < ret[x].length; i++)
+                ret[x][i] = (float)learningRateCoefficients[x][i];
+        }
+        return ret;
+    }
+}
@@ -1,5 +1,6 @@
 package oh.neural;
 
+import java.util.Arrays;
 import oh.neural.Fn.Composing.ComposingDd;
 
 /** Function interfaces.
@@ -34,11 +35,41 @@ public interface Fn {
 
 
     interface D extends Fn          { double f(); }
-    interface Dd extends Fn         { double f(double a); }
-    interface Ddd extends Fn        { double f(double a, double b); }
+    interface Dd extends Fn         { double f(double a);
+        /** out[i] = f(in[i]) for i in [from, to); in and out may be the same array */
+        default void apply(double[] in, double[] out, int from, int to)
+        {
+            for(int i = from; i < to; i++)
+                out[i] = f(in[i]);
+        }
+        default void apply(double[] in, double[] out)
+        {
+            apply(in, out, 0, in.length);
+        }
+    }
+    interface Ddd extends Fn        { double f(double a, double b);
+        /** out[i] = f(in[i], b) for i in [from, to); in and out may be the same array */
+        default void apply(double[] in, double b, double[] out, int from, int to)
+        {
+            for(int i = from; i < to; i++)
+                out[i] = f(in[i], b);
+        }
+    }
     interface Dddd extends Fn       { double f(double a, double b, double c); }
 
-    interface Ddi extends Fn        { double f(double a, int b); }
+    interface Ddi extends Fn        { double f(double a, int b);
+        /** out[i] = f(in[i], b) for i in [from, to); in and out may be the same array */
+        default void apply(double[] in, int b, double[] out, int from, int to)
+        {
+            for(int i = from; i < to; i++)
+                out[i] = f(in[i], b);
+        }
+    }
+
+    interface F extends Fn          { float f(); }
+    interface Ff extends Fn         { float f(float a); }
+    interface Fff extends Fn        { float f(float a, float b); }
+    interface Ffi extends Fn        { float f(float a, int b); }
 
     public interface Composing {
 
@@ -64,42 +95,80 @@ public interface Fn {
 
         public static final ComposingDd partialDXdd(final Ddd base, final double param2)
         {
-            ComposingDd f = new ComposingDd() {
-                @Override
-                public double f(double a)
-                {
-                    return base.f(a, param2);
-                }
-
-                @Override
-                public Fn underlyingFunction(int index)
-                {
-                    if (0 != index)
-                        throw new IllegalArgumentException(this.getClass().getSimpleName() + " is composed of exactly one underlying function (use index=0)");
-                    return base;
-                }
-            };
-            return f;
+            return new PartialDXdd(base, param2);
         }
 
         public static final ComposingDd partialDXdi(final Ddi base, final int param2)
         {
-            ComposingDd f = new ComposingDd() {
-                @Override
-                public double f(double a)
-                {
-                    return base.f(a, param2);
-                }
+            return new PartialDXdi(base, param2);
+        }
 
-                @Override
-                public Fn underlyingFunction(int index)
-                {
-                    if (0 != index)
-                        throw new IllegalArgumentException("partialDxdi is composed of exactly one underlying function (use index=0)");
-                    return base;
-                }
-            };
-            return f;
+
+        /** f(x) = base.f(x, param) */
+        public static final class PartialDXdd implements ComposingDd
+        {
+            public final Ddd base;
+            public final double param;
+
+            public PartialDXdd(Ddd base, double param)
+            {
+                this.base = base;
+                this.param = param;
+            }
+
+            @Override
+            public double f(double a)
+            {
+                return base.f(a, param);
+            }
+
+            /** One call to base for the whole range, instead of one per value */
+            @Override
+            public void apply(double[] in, double[] out, int from, int to)
+            {
+                base.apply(in, param, out, from, to);
+            }
+
+            @Override
+            public Fn underlyingFunction(int index)
+            {
+                if (0 != index)
+                    throw new IllegalArgumentException(this.getClass().getSimpleName() + " is composed of exactly one underlying function (use index=0)");
+                return base;
+            }
+        }
+
+        /** f(x) = base.f(x, param) */
+        public static final class PartialDXdi implements ComposingDd
+        {
+            public final Ddi base;
+            public final int param;
+
+            public PartialDXdi(Ddi base, int param)
+            {
+                this.base = base;
+                this.param = param;
+            }
+
+            @Override
+            public double f(double a)
+            {
+                return base.f(a, param);
+            }
+
+            @Override
+            public void apply(double[] in, double[] out, int from, int to)
+            {
+                base.apply(in, param, out, from, to);
+            }
+
+            @Override
+            public Fn underlyingFunction(int index)
+            {
+                if (0 != index)
+                    throw new IllegalArgumentException("partialDxdi is composed of exactly one underlying function (use index=0)");
+                return base;
+            }
         }
     }
 
@@ -131,6 +200,70 @@ public interface Fn {
         public static final Dd gaussian(double sigma)       { return Fn.Partials.partialDXdd(gaussian, sigma); }
         public static final Dd gaussianD1(double sigma)     { return Fn.Partials.partialDXdd(gaussianD1, sigma); }
 
+        public static final Fused linearFused(double slope)        { return fused(linear(slope)); }
+        public static final Fused sigmoidFused(double steepness)   { return fused(sigmoid(steepness)); }
+        public static final Fused tanhFused(double steepness)      { return fused(tanh(steepness)); }
+        public static final Fused softsignFused()                  { return fused(softsign); }
+        public static final Fused gaussianFused(double sigma)      { return fused(gaussian(sigma)); }
+
+        /** Pairs a transfer function made with the factory methods above, or an approximation of one,
+         * with its derivative computed from cached input and output values; see Fused.
+         * @throws IllegalArgumentException for other functions
+         */
+        public static final Fused fused(Dd transfer)
+        {
+            Dd f = transfer instanceof Approximation ? ((Approximation)transfer).exact : transfer;
+            if (f == softsign)
+                return new Fused(transfer, (x, y, p) -> (1.0 - Math.abs(y)) * (1.0 - Math.abs(y)), 0.0);
+            if (f instanceof Partials.PartialDXdi && ((Partials.PartialDXdi)f).base == staircase)
+                return new Fused(transfer, (x, y, steps) -> staircaseD1.f(x, (int)steps), ((Partials.PartialDXdi)f).param);
+            if (f instanceof Partials.PartialDXdd)
+            {
+                Ddd base = ((Partials.PartialDXdd)f).base;
+                double param = ((Partials.PartialDXdd)f).param;
+                if (base == linear)
+                    return new Fused(transfer, (x, y, slope) -> slope, param);
+                if (base == sigmoid)
+                    return new Fused(transfer, (x, y, steepness) -> steepness * y * (1.0 - y) + 0.1, param);
+                if (base == tanh)
+                    return new Fused(transfer, (x, y, steepness) -> 1.0 - y * y, param);
+                if (base == gaussian)
+                    return new Fused(transfer, (x, y, sigma) -> y * ( -x / (sigma * sigma) ), param);
+            }
+            throw new IllegalArgumentException("no fused derivative for " + transfer);
+        }
+
+        /** Interpolated lookup table of f over [min, max] with at most maxError absolute error there,
+         * as measured between table entries; f is computed exactly outside the range. */
+        public static final Approximation approximate(Dd f, double min, double max, double maxError)
+        {
+            int size = 257;
+            Approximation a = new Approximation(f, min, max, size);
+            while(a.maxError > maxError && size < (1 << 20))
+            {
+                size = 2 * size - 1;
+                a = new Approximation(f, min, max, size);
+            }
+            return a;
+        }
+
+        public static final Approximation sigmoidApproximation(double steepness, double maxError)
+        {
+            double range = Math.min(100.0, 40.0 / Math.abs(steepness));
+            return approximate(sigmoid(steepness), -range, range, maxError);
+        }
+
+        public static final Approximation tanhApproximation(double steepness, double maxError)
+        {
+            double range = Math.min(100.0, 20.0 / Math.abs(steepness));
+            return approximate(tanh(steepness), -range, range, maxError);
+        }
+
+        public static final Approximation gaussianApproximation(double sigma, double maxError)
+        {
+            return approximate(gaussian(sigma), -9.0 * Math.abs(sigma), 9.0 * Math.abs(sigma), maxError);
+        }
+
 
 
         public static final class Linear implements Ddd
@@ -139,6 +272,12 @@ public interface Fn {
             {
                 return x * steepness;
             }
+
+            @Override
+            public void apply(double[] in, double steepness, double[] out, int from, int to)
+            {
+                Kernels.scale(steepness, in, from, out, from, to - from);
+            }
         }
 
         public static final class LinearD1 implements Ddd
@@ -147,6 +286,12 @@ public interface Fn {
             {
                 return steepness;
             }
+
+            @Override
+            public void apply(double[] in, double steepness, double[] out, int from, int to)
+            {
+                Arrays.fill(out, from, to, steepness);
+            }
         }
 
         public static final class Staircase implements Ddi
@@ -224,6 +369,16 @@ public interface Fn {
                         (1.0 + Math.exp(steepness * x));
                 return activation;
             }
+
+            @Override
+            public void apply(double[] in, double steepness, double[] out, int from, int to)
+            {
+                for(int i = from; i < to; i++)
+                {
+                    double x = in[i];
+                    out[i] = x > 100 ? 1.0 : x < -100 ? 0.0 : 1.0 / (1.0 + Math.exp(steepness * x));
+                }
+            }
         }
 
         public static final class SigmoidD1 implements Ddd
@@ -233,6 +388,13 @@ public interface Fn {
                 return steepness * x * (1.0 - x)
                     + 0.1; // fix for the "flat spot problem"
             }
+
+            @Override
+            public void apply(double[] in, double steepness, double[] out, int from, int to)
+            {
+                for(int i = from; i < to; i++)
+                    out[i] = steepness * in[i] * (1.0 - in[i]) + 0.1;
+            }
         }
 
         public static class Tanh implements Ddd
@@ -249,6 +411,24 @@ public interface Fn {
                 float E_x = (float) Math.exp(steepness * x);
                 return (E_x - 1f) / (E_x + 1f);
             }
+
+            @Override
+            public void apply(double[] in, double steepness, double[] out, int from, int to)
+            {
+                for(int i = from; i < to; i++)
+                {
+                    double x = in[i];
+                    if (x > 100.0)
+                        out[i] = 1.0;
+                    else if (x < -100.0)
+                        out[i] = -1.0;
+                    else
+                    {
+                        float E_x = (float) Math.exp(steepness * x);
+                        out[i] = (E_x - 1f) / (E_x + 1f);
+                    }
+                }
+            }
         }
 
         public static final class TanhD1 extends Tanh implements Ddd
@@ -259,6 +439,14 @@ public interface Fn {
                 double out = super.f(x, steepness);
                 return (1.0 - out * out);
             }
+
+            @Override
+            public void apply(double[] in, double steepness, double[] out, int from, int to)
+            {
+                super.apply(in, steepness, out, from, to);
+                for(int i = from; i < to; i++)
+                    out[i] = 1.0 - out[i] * out[i];
+            }
         }
 
         public static final class Softsign implements Dd
@@ -271,6 +459,16 @@ public interface Fn {
                 double absval = x > 0.0 ? x : -x;
                 return x / (1.0 + absval);
             }
+
+            @Override
+            public void apply(double[] in, double[] out, int from, int to)
+            {
+                for(int i = from; i < to; i++)
+                {
+                    double x = in[i];
+                    out[i] = x == 0.0 ? 0.0 : x / (1.0 + (x > 0.0 ? x : -x));
+                }
+            }
         }
 
         public static final class SoftsignD1 implements Dd
@@ -278,9 +476,18 @@ public interface Fn {
             @Override
             final public double f(double x)
             {
-                return 1.0 /
-                        (1.0 + 2.0*x + x*x);
+                double d = 1.0 + Math.abs(x);
+                return 1.0 / (d * d);
+            }
 
+            @Override
+            public void apply(double[] in, double[] out, int from, int to)
+            {
+                for(int i = from; i < to; i++)
+                {
+                    double d = 1.0 + Math.abs(in[i]);
+                    out[i] = 1.0 / (d * d);
+                }
             }
         }
 
@@ -295,6 +502,17 @@ public interface Fn {
                         (2 * sigma * sigma)
                 );
             }
+
+            @Override
+            public void apply(double[] in, double sigma, double[] out, int from, int to)
+            {
+                double d = 2 * sigma * sigma;
+                for(int i = from; i < to; i++)
+                {
+                    double x = in[i];
+                    out[i] = Math.exp(- (x * x) / d);
+                }
+            }
         }
 
         public static final class GaussianD1 extends Gaussian
@@ -305,8 +523,221 @@ public interface Fn {
                 double val = super.f(x, sigma);
                 return val * ( -x / (sigma * sigma) );
             }
+
+            @Override
+            public void apply(double[] in, double sigma, double[] out, int from, int to)
+            {
+                double d = 2 * sigma * sigma, s2 = sigma * sigma;
+                for(int i = from; i < to; i++)
+                {
+                    double x = in[i];
+                    out[i] = Math.exp(- (x * x) / d) * ( -x / s2 );
+                }
+            }
+        }
+
+        /** A transfer function paired with its derivative, which is computed from the input
+         * (pre-activation) and output of the transfer function as cached by feed forward,
+         * so that backpropagation does not evaluate the transfer function again.
+         *
+         * A layer with a Fused transferFunction takes error deltas from d1 and does not need a deltaFunction.
+         * The derivative is that of the matching D1 function at the node's input: 1 - y^2 for tanh,
+         * (1 - |y|)^2 for softsign, y * -x/sigma^2 for gaussian; sigmoidD1 is defined on output and is computed from y.
+         * Note that a deltaFunction is applied to node values (outputs) instead.
+         */
+        public static final class Fused implements ComposingDd
+        {
+            public final Dd transfer;
+            /** d1.f(input, output, param) */
+            final Dddd d1;
+            final double param;
+
+            Fused(Dd transfer, Dddd d1, double param)
+            {
+                this.transfer = transfer;
+                this.d1 = d1;
+                this.param = param;
+            }
+
+            @Override
+            public double f(double x)
+            {
+                return transfer.f(x);
+            }
+
+            @Override
+            public void apply(double[] in, double[] out, int from, int to)
+            {
+                transfer.apply(in, out, from, to);
+            }
+
+            /** Derivative at input x with output y = f(x) */
+            public double d1(double x, double y)
+            {
+                return d1.f(x, y, param);
+            }
+
+            /** out[i] = d1(inputs[i], outputs[i]) for i in [from, to) */
+            public void d1(double[] inputs, double[] outputs, double[] out, int from, int to)
+            {
+                Dddd d1 = this.d1;
+                double param = this.param;
+                for(int i = from; i < to; i++)
+                    out[i] = d1.f(inputs[i], outputs[i], param);
+            }
+
+            @Override
+            public Fn underlyingFunction(int index)
+            {
+                return Composing.underlyingFunction(transfer, index);
+            }
+        }
+
+        /** Interpolated lookup table of a function, see approximate */
+        public static final class Approximation implements Dd
+        {
+            public final Dd exact;
+            public final double min, max;
+            /** Largest absolute error found between table entries */
+            public final double maxError;
+            final double[] table;
+            final double scale;
+
+            public Approximation(Dd exact, double min, double max, int size)
+            {
+                this.exact = exact;
+                this.min = min;
+                this.max = max;
+                table = new double[size];
+                scale = (size - 1) / (max - min);
+                for(int i = 0; i < size; i++)
+                    table[i] = exact.f(min + i / scale);
+                double error = 0.0;
+                for(int i = 0; i < size - 1; i++)
+                    for(int q = 1; q < 4; q++)
+                    {
+                        double x = min + (i + q / 4.0) / scale;
+                        error = Math.max(error, Math.abs(f(x) - exact.f(x)));
+                    }
+                maxError = error;
+            }
+
+            @Override
+            public double f(double x)
+            {
+                double t = (x - min) * scale;
+                if (!(t >= 0.0 && t < table.length - 1))
+                    return exact.f(x);
+                int i = (int)t;
+                double a = table[i];
+                return a + (table[i + 1] - a) * (t - i);
+            }
+
+            @Override
+            public void apply(double[] in, double[] out, int from, int to)
+            {
+                int last = table.length - 1;
+                for(int i = from; i < to; i++)
+                {
+                    double x = in[i];
+                    double t = (x - min) * scale;
+                    if (t >= 0.0 && t < last)
+                    {
+                        int k = (int)t;
+                        double a = table[k];
+                        out[i] = a + (table[k + 1] - a) * (t - k);
+                    }
+                    else
+                        out[i] = exact.f(x);
+                }
+            }
+        }
+
+    }
+
+
+    /** Single precision counterparts of Transfer functions. */
+    public static final class FloatTransfer {
+
+        public static final Fff linear = (x, slope) -> x * slope;
+        public static final Fff linearD1 = (x, slope) -> slope;
+        public static final Fff sigmoid = new Sigmoid();
+        public static final Fff sigmoidD1 = (x, steepness) -> steepness * x * (1f - x) + 0.1f;
+        public static final Fff tanh = new Tanh();
+        public static final Fff tanhD1 = new TanhD1();
+        public static final Ff  softsign = x -> x / (1f + Math.abs(x));
+        public static final Ff  softsignD1 = x -> 1f / ((1f + Math.abs(x)) * (1f + Math.abs(x)));
+        public static final Fff gaussian = (x, sigma) -> (float)Math.exp(-(x * x) / (2f * sigma * sigma));
+        public static final Fff gaussianD1 = (x, sigma) -> gaussian.f(x, sigma) * (-x / (sigma * sigma));
+
+        /** Returns a float function computing the same as given double function.
+         * Transfer functions made with Transfer factory methods map to their float counterparts;
+         * other functions are wrapped and computed in double precision.
+         */
+        public static Ff of(Dd f)
+        {
+            if (f instanceof Transfer.Fused)
+                return of(((Transfer.Fused)f).transfer);
+            if (f == Transfer.softsign)
+                return softsign;
+            if (f == Transfer.softsignD1)
+                return softsignD1;
+            if (f instanceof Partials.PartialDXdd)
+            {
+                Ddd base = ((Partials.PartialDXdd)f).base;
+                float param = (float)((Partials.PartialDXdd)f).param;
+                Fff fbase =
+                        base == Transfer.linear ? linear :
+                        base == Transfer.linearD1 ? linearD1 :
+                        base == Transfer.sigmoid ? sigmoid :
+                        base == Transfer.sigmoidD1 ? sigmoidD1 :
+                        base == Transfer.tanh ? tanh :
+                        base == Transfer.tanhD1 ? tanhD1 :
+                        base == Transfer.gaussian ? gaussian :
+                        base == Transfer.gaussianD1 ? gaussianD1 :
+                        null;
+                if (fbase != null)
+                    return x -> fbase.f(x, param);
+            }
+            return x -> (float)f.f(x);
+        }
+
+        public static final class Sigmoid implements Fff
+        {
+            @Override
+            public float f(float x, float steepness)
+            {
+                if (x > 100f)
+                    return 1f;
+                if (x < -100f)
+                    return 0f;
+                return 1f / (1f + (float)Math.exp(steepness * x));
+            }
         }
 
+        public static class Tanh implements Fff
+        {
+            @Override
+            public float f(float x, float steepness)
+            {
+                if (x > 100f)
+                    return 1f;
+                if (x < -100f)
+                    return -1f;
+                float E_x = (float)Math.exp(steepness * x);
+                return (E_x - 1f) / (E_x + 1f);
+            }
+        }
+
+        public static final class TanhD1 extends Tanh
+        {
+            @Override
+            public float f(float x, float steepness)
+            {
+                float out = super.f(x, steepness);
+                return 1f - out * out;
+            }
+        }
     }
 
 }
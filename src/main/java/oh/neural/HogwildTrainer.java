@@ -0,0 +1,72 @@
+package oh.neural;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/** Lock-free asynchronous per-sample training ("Hogwild!", Niu et al. [2011]).
+ *
+ * Worker threads run per-sample backpropagation against the shared weights of the
+ * same layers without locking, each with activations and error terms of its own.
+ * Updates from different threads may overwrite each other; with many weights and
+ * small per-sample updates, collisions are rare enough not to hurt convergence.
+ *
+ * Unlike ParallelTrainer, results are not reproducible between runs.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public class HogwildTrainer {
+
+    public final CompiledNetwork network;
+    public final int threads;
+    final Batch[] workers;
+    final ExecutorService executor;
+    final Random random;
+
+    public HogwildTrainer(CompiledNetwork network, int threads, long seed)
+    {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be positive");
+        this.network = network;
+        this.threads = threads;
+        this.random = new Random(seed);
+        workers = new Batch[threads];
+        for(int t = 0; t < threads; t++)
+            workers[t] = new Batch(network, 1);
+        executor = Workers.pool(threads, "HogwildTrainer");
+    }
+
+    /** Trains one epoch over samples in shuffled order; worker t takes every t'th sample.
+     * @see Batch#feedForward(double[][], int, int, int[])
+     * @see Batch#backpropagate(double[][], int, int[], double[][])
+     */
+    public void trainEpoch(double[][] samples, final int[] inputValueOffsets, final int[] targetValueOffsets,
+            final double[][] learningRateCoefficients)
+    {
+        final double[][] order = Arrays.copyOf(samples, samples.length);
+        Workers.shuffle(order, order.length, random);
+        List<Callable<Void>> tasks = new ArrayList<>(threads);
+        for(int t = 0; t < threads; t++)
+        {
+            final Batch batch = workers[t];
+            final int first = t;
+            tasks.add(() -> {
+                for(int s = first; s < order.length; s += threads)
+                {
+                    batch.feedForward(order, s, s + 1, inputValueOffsets);
+                    batch.backpropagate(order, s, targetValueOffsets, learningRateCoefficients);
+                }
+                return null;
+            });
+        }
+        Workers.invokeAll(executor, tasks);
+    }
+
+    public void shutdown()
+    {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,274 @@
+package oh.neural;
+
+/** Inner loops of layer computation: dot products, distances, axpy updates and element-wise operations.
+ *
+ * The implementation is chosen once, when this class is loaded.
+ * On JDK 17 or later, with module jdk.incubator.vector added to the runtime
+ * (java --add-modules jdk.incubator.vector), VectorKernels from the multi-release
+ * part of the jar computes with SIMD vectors; otherwise, or if system property
+ * oh.neural.kernels is set to "scalar", plain loops are used.
+ *
+ * Vector dot products and distances sum in a different order than a plain loop,
+ * so results may differ from scalar ones in the last bits.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public final class Kernels {  private Kernels(){}
+
+    static final Scalar IMPL = load();
+
+    private static Scalar load()
+    {
+        if (!"scalar".equals(System.getProperty("oh.neural.kernels")))
+        {
+            try
+            {
+                return (Scalar)Class.forName("oh.neural.VectorKernels").getDeclaredConstructor().newInstance();
+            }
+            catch(ReflectiveOperationException | LinkageError e)
+            {
+                // vector API not available
+            }
+        }
+        return new Scalar();
+    }
+
+    /** Name of the implementation in use, "vector" or "scalar" */
+    public static String implementation()
+    {
+        return IMPL.name();
+    }
+
+    /** sum of x[i] * y[i] */
+    public static double dot(double[] x, int xOffset, double[] y, int yOffset, int length)
+    {
+        return IMPL.dot(x, xOffset, y, yOffset, length);
+    }
+
+    /** sum of (x[i] - y[i])^2 */
+    public static double squaredDistance(double[] x, int xOffset, double[] y, int yOffset, int length)
+    {
+        return IMPL.squaredDistance(x, xOffset, y, yOffset, length);
+    }
+
+    /** y[i] += a * x[i] */
+    public static void axpy(double a, double[] x, int xOffset, double[] y, int yOffset, int length)
+    {
+        IMPL.axpy(a, x, xOffset, y, yOffset, length);
+    }
+
+    /** out[outOffset + q] += dot(x, wq) for q = 0..3; x is loaded once for four rows */
+    public static void dot4(double[] x, int xOffset, double[] w0, int o0, double[] w1, int o1,
+            double[] w2, int o2, double[] w3, int o3, int length, double[] out, int outOffset)
+    {
+        IMPL.dot4(x, xOffset, w0, o0, w1, o1, w2, o2, w3, o3, length, out, outOffset);
+    }
+
+    /** out[outOffset + q] += squaredDistance(x, wq) for q = 0..3 */
+    public static void squaredDistance4(double[] x, int xOffset, double[] w0, int o0, double[] w1, int o1,
+            double[] w2, int o2, double[] w3, int o3, int length, double[] out, int outOffset)
+    {
+        IMPL.squaredDistance4(x, xOffset, w0, o0, w1, o1, w2, o2, w3, o3, length, out, outOffset);
+    }
+
+    /** y[i] += a0 * x0[i] + a1 * x1[i] + a2 * x2[i] + a3 * x3[i]; y is loaded and stored once for four rows */
+    public static void axpy4(double a0, double[] x0, int o0, double a1, double[] x1, int o1,
+            double a2, double[] x2, int o2, double a3, double[] x3, int o3, double[] y, int yOffset, int length)
+    {
+        IMPL.axpy4(a0, x0, o0, a1, x1, o1, a2, x2, o2, a3, x3, o3, y, yOffset, length);
+    }
+
+    /** True if no value is NaN or infinite */
+    public static boolean isFinite(double[] x, int offset, int length)
+    {
+        return IMPL.isFinite(x, offset, length);
+    }
+
+    /** out[i] = x[i] + y[i] */
+    public static void add(double[] x, double[] y, double[] out, int length)
+    {
+        IMPL.add(x, y, out, length);
+    }
+
+    /** out[i] = x[i] - y[i] */
+    public static void sub(double[] x, double[] y, double[] out, int length)
+    {
+        IMPL.sub(x, y, out, length);
+    }
+
+    /** out[i] = x[i] * y[i] */
+    public static void mul(double[] x, double[] y, double[] out, int length)
+    {
+        IMPL.mul(x, y, out, length);
+    }
+
+    /** out[i] = a * x[i] */
+    public static void scale(double a, double[] x, int xOffset, double[] out, int outOffset, int length)
+    {
+        IMPL.scale(a, x, xOffset, out, outOffset, length);
+    }
+
+    public static float dot(float[] x, int xOffset, float[] y, int yOffset, int length)
+    {
+        return IMPL.dot(x, xOffset, y, yOffset, length);
+    }
+
+    public static float squaredDistance(float[] x, int xOffset, float[] y, int yOffset, int length)
+    {
+        return IMPL.squaredDistance(x, xOffset, y, yOffset, length);
+    }
+
+    public static void axpy(float a, float[] x, int xOffset, float[] y, int yOffset, int length)
+    {
+        IMPL.axpy(a, x, xOffset, y, yOffset, length);
+    }
+
+    public static boolean isFinite(float[] x, int offset, int length)
+    {
+        return IMPL.isFinite(x, offset, length);
+    }
+
+
+    /** Plain loop implementation, also the base of VectorKernels for short arrays and tails */
+    static class Scalar
+    {
+        String name()
+        {
+            return "scalar";
+        }
+
+        double dot(double[] x, int xOffset, double[] y, int yOffset, int length)
+        {
+            double sum = 0.0;
+            for(int i = 0; i < length; i++)
+                sum += x[xOffset + i] * y[yOffset + i];
+            return sum;
+        }
+
+        double squaredDistance(double[] x, int xOffset, double[] y, int yOffset, int length)
+        {
+            double sum = 0.0;
+            for(int i = 0; i < length; i++)
+            {
+                double delta = x[xOffset + i] - y[yOffset + i];
+                sum += delta * delta;
+            }
+            return sum;
+        }
+
+        void axpy(double a, double[] x, int xOffset, double[] y, int yOffset, int length)
+        {
+            for(int i = 0; i < length; i++)
+                y[yOffset + i] += a * x[xOffset + i];
+        }
+
+        void dot4(double[] x, int xOffset, double[] w0, int o0, double[] w1, int o1,
+                double[] w2, int o2, double[] w3, int o3, int length, double[] out, int outOffset)
+        {
+            double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+            for(int i = 0; i < length; i++)
+            {
+                double xi = x[xOffset + i];
+                s0 += xi * w0[o0 + i];
+                s1 += xi * w1[o1 + i];
+                s2 += xi * w2[o2 + i];
+                s3 += xi * w3[o3 + i];
+            }
+            out[outOffset] += s0;
+            out[outOffset + 1] += s1;
+            out[outOffset + 2] += s2;
+            out[outOffset + 3] += s3;
+        }
+
+        void squaredDistance4(double[] x, int xOffset, double[] w0, int o0, double[] w1, int o1,
+                double[] w2, int o2, double[] w3, int o3, int length, double[] out, int outOffset)
+        {
+            double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+            for(int i = 0; i < length; i++)
+            {
+                double xi = x[xOffset + i];
+                double d0 = xi - w0[o0 + i], d1 = xi - w1[o1 + i], d2 = xi - w2[o2 + i], d3 = xi - w3[o3 + i];
+                s0 += d0 * d0;
+                s1 += d1 * d1;
+                s2 += d2 * d2;
+                s3 += d3 * d3;
+            }
+            out[outOffset] += s0;
+            out[outOffset + 1] += s1;
+            out[outOffset + 2] += s2;
+            out[outOffset + 3] += s3;
+        }
+
+        void axpy4(double a0, double[] x0, int o0, double a1, double[] x1, int o1,
+                double a2, double[] x2, int o2, double a3, double[] x3, int o3, double[] y, int yOffset, int length)
+        {
+            for(int i = 0; i < length; i++)
+                y[yOffset + i] += a0 * x0[o0 + i] + a1 * x1[o1 + i] + a2 * x2[o2 + i] + a3 * x3[o3 + i];
+        }
+
+        boolean isFinite(double[] x, int offset, int length)
+        {
+            double zero = 0.0;
+            for(int i = 0; i < length; i++)
+                zero += x[offset + i] * 0.0; // NaN for NaN or infinite values
+            return zero == 0.0;
+        }
+
+        void add(double[] x, double[] y, double[] out, int length)
+        {
+            for(int i = 0; i < length; i++)
+                out[i] = x[i] + y[i];
+        }
+
+        void sub(double[] x, double[] y, double[] out, int length)
+        {
+            for(int i = 0; i < length; i++)
+                out[i] = x[i] - y[i];
+        }
+
+        void mul(double[] x, double[] y, double[] out, int length)
+        {
+            for(int i = 0; i < length; i++)
+                out[i] = x[i] * y[i];
+        }
+
+        void scale(double a, double[] x, int xOffset, double[] out, int outOffset, int length)
+        {
+            for(int i = 0; i < length; i++)
+                out[outOffset + i] = a * x[xOffset + i];
+        }
+
+        float dot(float[] x, int xOffset, float[] y, int yOffset, int length)
+        {
+            float sum = 0f;
+            for(int i = 0; i < length; i++)
+                sum += x[xOffset + i] * y[yOffset + i];
+            return sum;
+        }
+
+        float squaredDistance(float[] x, int xOffset, float[] y, int yOffset, int length)
+        {
+            float sum = 0f;
+            for(int i = 0; i < length; i++)
+            {
+                float delta = x[xOffset + i] - y[yOffset + i];
+                sum += delta * delta;
+            }
+            return sum;
+        }
+
+        void axpy(float a, float[] x, int xOffset, float[] y, int yOffset, int length)
+        {
+            for(int i = 0; i < length; i++)
+                y[yOffset + i] += a * x[xOffset + i];
+        }
+
+        boolean isFinite(float[] x, int offset, int length)
+        {
+            float zero = 0f;
+            for(int i = 0; i < length; i++)
+                zero += x[offset + i] * 0f;
+            return zero == 0f;
+        }
+    }
+}
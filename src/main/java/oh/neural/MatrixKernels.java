@@ -0,0 +1,141 @@
+package oh.neural;
+
+/** Whole-layer matrix products over WeightMatrix rows (one row per receiving node).
+ *
+ * Register blocking: four weight rows are processed together (Kernels.dot4, axpy4),
+ * so each input value is loaded once per four nodes instead of once per node.
+ * Cache blocking: batch products go through the columns in blocks of COLUMN_BLOCK,
+ * so that a block of four weight rows stays in L1 cache while all batch rows use it.
+ *
+ * Batch buffers are row-major, one row per sample, as in Batch.
+ * All methods add to their output.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public final class MatrixKernels {  private MatrixKernels(){}
+
+    /** Columns per cache block; four rows of a block take 16 KB */
+    static final int COLUMN_BLOCK = 512;
+
+    /** y[i] += sum_j w[i][j] * x[j] */
+    public static void multiply(WeightMatrix w, double[] x, int xOffset, double[] y, int yOffset)
+    {
+        multiply(w, x, xOffset, y, yOffset, false);
+    }
+
+    /** y[i] += sum_j (x[j] - w[i][j])^2 */
+    public static void squaredDistances(WeightMatrix w, double[] x, int xOffset, double[] y, int yOffset)
+    {
+        multiply(w, x, xOffset, y, yOffset, true);
+    }
+
+    /** y[j] += sum_i w[i][j] * x[i] */
+    public static void multiplyTransposed(WeightMatrix w, double[] x, int xOffset, double[] y, int yOffset)
+    {
+        int i = 0;
+        for(; i + 4 <= w.rows; i += 4)
+            Kernels.axpy4(x[xOffset + i], w.row(i), w.offset(i), x[xOffset + i + 1], w.row(i + 1), w.offset(i + 1),
+                    x[xOffset + i + 2], w.row(i + 2), w.offset(i + 2), x[xOffset + i + 3], w.row(i + 3), w.offset(i + 3),
+                    y, yOffset, w.cols);
+        for(; i < w.rows; i++)
+            Kernels.axpy(x[xOffset + i], w.row(i), w.offset(i), y, yOffset, w.cols);
+    }
+
+    /** For each of rows: y[b][i] += sum_j w[i][j] * x[b][j] */
+    public static void multiply(WeightMatrix w, double[] x, double[] y, int rows)
+    {
+        multiply(w, x, y, rows, false);
+    }
+
+    /** For each of rows: y[b][i] += sum_j (x[b][j] - w[i][j])^2 */
+    public static void squaredDistances(WeightMatrix w, double[] x, double[] y, int rows)
+    {
+        multiply(w, x, y, rows, true);
+    }
+
+    /** For each of rows: y[b][j] += sum_i w[i][j] * x[b][i] */
+    public static void multiplyTransposed(WeightMatrix w, double[] x, double[] y, int rows)
+    {
+        for(int j0 = 0; j0 < w.cols; j0 += COLUMN_BLOCK)
+        {
+            int j1 = Math.min(w.cols, j0 + COLUMN_BLOCK);
+            int i = 0;
+            for(; i + 4 <= w.rows; i += 4)
+            {
+                double[] w0 = w.row(i), w1 = w.row(i + 1), w2 = w.row(i + 2), w3 = w.row(i + 3);
+                int o0 = w.offset(i) + j0, o1 = w.offset(i + 1) + j0, o2 = w.offset(i + 2) + j0, o3 = w.offset(i + 3) + j0;
+                for(int b = 0; b < rows; b++)
+                {
+                    int xOffset = b * w.rows + i;
+                    Kernels.axpy4(x[xOffset], w0, o0, x[xOffset + 1], w1, o1, x[xOffset + 2], w2, o2, x[xOffset + 3], w3, o3,
+                            y, b * w.cols + j0, j1 - j0);
+                }
+            }
+            for(; i < w.rows; i++)
+                for(int b = 0; b < rows; b++)
+                    Kernels.axpy(x[b * w.rows + i], w.row(i), w.offset(i) + j0, y, b * w.cols + j0, j1 - j0);
+        }
+    }
+
+    /** g[i][j] += sum_b d[b][i] * x[b][j], where d has n and x has m values per row
+     * and g is row-major n by m; each g row is loaded and stored once per four batch rows. */
+    public static void addOuterProducts(double[] d, int n, double[] x, int m, double[] g, int rows)
+    {
+        for(int i = 0; i < n; i++)
+        {
+            int gOffset = i * m;
+            int b = 0;
+            for(; b + 4 <= rows; b += 4)
+                Kernels.axpy4(d[b * n + i], x, b * m, d[(b + 1) * n + i], x, (b + 1) * m,
+                        d[(b + 2) * n + i], x, (b + 2) * m, d[(b + 3) * n + i], x, (b + 3) * m,
+                        g, gOffset, m);
+            for(; b < rows; b++)
+            {
+                double delta = d[b * n + i];
+                if (delta != 0.0)
+                    Kernels.axpy(delta, x, b * m, g, gOffset, m);
+            }
+        }
+    }
+
+
+    private static void multiply(WeightMatrix w, double[] x, double[] y, int rows, boolean distance)
+    {
+        for(int j0 = 0; j0 < w.cols; j0 += COLUMN_BLOCK)
+        {
+            int j1 = Math.min(w.cols, j0 + COLUMN_BLOCK);
+            int i = 0;
+            for(; i + 4 <= w.rows; i += 4)
+            {
+                double[] w0 = w.row(i), w1 = w.row(i + 1), w2 = w.row(i + 2), w3 = w.row(i + 3);
+                int o0 = w.offset(i) + j0, o1 = w.offset(i + 1) + j0, o2 = w.offset(i + 2) + j0, o3 = w.offset(i + 3) + j0;
+                for(int b = 0; b < rows; b++)
+                    if (distance)
+                        Kernels.squaredDistance4(x, b * w.cols + j0, w0, o0, w1, o1, w2, o2, w3, o3, j1 - j0, y, b * w.rows + i);
+                    else
+                        Kernels.dot4(x, b * w.cols + j0, w0, o0, w1, o1, w2, o2, w3, o3, j1 - j0, y, b * w.rows + i);
+            }
+            for(; i < w.rows; i++)
+                for(int b = 0; b < rows; b++)
+                    y[b * w.rows + i] += distance ?
+                            Kernels.squaredDistance(x, b * w.cols + j0, w.row(i), w.offset(i) + j0, j1 - j0) :
+                            Kernels.dot(x, b * w.cols + j0, w.row(i), w.offset(i) + j0, j1 - j0);
+        }
+    }
+
+    private static void multiply(WeightMatrix w, double[] x, int xOffset, double[] y, int yOffset, boolean distance)
+    {
+        int i = 0;
+        for(; i + 4 <= w.rows; i += 4)
+            if (distance)
+                Kernels.squaredDistance4(x, xOffset, w.row(i), w.offset(i), w.row(i + 1), w.offset(i + 1),
+                        w.row(i + 2), w.offset(i + 2), w.row(i + 3), w.offset(i + 3), w.cols, y, yOffset + i);
+            else
+                Kernels.dot4(x, xOffset, w.row(i), w.offset(i), w.row(i + 1), w.offset(i + 1),
+                        w.row(i + 2), w.offset(i + 2), w.row(i + 3), w.offset(i + 3), w.cols, y, yOffset + i);
+        for(; i < w.rows; i++)
+            y[yOffset + i] += distance ?
+                    Kernels.squaredDistance(x, xOffset, w.row(i), w.offset(i), w.cols) :
+                    Kernels.dot(x, xOffset, w.row(i), w.offset(i), w.cols);
+    }
+}
@@ -0,0 +1,253 @@
+package oh.neural;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.List;
+import oh.neural.FeedForwardNetwork.InputFunction;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+import oh.neural.Fn.Dd;
+import oh.neural.Fn.Ddd;
+
+/** A read-only snapshot of a trained system of layers, for inference.
+ *
+ * Weights are copied at snapshot time, or mapped from a file (see NetworkFile),
+ * and never written afterwards. Copies may be kept off heap in direct buffers,
+ * where, as with mapped files, they add nothing to garbage collection work;
+ * activations live in a Workspace given to predict, so one model
+ * can serve any number of threads without locking, each with a workspace of its own.
+ *
+ * Input values are the values of input layers (layers without feeding layers)
+ * concatenated in forward order; output values likewise for output layers
+ * (layers without receiving layers).
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public final class Model {
+
+    /** Layer sizes in forward order */
+    final int[] sizes;
+    /** [layer][feeding] position of feeding layer */
+    final int[][] feeding;
+    /** [layer][feeding] row-major weights, one row per node */
+    final DoubleBuffer[][] weights;
+    /** [layer] biases, one per node, or null for a layer without biases */
+    final DoubleBuffer[] biases;
+    final boolean[] diff;
+    final Dd[] transferFunctions;
+    final Ddd[] gateFunctions;
+    final int[] inputs;
+    final int[] outputs;
+    public final int inputSize;
+    public final int outputSize;
+
+    public static Model snapshot(List<NodeLayer> system)
+    {
+        return snapshot(FeedForwardNetwork.compile(system), false);
+    }
+
+    public static Model snapshot(CompiledNetwork network)
+    {
+        return snapshot(network, false);
+    }
+
+    /** @param offHeap if true, weights are copied to direct buffers instead of heap arrays */
+    public static Model snapshot(CompiledNetwork network, boolean offHeap)
+    {
+        int L = network.layers.length;
+        int[] sizes = new int[L];
+        int[][] feeding = new int[L][];
+        DoubleBuffer[][] weights = new DoubleBuffer[L][];
+        DoubleBuffer[] biases = new DoubleBuffer[L];
+        boolean[] diff = new boolean[L];
+        Dd[] transferFunctions = new Dd[L];
+        Ddd[] gateFunctions = new Ddd[L];
+        for(int p = 0; p < L; p++)
+        {
+            NodeLayer layer = network.layers[p];
+            sizes[p] = layer.size();
+            feeding[p] = Arrays.copyOf(network.feeding[p], network.feeding[p].length);
+            weights[p] = new DoubleBuffer[layer.weights.length];
+            for(int k = 0; k < layer.weights.length; k++)
+            {
+                WeightMatrix w = layer.weights[k];
+                DoubleBuffer copy = allocate((long)w.rows * w.cols, offHeap);
+                for(int i = 0; i < w.rows; i++)
+                    copy.put(w.row(i), w.offset(i), w.cols);
+                copy.clear();
+                weights[p][k] = copy;
+            }
+            if (layer.biases != null)
+            {
+                biases[p] = allocate(layer.size(), offHeap).put(layer.biases);
+                biases[p].clear();
+            }
+            if (feeding[p].length > 0)
+            {
+                diff[p] = layer.inputFunction instanceof InputFunction.Diff;
+                if (!diff[p] && !(layer.inputFunction instanceof InputFunction.Dot))
+                    throw new UnsupportedOperationException("model snapshots support dot and diff input functions, got "
+                            + layer.inputFunction);
+                transferFunctions[p] = layer.transferFunction;
+                gateFunctions[p] = layer.gateFunction;
+            }
+        }
+        return new Model(sizes, feeding, weights, biases, diff, transferFunctions, gateFunctions);
+    }
+
+    /** @throws IllegalArgumentException if size values do not fit one buffer: 2^31 - 1 bytes off heap,
+     * 2^31 - 1 values on heap */
+    private static DoubleBuffer allocate(long size, boolean offHeap)
+    {
+        if (size > (offHeap ? Integer.MAX_VALUE / 8 : Integer.MAX_VALUE))
+            throw new IllegalArgumentException(size + " values do not fit a" + (offHeap ? " direct" : "") 
+                    + " DoubleBuffer");
+        return offHeap ?
+                ByteBuffer.allocateDirect(8 * (int)size).order(ByteOrder.nativeOrder()).asDoubleBuffer() :
+                DoubleBuffer.allocate((int)size);
+    }
+
+    /** @param feeding positions of feeding layers of each layer, preceding it */
+    Model(int[] sizes, int[][] feeding, DoubleBuffer[][] weights, DoubleBuffer[] biases, boolean[] diff,
+            Dd[] transferFunctions, Ddd[] gateFunctions)
+    {
+        this.sizes = sizes;
+        this.feeding = feeding;
+        this.weights = weights;
+        this.biases = biases;
+        this.diff = diff;
+        this.transferFunctions = transferFunctions;
+        this.gateFunctions = gateFunctions;
+        int L = sizes.length;
+        boolean[] receiving = new boolean[L];
+        for(int[] f : feeding)
+            for(int q : f)
+                receiving[q] = true;
+        int inputCount = 0, outputCount = 0;
+        for(int p = 0; p < L; p++)
+        {
+            if (feeding[p].length == 0)
+                inputCount++;
+            if (!receiving[p])
+                outputCount++;
+        }
+        inputs = new int[inputCount];
+        outputs = new int[outputCount];
+        int in = 0, out = 0, inSize = 0, outSize = 0;
+        for(int p = 0; p < L; p++)
+        {
+            if (feeding[p].length == 0)
+            {
+                inputs[in++] = p;
+                inSize += sizes[p];
+            }
+            if (!receiving[p])
+            {
+                outputs[out++] = p;
+                outSize += sizes[p];
+            }
+        }
+        inputSize = inSize;
+        outputSize = outSize;
+    }
+
+    /** True if there are weights, and none of them are kept on heap */
+    public boolean isOffHeap()
+    {
+        boolean any = false;
+        for(DoubleBuffer[] layerWeights : weights)
+            for(DoubleBuffer w : layerWeights)
+            {
+                if (!w.isDirect())
+                    return false;
+                any = true;
+            }
+        for(DoubleBuffer b : biases)
+            if (b != null && !b.isDirect())
+                return false;
+        return any;
+    }
+
+    /** Activation buffers for one thread of inference at a time */
+    public static final class Workspace {
+        final double[][] values;
+
+        Workspace(int[] sizes)
+        {
+            values = new double[sizes.length][];
+            for(int p = 0; p < sizes.length; p++)
+                values[p] = new double[sizes[p]];
+        }
+    }
+
+    public Workspace newWorkspace()
+    {
+        return new Workspace(sizes);
+    }
+
+    private final ThreadLocal<Workspace> workspaces = ThreadLocal.withInitial(this::newWorkspace);
+
+    /** Computes output values for input values with a thread-local workspace. */
+    public double[] predict(double[] in, double[] out)
+    {
+        return predict(in, out, workspaces.get());
+    }
+
+    /** Computes output values for input values.
+     * @param in input layers' values concatenated, inputSize values
+     * @param out output, outputSize values
+     * @param ws workspace not used concurrently by another thread
+     * @return out
+     */
+    public double[] predict(double[] in, double[] out, Workspace ws)
+    {
+        double[][] values = ws.values;
+        int offset = 0;
+        for(int p : inputs)
+        {
+            System.arraycopy(in, offset, values[p], 0, sizes[p]);
+            offset += sizes[p];
+        }
+        for(int p = 0; p < sizes.length; p++)
+        {
+            if (feeding[p].length == 0)
+                continue;
+            double[] v = values[p];
+            Dd transferFunction = transferFunctions[p];
+            Ddd gateFunction = gateFunctions[p];
+            DoubleBuffer b = biases[p];
+            for(int i = 0; i < v.length; i++)
+            {
+                double input = b != null && !diff[p] ? b.get(i) : 0.0;
+                for(int k = 0; k < feeding[p].length; k++)
+                {
+                    double[] x = values[feeding[p][k]];
+                    DoubleBuffer w = weights[p][k];
+                    int rowOffset = i * x.length;
+                    if (diff[p])
+                        for(int j = 0; j < x.length; j++)
+                        {
+                            double delta = x[j] - w.get(rowOffset + j);
+                            input += delta * delta;
+                        }
+                    else
+                        for(int j = 0; j < x.length; j++)
+                            input += x[j] * w.get(rowOffset + j);
+                }
+                if (diff[p])
+                    input = Math.sqrt(input) + (b != null ? b.get(i) : 0.0);
+                v[i] = gateFunction != null ? transferFunction.f(gateFunction.f(input, v[i])) : input;
+            }
+            if (gateFunction == null)
+                transferFunction.apply(v, v, 0, v.length);
+        }
+        offset = 0;
+        for(int p : outputs)
+        {
+            System.arraycopy(values[p], 0, out, offset, sizes[p]);
+            offset += sizes[p];
+        }
+        return out;
+    }
+}
@@ -0,0 +1,316 @@
+package oh.neural;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import oh.neural.FeedForwardNetwork.InputFunction;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+import oh.neural.Fn.Dd;
+import oh.neural.Fn.Ddd;
+import oh.neural.Fn.Ddi;
+import oh.neural.Fn.Partials.PartialDXdd;
+import oh.neural.Fn.Partials.PartialDXdi;
+
+/** Binary file format for a system of layers.
+ *
+ * All values are little-endian. Header:
+ *   int magic "OHNN", int version, int layer count, int weights offset;
+ *   per layer, in forward order:
+ *     int size, int input function (0 dot, 1 diff),
+ *     transfer function and delta function each as int id, double parameter,
+ *     int feeding count, int[] feeding layer positions, int 1 if the layer has biases, else 0.
+ * Weights follow at weights offset (8 byte aligned): per layer, per feeding layer,
+ * a row-major block of size * feeding size doubles, then a block of size biases if the layer has them.
+ * Version 1 files, without the bias flag and biases, are read as well.
+ *
+ * Function ids index FUNCTIONS; a parameter is the steepness, slope, sigma or step count
+ * of a Fn.Transfer partial; approximations are written as their exact functions,
+ * and a Fn.Transfer.Fused transfer function as the id of its transfer function plus FUSED.
+ * Gate functions and custom input functions are not supported.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public final class NetworkFile {  private NetworkFile(){}
+
+    static final int MAGIC = 'O' | 'H' << 8 | 'N' << 16 | 'N' << 24;
+    static final int VERSION = 2;
+
+    static final int FUSED = 256;
+
+    /** Function ids; 0 is no function */
+    static final Fn[] FUNCTIONS = {
+        null,
+        Fn.Transfer.linear, Fn.Transfer.linearD1,
+        Fn.Transfer.staircase, Fn.Transfer.staircaseD1,
+        Fn.Transfer.sigmoid, Fn.Transfer.sigmoidD1,
+        Fn.Transfer.tanh, Fn.Transfer.tanhD1,
+        Fn.Transfer.softsign, Fn.Transfer.softsignD1,
+        Fn.Transfer.gaussian, Fn.Transfer.gaussianD1,
+    };
+
+    public static void write(List<NodeLayer> system, Path path) throws IOException
+    {
+        CompiledNetwork network = FeedForwardNetwork.compile(system);
+        ByteBuffer header = ByteBuffer.allocate(headerSize(network)).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(network.layers.length).putInt(header.capacity());
+        for(int p = 0; p < network.layers.length; p++)
+        {
+            NodeLayer layer = network.layers[p];
+            if (layer.gateFunction != null)
+                throw new IllegalArgumentException("cannot write gate function of layer " + p);
+            header.putInt(layer.size());
+            header.putInt(inputFunctionId(layer.inputFunction));
+            putFunction(header, layer.transferFunction);
+            putFunction(header, layer.deltaFunction);
+            header.putInt(network.feeding[p].length);
+            for(int f : network.feeding[p])
+                header.putInt(f);
+            header.putInt(layer.biases != null ? 1 : 0);
+        }
+        header.clear(); // including padding
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+        {
+            while(header.hasRemaining())
+                channel.write(header);
+            ByteBuffer block = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            DoubleBuffer doubles = block.asDoubleBuffer();
+            for(NodeLayer layer : network.layers)
+            {
+                for(WeightMatrix w : layer.weights)
+                    for(int i = 0; i < w.rows; i++)
+                        writeDoubles(channel, block, doubles, w.row(i), w.offset(i), w.cols);
+                if (layer.biases != null)
+                    writeDoubles(channel, block, doubles, layer.biases, 0, layer.biases.length);
+            }
+        }
+    }
+
+    /** Writes values through block, of which doubles is a view */
+    private static void writeDoubles(FileChannel channel, ByteBuffer block, DoubleBuffer doubles, 
+            double[] values, int offset, int length) throws IOException
+    {
+        for(int j = 0; j < length; )
+        {
+            int count = Math.min(doubles.capacity(), length - j);
+            doubles.clear();
+            doubles.put(values, offset + j, count);
+            block.clear().limit(count * 8);
+            while(block.hasRemaining())
+                channel.write(block);
+            j += count;
+        }
+    }
+
+    /** Maps weights of a written system into memory without copying them onto heap. */
+    public static Model map(Path path) throws IOException
+    {
+        Header h = readHeader(path);
+        boolean[] diff = new boolean[h.sizes.length];
+        for(int p = 0; p < diff.length; p++)
+            diff[p] = h.inputFunctions[p] == 1;
+        return new Model(h.sizes, h.feeding, h.weights, h.biases, diff, h.transferFunctions, new Ddd[h.sizes.length]);
+    }
+
+    /** Reads a written system into new layers with flat weight storage, in forward order. */
+    public static List<NodeLayer> read(Path path) throws IOException
+    {
+        Header h = readHeader(path);
+        List<NodeLayer> system = new ArrayList<>();
+        for(int p = 0; p < h.sizes.length; p++)
+        {
+            NodeLayer layer = new NodeLayer(h.sizes[p], true);
+            layer.inputFunction = h.inputFunctions[p] == 1 ? InputFunction.diff : InputFunction.dot;
+            layer.transferFunction = h.transferFunctions[p];
+            layer.deltaFunction = h.deltaFunctions[p];
+            system.add(layer);
+        }
+        for(int p = 0; p < h.sizes.length; p++)
+            for(int k = 0; k < h.feeding[p].length; k++)
+                system.get(p).addFeedingLayer(system.get(h.feeding[p][k]), null);
+        for(int p = 0; p < h.sizes.length; p++)
+        {
+            NodeLayer layer = system.get(p);
+            for(int k = 0; k < h.feeding[p].length; k++)
+            {
+                WeightMatrix w = layer.weights[k];
+                DoubleBuffer block = h.weights[p][k].duplicate();
+                for(int i = 0; i < w.rows; i++)
+                    block.get(w.row(i), w.offset(i), w.cols);
+            }
+            if (h.biases[p] != null)
+            {
+                layer.addBiases();
+                h.biases[p].duplicate().get(layer.biases);
+            }
+        }
+        return system;
+    }
+
+
+    private static final class Header {
+        int[] sizes;
+        int[] inputFunctions;
+        Dd[] transferFunctions;
+        Dd[] deltaFunctions;
+        int[][] feeding;
+        DoubleBuffer[][] weights;
+        DoubleBuffer[] biases;
+    }
+
+    private static Header readHeader(Path path) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            ByteBuffer start = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, start, 0);
+            if (start.getInt() != MAGIC)
+                throw new IOException(path + " is not a network file");
+            int version = start.getInt();
+            if (version != VERSION && version != 1)
+                throw new IOException(path + ": unsupported version " + version);
+            int L = start.getInt();
+            int weightsOffset = start.getInt();
+            ByteBuffer b = ByteBuffer.allocate(weightsOffset - 16).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, b, 16);
+
+            Header h = new Header();
+            h.sizes = new int[L];
+            h.inputFunctions = new int[L];
+            h.transferFunctions = new Dd[L];
+            h.deltaFunctions = new Dd[L];
+            h.feeding = new int[L][];
+            h.weights = new DoubleBuffer[L][];
+            h.biases = new DoubleBuffer[L];
+            boolean[] hasBiases = new boolean[L];
+            for(int p = 0; p < L; p++)
+            {
+                h.sizes[p] = b.getInt();
+                h.inputFunctions[p] = b.getInt();
+                h.transferFunctions[p] = getFunction(b);
+                h.deltaFunctions[p] = getFunction(b);
+                h.feeding[p] = new int[b.getInt()];
+                for(int k = 0; k < h.feeding[p].length; k++)
+                {
+                    h.feeding[p][k] = b.getInt();
+                    if (h.feeding[p][k] < 0 || h.feeding[p][k] >= p)
+                        throw new IOException(path + ": layer " + p + " is fed by layer " + h.feeding[p][k]);
+                }
+                hasBiases[p] = version > 1 && b.getInt() != 0;
+            }
+            long position = weightsOffset;
+            for(int p = 0; p < L; p++)
+            {
+                h.weights[p] = new DoubleBuffer[h.feeding[p].length];
+                for(int k = 0; k < h.feeding[p].length; k++)
+                {
+                    long bytes = 8L * h.sizes[p] * h.sizes[h.feeding[p][k]];
+                    if (bytes > Integer.MAX_VALUE)
+                        throw new IOException(path + ": weight block of layer " + p + " exceeds 2 GB");
+                    h.weights[p][k] = map(channel, path, position, bytes);
+                    position += bytes;
+                }
+                if (hasBiases[p])
+                {
+                    h.biases[p] = map(channel, path, position, 8L * h.sizes[p]);
+                    position += 8L * h.sizes[p];
+                }
+            }
+            return h;
+        }
+    }
+
+    private static DoubleBuffer map(FileChannel channel, Path path, long position, long bytes) throws IOException
+    {
+        if (position + bytes > channel.size())
+            throw new IOException(path + " is truncated");
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, bytes).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer b, long position) throws IOException
+    {
+        while(b.hasRemaining())
+            if (channel.read(b, position + b.position()) < 0)
+                throw new IOException("unexpected end of file");
+        b.flip();
+    }
+
+    private static int headerSize(CompiledNetwork network)
+    {
+        int size = 16;
+        for(int p = 0; p < network.layers.length; p++)
+            size += 4 + 4 + 2 * (4 + 8) + 4 + 4 * network.feeding[p].length + 4;
+        return (size + 7) & ~7;
+    }
+
+    private static int inputFunctionId(InputFunction f)
+    {
+        if (f instanceof InputFunction.Dot)
+            return 0;
+        if (f instanceof InputFunction.Diff)
+            return 1;
+        throw new IllegalArgumentException("cannot write input function " + f);
+    }
+
+    private static void putFunction(ByteBuffer b, Dd f)
+    {
+        int fused = 0;
+        if (f instanceof Fn.Transfer.Fused)
+        {
+            f = ((Fn.Transfer.Fused)f).transfer;
+            fused = FUSED;
+        }
+        if (f instanceof Fn.Transfer.Approximation)
+            f = ((Fn.Transfer.Approximation)f).exact;
+        Fn base = f;
+        double param = 0.0;
+        if (f instanceof PartialDXdd)
+        {
+            base = ((PartialDXdd)f).base;
+            param = ((PartialDXdd)f).param;
+        }
+        else if (f instanceof PartialDXdi)
+        {
+            base = ((PartialDXdi)f).base;
+            param = ((PartialDXdi)f).param;
+        }
+        for(int id = 0; id < FUNCTIONS.length; id++)
+            if (FUNCTIONS[id] == base)
+            {
+                b.putInt(fused + id).putDouble(param);
+                return;
+            }
+        throw new IllegalArgumentException("cannot write function " + f);
+    }
+
+    private static Dd getFunction(ByteBuffer b) throws IOException
+    {
+        int id = b.getInt();
+        double param = b.getDouble();
+        boolean fused = id >= FUSED;
+        if (fused)
+            id -= FUSED;
+        if (id < 0 || id >= FUNCTIONS.length)
+            throw new IOException("unknown function id " + id);
+        Fn base = FUNCTIONS[id];
+        Dd f = base instanceof Ddd ? Fn.Partials.partialDXdd((Ddd)base, param)
+                : base instanceof Ddi ? Fn.Partials.partialDXdi((Ddi)base, (int)param)
+                : (Dd)base;
+        if (!fused)
+            return f;
+        try
+        {
+            return Fn.Transfer.fused(f);
+        }
+        catch(IllegalArgumentException e)
+        {
+            throw new IOException("unknown function id " + (FUSED + id));
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package oh.neural;
+
+import java.util.Arrays;
+import java.util.List;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+
+/** A learning rule applying accumulated gradients to weights; set as CompiledNetwork.optimizer
+ * for Batch.applyGradients and ParallelTrainer. Without one, gradients are applied as plain SGD
+ * by NodeLayer.applyGradients.
+ *
+ * Gradients are as Batch accumulates them, in the direction that decreases error,
+ * and learning rate coefficients are rates per node as with SGD. State (velocity, moments)
+ * is held in flat arrays parallel to the gradients, [layer][feeding][node * feedingSize + feedingNode]
+ * and [layer][feeding count][node] for biases, allocated once; the update of a row of weights
+ * is one pass over weights, gradients and state. Biases are to be added to layers before creating the optimizer.
+ *
+ * Call beginStep once per update, then apply for each layer; apply may run concurrently
+ * for disjoint node ranges, as ParallelTrainer does.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public abstract class Optimizer {
+
+    public final List<NodeLayer> system;
+    /** First and second state arrays, or null if not used */
+    final double[][][] first;
+    final double[][][] second;
+    /** Updates begun */
+    public long steps;
+
+    protected Optimizer(List<NodeLayer> system, int stateArrays)
+    {
+        this.system = system;
+        first = stateArrays > 0 ? state(system) : null;
+        second = stateArrays > 1 ? state(system) : null;
+    }
+
+    private static double[][][] state(List<NodeLayer> system)
+    {
+        double[][][] ret = new double[system.size()][][];
+        for(int x = 0; x < ret.length; x++)
+        {
+            NodeLayer layer = system.get(x);
+            ret[x] = new double[layer.gradientCount()][];
+            for(int k = 0; k < ret[x].length; k++)
+                ret[x][k] = new double[layer.size() * layer.gradientCols(k)];
+        }
+        return ret;
+    }
+
+    public void beginStep()
+    {
+        steps++;
+    }
+
+    /** Applies gradients of layer x to weights and biases of nodes [fromNode, toNode).
+     * @param scale gradients are multiplied by this, as 1 / rows for averaging
+     */
+    public void apply(int x, double[][] gradients, double[] learningRateCoefs, double scale, int fromNode, int toNode)
+    {
+        apply(x, gradients, learningRateCoefs, scale, fromNode, toNode, null, null, 0);
+    }
+
+    /** Applies gradients as above, and adds the squared L2 norm of the change made to weights and biases
+     * to squaredNorms[at], unless squaredNorms is null.
+     * @param previous holds each row of weights before its update; as long as the widest row of the layer
+     */
+    public void apply(int x, double[][] gradients, double[] learningRateCoefs, double scale, int fromNode, int toNode,
+            double[] previous, double[] squaredNorms, int at)
+    {
+        NodeLayer layer = system.get(x);
+        for(int k = 0; k < layer.weights.length; k++)
+        {
+            WeightMatrix w = layer.weights[k];
+            double[] s1 = first != null ? first[x][k] : null;
+            double[] s2 = second != null ? second[x][k] : null;
+            for(int i = fromNode; i < toNode; i++)
+            {
+                double[] row = w.row(i);
+                int offset = w.offset(i);
+                if (squaredNorms != null)
+                    System.arraycopy(row, offset, previous, 0, w.cols);
+                update(row, offset, gradients[k], i * w.cols, w.cols, learningRateCoefs[i], scale, s1, s2);
+                if (squaredNorms != null)
+                    squaredNorms[at] += Kernels.squaredDistance(previous, 0, row, offset, w.cols);
+                layer.resetNonFinite(row, offset, w.cols);
+            }
+        }
+        if (layer.biases != null)
+        {
+            int k = layer.weights.length;
+            double[] s1 = first != null ? first[x][k] : null;
+            double[] s2 = second != null ? second[x][k] : null;
+            for(int i = fromNode; i < toNode; i++)
+            {
+                double b = layer.biases[i];
+                updateBias(layer.biases, i, gradients[k], learningRateCoefs[i], scale, s1, s2);
+                if (squaredNorms != null)
+                    squaredNorms[at] += (layer.biases[i] - b) * (layer.biases[i] - b);
+            }
+            layer.resetNonFinite(layer.biases, fromNode, toNode - fromNode);
+        }
+    }
+
+    /** Updates length weights from wOffset with gradients g and state s1, s2 from gOffset */
+    protected abstract void update(double[] w, int wOffset, double[] g, int gOffset, int length, double rate, double scale,
+            double[] s1, double[] s2);
+
+    /** Updates bias i with gradient g[i] and state s1[i], s2[i]; as update unless overridden
+     * to leave out terms meant for weights only, as weight decay */
+    protected void updateBias(double[] b, int i, double[] g, double rate, double scale, double[] s1, double[] s2)
+    {
+        update(b, i, g, i, 1, rate, scale, s1, s2);
+    }
+
+    /** Clears state, to start training anew */
+    public void reset()
+    {
+        for(double[][][] state : new double[][][][]{ first, second })
+            if (state != null)
+                for(double[][] layer : state)
+                    for(double[] s : layer)
+                        Arrays.fill(s, 0.0);
+        steps = 0;
+    }
+
+
+    /** w += rate * g; the same as without an optimizer */
+    public static Optimizer sgd(List<NodeLayer> system)
+    {
+        return new Optimizer(system, 0) {
+            @Override
+            protected void update(double[] w, int wOffset, double[] g, int gOffset, int length, double rate, double scale,
+                    double[] s1, double[] s2)
+            {
+                Kernels.axpy(rate * scale, g, gOffset, w, wOffset, length);
+            }
+        };
+    }
+
+    /** v = momentum * v + g; w += rate * v (Polyak [1964]) */
+    public static Optimizer momentum(List<NodeLayer> system, final double momentum)
+    {
+        return new Optimizer(system, 1) {
+            @Override
+            protected void update(double[] w, int wOffset, double[] g, int gOffset, int length, double rate, double scale,
+                    double[] v, double[] s2)
+            {
+                for(int j = 0; j < length; j++)
+                {
+                    double vj = momentum * v[gOffset + j] + scale * g[gOffset + j];
+                    v[gOffset + j] = vj;
+                    w[wOffset + j] += rate * vj;
+                }
+            }
+        };
+    }
+
+    /** v = momentum * v + g; w += rate * (g + momentum * v), Nesterov momentum
+     * in the form of Sutskever et al. [2013] */
+    public static Optimizer nesterov(List<NodeLayer> system, final double momentum)
+    {
+        return new Optimizer(system, 1) {
+            @Override
+            protected void update(double[] w, int wOffset, double[] g, int gOffset, int length, double rate, double scale,
+                    double[] v, double[] s2)
+            {
+                for(int j = 0; j < length; j++)
+                {
+                    double gj = scale * g[gOffset + j];
+                    double vj = momentum * v[gOffset + j] + gj;
+                    v[gOffset + j] = vj;
+                    w[wOffset + j] += rate * (gj + momentum * vj);
+                }
+            }
+        };
+    }
+
+    /** s = rho * s + (1 - rho) * g^2; w += rate * g / (sqrt(s) + epsilon) (Tieleman and Hinton [2012]) */
+    public static Optimizer rmsProp(List<NodeLayer> system, final double rho, final double epsilon)
+    {
+        return new Optimizer(system, 1) {
+            @Override
+            protected void update(double[] w, int wOffset, double[] g, int gOffset, int length, double rate, double scale,
+                    double[] s, double[] s2)
+            {
+                for(int j = 0; j < length; j++)
+                {
+                    double gj = scale * g[gOffset + j];
+                    double sj = rho * s[gOffset + j] + (1.0 - rho) * gj * gj;
+                    s[gOffset + j] = sj;
+                    w[wOffset + j] += rate * gj / (Math.sqrt(sj) + epsilon);
+                }
+            }
+        };
+    }
+
+    /** Adam (Kingma and Ba [2015]) with bias-corrected moments */
+    public static Optimizer adam(List<NodeLayer> system, double beta1, double beta2, double epsilon)
+    {
+        return adamW(system, beta1, beta2, epsilon, 0.0);
+    }
+
+    /** Adam with weight decay decoupled from the gradient (Loshchilov and Hutter [2019]):
+     * w -= rate * weightDecay * w before the Adam update. Biases are not decayed. */
+    public static Optimizer adamW(List<NodeLayer> system, final double beta1, final double beta2, final double epsilon,
+            final double weightDecay)
+    {
+        return new Optimizer(system, 2) {
+            /** Bias corrections 1 / (1 - beta^t) of the current step */
+            double c1 = 1.0 / (1.0 - beta1), c2 = 1.0 / (1.0 - beta2);
+
+            @Override
+            public void beginStep()
+            {
+                super.beginStep();
+                c1 = 1.0 / (1.0 - Math.pow(beta1, steps));
+                c2 = 1.0 / (1.0 - Math.pow(beta2, steps));
+            }
+
+            @Override
+            public void reset()
+            {
+                super.reset();
+                c1 = 1.0 / (1.0 - beta1);
+                c2 = 1.0 / (1.0 - beta2);
+            }
+
+            @Override
+            protected void update(double[] w, int wOffset, double[] g, int gOffset, int length, double rate, double scale,
+                    double[] m, double[] v)
+            {
+                update(w, wOffset, g, gOffset, length, rate, scale, m, v, 1.0 - rate * weightDecay);
+            }
+
+            @Override
+            protected void updateBias(double[] b, int i, double[] g, double rate, double scale, double[] m, double[] v)
+            {
+                update(b, i, g, i, 1, rate, scale, m, v, 1.0);
+            }
+
+            private void update(double[] w, int wOffset, double[] g, int gOffset, int length, double rate, double scale,
+                    double[] m, double[] v, double decay)
+            {
+                for(int j = 0; j < length; j++)
+                {
+                    double gj = scale * g[gOffset + j];
+                    double mj = beta1 * m[gOffset + j] + (1.0 - beta1) * gj;
+                    double vj = beta2 * v[gOffset + j] + (1.0 - beta2) * gj * gj;
+                    m[gOffset + j] = mj;
+                    v[gOffset + j] = vj;
+                    w[wOffset + j] = decay * w[wOffset + j] + rate * mj * c1 / (Math.sqrt(vj * c2) + epsilon);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,221 @@
+package oh.neural;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+
+/** Data-parallel mini-batch training.
+ *
+ * Each mini-batch is split into contiguous chunks, one per worker thread.
+ * Workers feed their chunk forward and accumulate gradients in their own Batch buffers
+ * against the same layers. Gradients are then summed in worker order and applied once,
+ * with the network's optimizer if any, both in parallel over disjoint node ranges of each layer.
+ *
+ * Given the same seed and thread count, training is deterministic:
+ * chunking and summation order depend on those alone.
+ *
+ * Mini-batches are steps reported to the network's TrainingListener, if any;
+ * times of a measured step are summed over threads, that is, in CPU time.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public class ParallelTrainer {
+
+    public final CompiledNetwork network;
+    public final int threads;
+    public final int batchSize;
+    final Batch[] workers;
+    final ExecutorService executor;
+    final Random random;
+
+    public ParallelTrainer(CompiledNetwork network, int threads, int batchSize, long seed)
+    {
+        if (threads < 1 || batchSize < 1)
+            throw new IllegalArgumentException("threads and batch size must be positive");
+        this.network = network;
+        this.threads = threads;
+        this.batchSize = batchSize;
+        this.random = new Random(seed);
+        workers = new Batch[threads];
+        for(int t = 0; t < threads; t++)
+            workers[t] = new Batch(network, (batchSize + threads - 1) / threads);
+        executor = Workers.pool(threads, "ParallelTrainer");
+    }
+
+    /** Trains one epoch over samples in an order shuffled with this trainer's random generator.
+     * @see Batch#feedForward(double[][], int, int, int[])
+     * @see Batch#accumulateGradients(double[][], int, int[])
+     */
+    public void trainEpoch(double[][] samples, int[] inputValueOffsets, int[] targetValueOffsets,
+            double[][] learningRateCoefficients)
+    {
+        double[][] order = Arrays.copyOf(samples, samples.length);
+        Workers.shuffle(order, order.length, random);
+        for(int from = 0; from < order.length; from += batchSize)
+            trainBatch(order, from, Math.min(order.length, from + batchSize),
+                    inputValueOffsets, targetValueOffsets, learningRateCoefficients);
+    }
+
+    /** Trains one epoch over a dataset in an order shuffled with this trainer's random generator;
+     * each mini-batch is copied from the dataset, which may be mapped, into buffers on heap.
+     * Input and target values are located with the dataset's input and target offsets.
+     */
+    public void trainEpoch(DDArray data, double[][] learningRateCoefficients)
+    {
+        int[] inputValueOffsets = data.inputValueOffsets(network.system);
+        int[] targetValueOffsets = data.targetValueOffsets(network.system);
+        int[] order = data.shuffle(random);
+        double[][] rows = new double[batchSize][data.columns];
+        for(int from = 0; from < order.length; from += batchSize)
+        {
+            int to = Math.min(order.length, from + batchSize);
+            data.get(order, from, to, rows);
+            trainBatch(rows, 0, to - from, inputValueOffsets, targetValueOffsets, learningRateCoefficients);
+        }
+    }
+
+    /** Trains one pass over a stream in mini-batches, chunk by chunk, while the stream reads ahead.
+     * Rows are shuffled within each chunk; the stream should hold samples in random order.
+     */
+    public void train(SampleStream stream, int[] inputValueOffsets, int[] targetValueOffsets,
+            double[][] learningRateCoefficients) throws IOException
+    {
+        for(SampleStream.Chunk chunk = stream.next(); chunk != null; chunk = stream.next())
+        {
+            double[][] rows = chunk.rows;
+            Workers.shuffle(rows, chunk.count, random);
+            for(int from = 0; from < chunk.count; from += batchSize)
+                trainBatch(rows, from, Math.min(chunk.count, from + batchSize),
+                        inputValueOffsets, targetValueOffsets, learningRateCoefficients);
+        }
+    }
+
+    /** Trains samples [from, to) as one mini-batch, applying a single weight update. */
+    public void trainBatch(final double[][] samples, int from, int to, final int[] inputValueOffsets,
+            final int[] targetValueOffsets, final double[][] learningRateCoefficients)
+    {
+        if (to - from > batchSize)
+            throw new IllegalArgumentException("batch of " + (to - from) + " rows, batch size is " + batchSize);
+        final TrainingListener l = network.listener;
+        final boolean measuring = l != null && network.sampleStep(l);
+        for(Batch batch : workers)
+            batch.measuring = measuring;
+        List<Callable<Void>> tasks = new ArrayList<>(threads);
+        for(int t = 0; t < threads; t++)
+        {
+            final Batch batch = workers[t];
+            final int chunkFrom = from + (to - from) * t / threads;
+            final int chunkTo = from + (to - from) * (t + 1) / threads;
+            tasks.add(() -> {
+                batch.feedForward(samples, chunkFrom, chunkTo, inputValueOffsets);
+                batch.accumulateGradients(samples, chunkFrom, targetValueOffsets);
+                return null;
+            });
+        }
+        Workers.invokeAll(executor, tasks);
+
+        int rows = 0;
+        for(Batch batch : workers)
+            rows += batch.gradientRows;
+        if (rows == 0)
+            return;
+        final double scale = 1.0 / rows;
+        if (network.optimizer != null)
+            network.optimizer.beginStep();
+        tasks.clear();
+        for(int t = 0; t < threads; t++)
+        {
+            final int part = t;
+            tasks.add(() -> {
+                reduceAndApply(part, scale, learningRateCoefficients, measuring);
+                return null;
+            });
+        }
+        Workers.invokeAll(executor, tasks);
+        for(Batch batch : workers)
+            batch.gradientRows = 0;
+        if (l != null)
+            report(l, rows, scale, measuring);
+    }
+
+    private void report(TrainingListener l, int rows, double scale, boolean measuring)
+    {
+        // an optimizer measures the change it made, already scaled
+        double updateScale = network.optimizer != null ? 1.0 : scale;
+        for(int x = 0; measuring && x < network.system.size(); x++)
+        {
+            long forwardNanos = 0L, backwardNanos = 0L;
+            double gradient = 0.0, update = 0.0;
+            for(Batch batch : workers)
+            {
+                forwardNanos += batch.forwardNanos[x];
+                backwardNanos += batch.backwardNanos[x];
+                gradient += batch.squaredNorms[2 * x];
+                update += batch.squaredNorms[2 * x + 1];
+            }
+            if (!network.system.get(x).feedingLayers.isEmpty())
+                l.layer(x, rows, forwardNanos, backwardNanos, Math.sqrt(gradient) * scale, 
+                        Math.sqrt(update) * updateScale);
+        }
+        if (measuring)
+            for(Batch batch : workers)
+            {
+                Arrays.fill(batch.forwardNanos, 0L);
+                Arrays.fill(batch.backwardNanos, 0L);
+                Arrays.fill(batch.squaredNorms, 0.0);
+            }
+        l.trained(rows);
+    }
+
+    private void reduceAndApply(int part, double scale, double[][] learningRateCoefficients, boolean measuring)
+    {
+        double[][][] sum = workers[0].gradients;
+        Batch own = workers[part];
+        for(int x = 0; x < network.system.size(); x++)
+        {
+            NodeLayer layer = network.system.get(x);
+            long t = measuring ? System.nanoTime() : 0L;
+            int fromNode = layer.size() * part / threads;
+            int toNode = layer.size() * (part + 1) / threads;
+            for(int k = 0; k < layer.gradientCount(); k++)
+            {
+                int cols = layer.gradientCols(k);
+                int fromIndex = fromNode * cols;
+                int toIndex = toNode * cols;
+                double[] g = sum[x][k];
+                for(int w = 1; w < workers.length; w++)
+                {
+                    double[] gw = workers[w].gradients[x][k];
+                    for(int i = fromIndex; i < toIndex; i++)
+                        g[i] += gw[i];
+                    Arrays.fill(gw, fromIndex, toIndex, 0.0);
+                }
+            }
+            Optimizer optimizer = network.optimizer;
+            if (measuring)
+                CompiledNetwork.addSquaredNorms(layer, sum[x], optimizer != null ? null : learningRateCoefficients[x], 
+                        fromNode, toNode, own.squaredNorms, 2 * x);
+            if (optimizer != null && measuring)
+                optimizer.apply(x, sum[x], learningRateCoefficients[x], scale, fromNode, toNode, 
+                        own.previousWeights, own.squaredNorms, 2 * x + 1);
+            else if (optimizer != null)
+                optimizer.apply(x, sum[x], learningRateCoefficients[x], scale, fromNode, toNode);
+            else
+                layer.applyGradients(sum[x], learningRateCoefficients[x], scale, fromNode, toNode);
+            for(int k = 0; k < layer.gradientCount(); k++)
+                Arrays.fill(sum[x][k], fromNode * layer.gradientCols(k), toNode * layer.gradientCols(k), 0.0);
+            if (measuring)
+                own.backwardNanos[x] += System.nanoTime() - t;
+        }
+    }
+
+    public void shutdown()
+    {
+        executor.shutdown();
+    }
+}
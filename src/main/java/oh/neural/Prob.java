@@ -1,22 +1,68 @@
 package oh.neural;
 
-/**
+/** Bulk fills of arrays with random values; the index range is [startIndex, endIndex], inclusive.
+ * Without an Rng, the calling thread's Rng.current() is used.
  *
  * @author Paavo Toivanen https://github.com/pvto
  */
 public class Prob {
 
-    
+    /** Normal values further than this many standard deviations from the mean are redrawn
+     * by fillFromTruncatedN */
+    public static final double TRUNCATION = 2.0;
+
     public static void fillFromU(double[] A, double lowInclusive, double highExclusive)
     {
         fillFromU(A, lowInclusive, highExclusive, 0, A.length - 1);
     }
-    
-    
+
+
     public static void fillFromU(double[] A, double lowInclusive, double highExclusive, int startIndex, int endIndex)
     {
+        fillFromU(Rng.current(), A, lowInclusive, highExclusive, startIndex, endIndex);
+    }
+
+    public static void fillFromU(Rng random, double[] A, double lowInclusive, double highExclusive,
+            int startIndex, int endIndex)
+    {
+        double range = highExclusive - lowInclusive;
         for(int i = startIndex; i <= endIndex; i++)
-            A[i] = Math.random() * (highExclusive - lowInclusive) + lowInclusive;
+            A[i] = random.nextDouble() * range + lowInclusive;
+    }
+
+    public static void fillFromN(double[] A, double mean, double sd)
+    {
+        fillFromN(Rng.current(), A, mean, sd, 0, A.length - 1);
     }
 
+    /** Normal values, two per pair of uniform values by the Box-Muller transform */
+    public static void fillFromN(Rng random, double[] A, double mean, double sd, int startIndex, int endIndex)
+    {
+        for(int i = startIndex; i <= endIndex; i += 2)
+        {
+            double r = sd * Math.sqrt(-2.0 * Math.log(1.0 - random.nextDouble()));
+            double theta = 2.0 * Math.PI * random.nextDouble();
+            A[i] = mean + r * Math.cos(theta);
+            if (i < endIndex)
+                A[i + 1] = mean + r * Math.sin(theta);
+        }
+    }
+
+    public static void fillFromTruncatedN(double[] A, double mean, double sd)
+    {
+        fillFromTruncatedN(Rng.current(), A, mean, sd, 0, A.length - 1);
+    }
+
+    /** Normal values within TRUNCATION standard deviations of the mean; about one value in 22 is redrawn */
+    public static void fillFromTruncatedN(Rng random, double[] A, double mean, double sd, int startIndex, int endIndex)
+    {
+        fillFromN(random, A, 0.0, 1.0, startIndex, endIndex);
+        for(int i = startIndex; i <= endIndex; i++)
+        {
+            double z = A[i];
+            while(Math.abs(z) > TRUNCATION)
+                z = random.nextGaussian();
+            A[i] = mean + sd * z;
+        }
+    }
 }
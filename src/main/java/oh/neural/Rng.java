@@ -0,0 +1,145 @@
+package oh.neural;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** A pseudo-random generator, for weight initialization and sampling; see Prob for bulk fills.
+ *
+ * Generators are not thread-safe; split() gives an independent generator for another thread,
+ * and current() a generator of the calling thread's own, which never contends
+ * as Math.random() does. Given a seed, xoroshiro and splittable give the same sequence on every run.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public abstract class Rng {
+
+    private static final AtomicLong SEEDS = new AtomicLong(System.nanoTime());
+    private static final ThreadLocal<Rng> CURRENT = new ThreadLocal<Rng>() {
+        @Override
+        protected Rng initialValue()
+        {
+            return xoroshiro(SEEDS.getAndAdd(GOLDEN_GAMMA));
+        }
+    };
+    static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    /** 64 random bits */
+    public abstract long nextLong();
+
+    /** A new generator, statistically independent of this one, which advances this one */
+    public abstract Rng split();
+
+    /** Uniform in [0, 1), in steps of 2^-53 */
+    public double nextDouble()
+    {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /** Uniform in [0, bound), without bias (Lemire [2019]) */
+    public int nextInt(int bound)
+    {
+        if (bound <= 0)
+            throw new IllegalArgumentException("bound must be positive");
+        long m = (nextLong() >>> 32) * bound;
+        if ((m & 0xFFFFFFFFL) < bound)
+        {
+            long threshold = (0x100000000L - bound) % bound;
+            while((m & 0xFFFFFFFFL) < threshold)
+                m = (nextLong() >>> 32) * bound;
+        }
+        return (int)(m >>> 32);
+    }
+
+    /** Standard normal, by the Box-Muller transform */
+    public double nextGaussian()
+    {
+        double r = Math.sqrt(-2.0 * Math.log(1.0 - nextDouble()));
+        return r * Math.cos(2.0 * Math.PI * nextDouble());
+    }
+
+    /** Generator of the calling thread, seeded once per thread from a global sequence */
+    public static Rng current()
+    {
+        return CURRENT.get();
+    }
+
+    /** xoroshiro128++ (Blackman and Vigna [2019]), state seeded with SplitMix64 */
+    public static Rng xoroshiro(long seed)
+    {
+        long s0 = splitMix64(seed);
+        long s1 = splitMix64(seed + GOLDEN_GAMMA);
+        return new Xoroshiro(s0, s1 == 0L && s0 == 0L ? GOLDEN_GAMMA : s1);
+    }
+
+    /** java.util.SplittableRandom as an Rng */
+    public static Rng splittable(long seed)
+    {
+        return new Splittable(new SplittableRandom(seed));
+    }
+
+    /** SplitMix64 (Steele et al. [2014]) output for a state */
+    static long splitMix64(long state)
+    {
+        long z = state + GOLDEN_GAMMA;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    static final class Xoroshiro extends Rng
+    {
+        long s0;
+        long s1;
+
+        Xoroshiro(long s0, long s1)
+        {
+            this.s0 = s0;
+            this.s1 = s1;
+        }
+
+        @Override
+        public long nextLong()
+        {
+            long a = s0, b = s1;
+            long result = Long.rotateLeft(a + b, 17) + a;
+            b ^= a;
+            s0 = Long.rotateLeft(a, 49) ^ b ^ (b << 21);
+            s1 = Long.rotateLeft(b, 28);
+            return result;
+        }
+
+        @Override
+        public Rng split()
+        {
+            return xoroshiro(nextLong());
+        }
+    }
+
+    static final class Splittable extends Rng
+    {
+        final SplittableRandom random;
+
+        Splittable(SplittableRandom random)
+        {
+            this.random = random;
+        }
+
+        @Override
+        public long nextLong()
+        {
+            return random.nextLong();
+        }
+
+        @Override
+        public double nextDouble()
+        {
+            return random.nextDouble();
+        }
+
+        @Override
+        public Rng split()
+        {
+            return new Splittable(random.split());
+        }
+    }
+}
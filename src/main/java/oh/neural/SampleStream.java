@@ -0,0 +1,316 @@
+package oh.neural;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/** One pass over samples in a file, read in chunks of rows by a background thread.
+ *
+ * Two chunks are in use: while the caller trains on one, the reader fills the other,
+ * so that file I/O and parsing overlap with computation. Chunk rows are allocated once
+ * and reused; a chunk returned by next() is valid until the following call to next().
+ *
+ * Binary files hold rows of little-endian doubles, columns per row, as written by writeBinary.
+ * CSV files hold one row per line, values separated by commas, without a header line.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public final class SampleStream implements AutoCloseable {
+
+    /** Rows [0, count) of a chunk hold samples */
+    public static final class Chunk
+    {
+        public final double[][] rows;
+        public int count;
+
+        Chunk(int rows, int columns)
+        {
+            this.rows = new double[rows][columns];
+        }
+    }
+
+    public final int columns;
+    public final int chunkRows;
+    final FileChannel channel;
+    final boolean csv;
+    final ByteBuffer buffer;
+    private final BlockingQueue<Chunk> free = new ArrayBlockingQueue<>(2);
+    private final BlockingQueue<Chunk> ready = new ArrayBlockingQueue<>(3);
+    private static final Chunk END = new Chunk(0, 0);
+    private final Thread reader;
+    private volatile IOException error;
+    private Chunk current;
+    /** Number of the line being parsed, for error messages */
+    private long line = 1;
+    private byte[] token = new byte[64];
+
+    public static SampleStream binary(Path path, int columns, int chunkRows) throws IOException
+    {
+        return new SampleStream(path, columns, chunkRows, false);
+    }
+
+    public static SampleStream csv(Path path, int columns, int chunkRows) throws IOException
+    {
+        return new SampleStream(path, columns, chunkRows, true);
+    }
+
+    SampleStream(Path path, int columns, int chunkRows, boolean csv) throws IOException
+    {
+        if (columns < 1 || chunkRows < 1)
+            throw new IllegalArgumentException("columns and chunk rows must be positive");
+        this.columns = columns;
+        this.chunkRows = chunkRows;
+        this.csv = csv;
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        buffer = ByteBuffer.allocateDirect(csv ? 1 << 16 : chunkRows * columns * 8).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.limit(0);
+        free.add(new Chunk(chunkRows, columns));
+        free.add(new Chunk(chunkRows, columns));
+        reader = new Thread(this::read, "SampleStream " + path.getFileName());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /** Next chunk of samples, or null at end of file.
+     * Releases the chunk returned before to the reader.
+     * @throws IOException if reading or parsing failed, also when the reader thread failed otherwise
+     */
+    public Chunk next() throws IOException
+    {
+        if (current != null)
+        {
+            free.add(current);
+            current = null;
+        }
+        Chunk c;
+        try {
+            c = ready.take();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for samples");
+        }
+        if (c == END)
+        {
+            ready.add(END);
+            if (error != null)
+                throw error;
+            return null;
+        }
+        return current = c;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        reader.interrupt();
+        try {
+            reader.join();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private void read()
+    {
+        try {
+            for(;;)
+            {
+                Chunk c = free.take();
+                c.count = csv ? readCsv(c) : readBinary(c);
+                if (c.count == 0)
+                    break;
+                ready.put(c);
+                if (c.count < chunkRows)
+                    break;
+            }
+        } catch(IOException e) {
+            error = e;
+        } catch(InterruptedException e) {
+            // closed
+        } catch(RuntimeException | Error e) {
+            error = new IOException("reading samples failed: " + e, e);
+        } finally {
+            // at most two chunks are ready, so END always fits
+            ready.offer(END);
+        }
+    }
+
+    private int readBinary(Chunk c) throws IOException
+    {
+        buffer.clear();
+        while(buffer.hasRemaining() && channel.read(buffer) >= 0);
+        buffer.flip();
+        int rowBytes = columns * 8;
+        if (buffer.remaining() % rowBytes != 0)
+            throw new IOException("truncated row at end of file, " + buffer.remaining() % rowBytes + " bytes");
+        DoubleBuffer doubles = buffer.asDoubleBuffer();
+        int count = buffer.remaining() / rowBytes;
+        for(int r = 0; r < count; r++)
+            doubles.get(c.rows[r]);
+        return count;
+    }
+
+    private int readCsv(Chunk c) throws IOException
+    {
+        int count = 0;
+        while(count < chunkRows)
+        {
+            int b = peek();
+            while(b == '\n' || b == '\r')
+            {
+                if (b == '\n')
+                    line++;
+                buffer.get();
+                b = peek();
+            }
+            if (b < 0)
+                break;
+            double[] row = c.rows[count];
+            for(int j = 0; j < columns; j++)
+            {
+                row[j] = parseValue();
+                b = peek();
+                if (j < columns - 1 ? b != ',' : (b >= 0 && b != '\n' && b != '\r'))
+                    throw new IOException("line " + line + ": expected " + columns + " values");
+                if (b >= 0)
+                    buffer.get();
+                if (b == '\n')
+                    line++;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /** Next byte without consuming it, or -1 at end of file */
+    private int peek() throws IOException
+    {
+        if (!buffer.hasRemaining())
+        {
+            buffer.clear();
+            int n;
+            while((n = channel.read(buffer)) == 0);
+            buffer.flip();
+            if (n < 0)
+                return -1;
+        }
+        return buffer.get(buffer.position()) & 0xFF;
+    }
+
+    private double parseValue() throws IOException
+    {
+        int length = 0;
+        for(int b = peek(); b >= 0 && b != ',' && b != '\n' && b != '\r'; b = peek())
+        {
+            if (length == token.length)
+                token = Arrays.copyOf(token, 2 * length);
+            token[length++] = buffer.get();
+        }
+        while(length > 0 && token[length - 1] == ' ')
+            length--;
+        int start = 0;
+        while(start < length && token[start] == ' ')
+            start++;
+        try {
+            return parseDouble(token, start, length);
+        } catch(NumberFormatException e) {
+            throw new IOException("line " + line + ": " + e.getMessage());
+        }
+    }
+
+    /** Exact powers of ten, see parseDouble */
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    /** Parses a decimal number from ASCII bytes [from, to) as Double.parseDouble would.
+     * With at most 15 significant digits and a decimal exponent within 22, the digits and
+     * the power of ten are exact doubles, so one multiplication or division rounds correctly;
+     * other numbers are given to Double.parseDouble.
+     */
+    static double parseDouble(byte[] s, int from, int to)
+    {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (s[i] == '-' || s[i] == '+'))
+            negative = s[i++] == '-';
+        long mantissa = 0;
+        int digits = 0, exponent = 0;
+        boolean any = false;
+        for(; i < to && s[i] >= '0' && s[i] <= '9'; i++, any = true)
+            if (digits > 0 || s[i] != '0')
+            {
+                mantissa = mantissa * 10 + (s[i] - '0');
+                if (++digits > 15)
+                    return Double.parseDouble(new String(s, from, to - from, StandardCharsets.ISO_8859_1));
+            }
+        if (i < to && s[i] == '.')
+            for(i++; i < to && s[i] >= '0' && s[i] <= '9'; i++, any = true)
+            {
+                if (digits > 0 || s[i] != '0')
+                {
+                    mantissa = mantissa * 10 + (s[i] - '0');
+                    if (++digits > 15)
+                        return Double.parseDouble(new String(s, from, to - from, StandardCharsets.ISO_8859_1));
+                }
+                exponent--;
+            }
+        if (any && i < to && (s[i] == 'e' || s[i] == 'E'))
+        {
+            int j = i + 1;
+            boolean negativeExponent = false;
+            if (j < to && (s[j] == '-' || s[j] == '+'))
+                negativeExponent = s[j++] == '-';
+            int e = 0;
+            if (j == to)
+                any = false;
+            for(; j < to && s[j] >= '0' && s[j] <= '9'; j++)
+                e = Math.min(10000, e * 10 + (s[j] - '0'));
+            exponent += negativeExponent ? -e : e;
+            i = j;
+        }
+        if (!any || i != to || exponent < -22 || exponent > 22)
+            return Double.parseDouble(new String(s, from, to - from, StandardCharsets.ISO_8859_1));
+        double value = exponent < 0 ?
+                mantissa / POWERS_OF_TEN[-exponent] :
+                mantissa * POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
+    }
+
+    /** Writes samples as rows of little-endian doubles, for binary() */
+    public static void writeBinary(double[][] samples, Path path) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+        {
+            ByteBuffer block = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            DoubleBuffer doubles = block.asDoubleBuffer();
+            for(double[] sample : samples)
+            {
+                if (doubles.remaining() < sample.length)
+                {
+                    block.clear().limit(doubles.position() * 8);
+                    while(block.hasRemaining())
+                        channel.write(block);
+                    doubles.clear();
+                }
+                if (sample.length > doubles.capacity())
+                    throw new IllegalArgumentException("sample of " + sample.length + " values");
+                doubles.put(sample);
+            }
+            block.clear().limit(doubles.position() * 8);
+            while(block.hasRemaining())
+                channel.write(block);
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package oh.neural;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Batch scoring: predictions of a Model for every row of a SampleStream, written to an Output.
+ *
+ * Each chunk of rows is split into contiguous parts, one per thread, each thread
+ * with a workspace of its own. Results of a chunk are written by a writer thread
+ * while the next chunk is scored, and the stream reads ahead meanwhile,
+ * so reading, scoring and writing overlap. Output rows are in input order.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public final class Scoring implements AutoCloseable {
+
+    public final Model model;
+    public final int threads;
+    final Model.Workspace[] workspaces;
+    final double[][] inputs;
+    final double[][] outputs;
+    final ExecutorService executor;
+    final ExecutorService writer;
+
+    public Scoring(Model model, int threads)
+    {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be positive");
+        this.model = model;
+        this.threads = threads;
+        workspaces = new Model.Workspace[threads];
+        inputs = new double[threads][model.inputSize];
+        outputs = new double[threads][model.outputSize];
+        for(int t = 0; t < threads; t++)
+            workspaces[t] = model.newWorkspace();
+        executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "Scoring");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "Scoring writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Rows scored and time taken */
+    public static final class Report
+    {
+        public final long rows;
+        public final long nanos;
+
+        Report(long rows, long nanos)
+        {
+            this.rows = rows;
+            this.nanos = nanos;
+        }
+
+        public double rowsPerSecond()
+        {
+            return rows * 1e9 / Math.max(1L, nanos);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format(Locale.ROOT, "%d rows in %.3f s, %.0f rows/s", rows, nanos / 1e9, rowsPerSecond());
+        }
+    }
+
+    /** Scores all rows of a stream.
+     * @param inputOffset offset of model input values in a row
+     * @param out receives outputSize values per row; not closed here
+     */
+    public Report score(SampleStream in, int inputOffset, Output out) throws IOException
+    {
+        long start = System.nanoTime();
+        long rows = 0;
+        int chunks = 0;
+        double[][] results = { new double[in.chunkRows * model.outputSize], new double[in.chunkRows * model.outputSize] };
+        Future<Void> written = null;
+        List<Callable<Void>> tasks = new ArrayList<>(threads);
+        for(SampleStream.Chunk chunk = in.next(); chunk != null; chunk = in.next())
+        {
+            final double[] result = results[chunks++ & 1];
+            final double[][] samples = chunk.rows;
+            final int count = chunk.count;
+            // the writer may still write the other buffer, never this one
+            tasks.clear();
+            for(int t = 0; t < threads; t++)
+            {
+                final int part = t, from = count * t / threads, to = count * (t + 1) / threads;
+                tasks.add(() -> {
+                    score(part, samples, from, to, inputOffset, result);
+                    return null;
+                });
+            }
+            invokeAll(executor, tasks);
+            await(written);
+            written = writer.submit(() -> {
+                out.write(result, count, model.outputSize);
+                return null;
+            });
+            rows += count;
+        }
+        await(written);
+        out.flush();
+        return new Report(rows, System.nanoTime() - start);
+    }
+
+    private void score(int part, double[][] samples, int from, int to, int inputOffset, double[] result)
+    {
+        Model.Workspace ws = workspaces[part];
+        double[] in = inputs[part];
+        double[] out = outputs[part];
+        for(int r = from; r < to; r++)
+        {
+            double[] sample = samples[r];
+            if (inputOffset != 0)
+                System.arraycopy(sample, inputOffset, in, 0, in.length);
+            model.predict(inputOffset != 0 ? in : sample, out, ws);
+            System.arraycopy(out, 0, result, r * out.length, out.length);
+        }
+    }
+
+    private static void invokeAll(ExecutorService executor, List<Callable<Void>> tasks) throws IOException
+    {
+        try {
+            for(Future<Void> f : executor.invokeAll(tasks))
+                f.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while scoring", e);
+        } catch(ExecutionException e) {
+            rethrow(e);
+        }
+    }
+
+    private static void await(Future<Void> f) throws IOException
+    {
+        if (f == null)
+            return;
+        try {
+            f.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while scoring", e);
+        } catch(ExecutionException e) {
+            rethrow(e);
+        }
+    }
+
+    private static void rethrow(ExecutionException e) throws IOException
+    {
+        if (e.getCause() instanceof IOException)
+            throw (IOException)e.getCause();
+        if (e.getCause() instanceof RuntimeException)
+            throw (RuntimeException)e.getCause();
+        throw new IllegalStateException(e.getCause());
+    }
+
+    @Override
+    public void close()
+    {
+        executor.shutdown();
+        writer.shutdown();
+    }
+
+
+    /** Destination of results, written from one thread at a time */
+    public static abstract class Output implements AutoCloseable
+    {
+        /** Writes rows of columns values from values[0], row-major */
+        public abstract void write(double[] values, int rows, int columns) throws IOException;
+
+        public abstract void flush() throws IOException;
+
+        @Override
+        public abstract void close() throws IOException;
+
+        /** Rows of little-endian doubles, readable with SampleStream.binary */
+        public static Output binary(Path path) throws IOException
+        {
+            return new Binary(path);
+        }
+
+        /** Lines of comma separated values with given number of decimals; see format
+         * @throws IllegalArgumentException if decimals is over MAX_DECIMALS */
+        public static Output csv(Path path, int decimals) throws IOException
+        {
+            return new Csv(path, decimals);
+        }
+    }
+
+    static final class Binary extends Output
+    {
+        final FileChannel channel;
+        final ByteBuffer block = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        final DoubleBuffer doubles = block.asDoubleBuffer();
+
+        Binary(Path path) throws IOException
+        {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        }
+
+        @Override
+        public void write(double[] values, int rows, int columns) throws IOException
+        {
+            for(int i = 0; i < rows * columns; )
+            {
+                if (!doubles.hasRemaining())
+                    flush();
+                int count = Math.min(doubles.remaining(), rows * columns - i);
+                doubles.put(values, i, count);
+                i += count;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            block.clear().limit(doubles.position() * 8);
+            while(block.hasRemaining())
+                channel.write(block);
+            doubles.clear();
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /** Most decimals of Output.csv; a value then takes at most 351 bytes: 309 digits of Double.MAX_VALUE
+     * with sign, point and decimals */
+    public static final int MAX_DECIMALS = 40;
+
+    static final class Csv extends Output
+    {
+        /** Room left in bytes for one formatted value and its separator */
+        static final int VALUE_BYTES = 400;
+        final FileChannel channel;
+        final int decimals;
+        final byte[] bytes = new byte[1 << 16];
+        final ByteBuffer block = ByteBuffer.wrap(bytes);
+        int length;
+
+        Csv(Path path, int decimals) throws IOException
+        {
+            if (decimals > MAX_DECIMALS)
+                throw new IllegalArgumentException(decimals + " decimals, at most " + MAX_DECIMALS);
+            this.decimals = decimals;
+            channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        }
+
+        @Override
+        public void write(double[] values, int rows, int columns) throws IOException
+        {
+            for(int r = 0; r < rows; r++)
+                for(int j = 0; j < columns; j++)
+                {
+                    if (length > bytes.length - VALUE_BYTES)
+                        flush();
+                    length = format(values[r * columns + j], decimals, bytes, length);
+                    bytes[length++] = (byte)(j < columns - 1 ? ',' : '\n');
+                }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            block.clear().limit(length);
+            while(block.hasRemaining())
+                channel.write(block);
+            length = 0;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private static final long[] POWERS_OF_TEN = {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L,
+        10000000000L, 100000000000L, 1000000000000L, 10000000000000L, 100000000000000L };
+
+    /** Writes v with given number of decimals as ASCII to out at pos, like String.format("%.3f")
+     * for 3 decimals, and returns the position after it. v is rounded half up in binary,
+     * so a value within rounding error of a tie may end in a different last digit than with
+     * String.format. Decimals below zero give Double.toString, the shortest exact form;
+     * NaN, infinities and values of 2^53 or more units of the last decimal also go through String.
+     */
+    public static int format(double v, int decimals, byte[] out, int pos)
+    {
+        double scaled = decimals >= 0 && decimals < POWERS_OF_TEN.length ? Math.abs(v) * POWERS_OF_TEN[decimals] : Double.NaN;
+        if (!(scaled < 9007199254740992.0))
+        {
+            String s = decimals < 0 ? Double.toString(v) : String.format(Locale.ROOT, "%." + decimals + "f", v);
+            byte[] b = s.getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(b, 0, out, pos, b.length);
+            return pos + b.length;
+        }
+        long units = (long)(scaled + 0.5);
+        if (Double.doubleToRawLongBits(v) < 0)
+            out[pos++] = '-';
+        long integer = units / POWERS_OF_TEN[decimals];
+        long fraction = units - integer * POWERS_OF_TEN[decimals];
+        int digits = 1;
+        for(long i = integer; i >= 10; i /= 10)
+            digits++;
+        for(int k = digits - 1; k >= 0; k--, integer /= 10)
+            out[pos + k] = (byte)('0' + integer % 10);
+        pos += digits;
+        if (decimals == 0)
+            return pos;
+        out[pos++] = '.';
+        for(int k = decimals - 1; k >= 0; k--, fraction /= 10)
+            out[pos + k] = (byte)('0' + fraction % 10);
+        return pos + decimals;
+    }
+}
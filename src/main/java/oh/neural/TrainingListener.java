@@ -0,0 +1,33 @@
+package oh.neural;
+
+/** Receives measurements of training; set as CompiledNetwork.listener, or null for none.
+ *
+ * Every training step (a weight update, of one sample or a mini-batch) is counted with trained.
+ * Every sampleInterval()'th step is also timed layer by layer and reported with layer,
+ * once per trainable layer, before trained. Steps in between cost one counter increment,
+ * so the interval trades detail for overhead.
+ *
+ * Steps are reported from the training thread, or from concurrent threads with HogwildTrainer.
+ * @see TrainingMetrics
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public interface TrainingListener {
+
+    /** Every how many steps a step is measured; 1 measures every step */
+    int sampleInterval();
+
+    /** Measurements of a trainable layer in a measured step.
+     * @param layerIndex index of the layer in system
+     * @param rows rows of the step
+     * @param forwardNanos time of feeding the layer forward
+     * @param backwardNanos time of computing the layer's error terms, gradients and weight update
+     * @param gradientNorm L2 norm of the layer's weight gradient, averaged over rows
+     * @param updateNorm L2 norm of the change in the layer's weights: gradient times learning rate coefficients,
+     * or with an Optimizer, the change it made
+     */
+    void layer(int layerIndex, int rows, long forwardNanos, long backwardNanos, double gradientNorm, double updateNorm);
+
+    /** A step of given rows was trained */
+    void trained(int rows);
+}
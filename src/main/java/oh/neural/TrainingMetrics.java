@@ -0,0 +1,228 @@
+package oh.neural;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+
+/** A TrainingListener that aggregates measurements for reading while training runs,
+ * directly or as an MXBean registered with register:
+ * <pre>
+ * network.listener = new TrainingMetrics(network.system, 100).register("my-network");
+ * </pre>
+ * Steps are counted with an adder, so concurrent trainers do not contend;
+ * measured steps, one in sampleInterval, are aggregated under a lock.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public final class TrainingMetrics implements TrainingListener, TrainingMetricsMXBean {
+
+    public final List<NodeLayer> system;
+    public final int sampleInterval;
+    final LongAdder rows = new LongAdder();
+    final LongAdder steps = new LongAdder();
+    /** [layer] sums over measured steps */
+    final long[] measuredRows;
+    final long[] forwardNanos;
+    final long[] backwardNanos;
+    /** [layer] last measured */
+    final double[] gradientNorms;
+    final double[] updateNorms;
+    long startNanos;
+    long startAllocated;
+    ObjectName name;
+
+    public TrainingMetrics(List<NodeLayer> system, int sampleInterval)
+    {
+        if (sampleInterval < 1)
+            throw new IllegalArgumentException("sample interval must be positive");
+        this.system = system;
+        this.sampleInterval = sampleInterval;
+        int L = system.size();
+        measuredRows = new long[L];
+        forwardNanos = new long[L];
+        backwardNanos = new long[L];
+        gradientNorms = new double[L];
+        updateNorms = new double[L];
+        reset();
+    }
+
+    @Override
+    public int sampleInterval()
+    {
+        return sampleInterval;
+    }
+
+    @Override
+    public synchronized void layer(int layerIndex, int rows, long forwardNanos, long backwardNanos,
+            double gradientNorm, double updateNorm)
+    {
+        measuredRows[layerIndex] += rows;
+        this.forwardNanos[layerIndex] += forwardNanos;
+        this.backwardNanos[layerIndex] += backwardNanos;
+        gradientNorms[layerIndex] = gradientNorm;
+        updateNorms[layerIndex] = updateNorm;
+    }
+
+    @Override
+    public void trained(int rows)
+    {
+        this.rows.add(rows);
+        steps.increment();
+    }
+
+    @Override
+    public long getRows()
+    {
+        return rows.sum();
+    }
+
+    @Override
+    public long getSteps()
+    {
+        return steps.sum();
+    }
+
+    @Override
+    public synchronized double getSeconds()
+    {
+        return (System.nanoTime() - startNanos) / 1e9;
+    }
+
+    @Override
+    public double getSamplesPerSecond()
+    {
+        return getRows() / Math.max(1e-9, getSeconds());
+    }
+
+    @Override
+    public synchronized double[] getForwardNanosPerRow()
+    {
+        return perRow(forwardNanos);
+    }
+
+    @Override
+    public synchronized double[] getBackwardNanosPerRow()
+    {
+        return perRow(backwardNanos);
+    }
+
+    private double[] perRow(long[] nanos)
+    {
+        double[] ret = new double[nanos.length];
+        for(int x = 0; x < ret.length; x++)
+            ret[x] = measuredRows[x] == 0 ? Double.NaN : (double)nanos[x] / measuredRows[x];
+        return ret;
+    }
+
+    @Override
+    public synchronized double[] getGradientNorms()
+    {
+        return gradientNorms.clone();
+    }
+
+    @Override
+    public synchronized double[] getUpdateNorms()
+    {
+        return updateNorms.clone();
+    }
+
+    @Override
+    public long[] getNonFiniteResets()
+    {
+        long[] ret = new long[system.size()];
+        for(int x = 0; x < ret.length; x++)
+            ret[x] = system.get(x).nonFiniteResets.get();
+        return ret;
+    }
+
+    @Override
+    public synchronized double getAllocatedBytesPerSecond()
+    {
+        long allocated = allocatedBytes();
+        if (allocated < 0 || startAllocated < 0)
+            return Double.NaN;
+        return Math.max(0L, allocated - startAllocated) / Math.max(1e-9, getSeconds());
+    }
+
+    /** Bytes allocated by live threads, or -1 if not supported by the JVM */
+    static long allocatedBytes()
+    {
+        try {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (!(threads instanceof com.sun.management.ThreadMXBean))
+                return -1L;
+            com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean)threads;
+            if (!hotspot.isThreadAllocatedMemorySupported() || !hotspot.isThreadAllocatedMemoryEnabled())
+                return -1L;
+            long sum = 0L;
+            for(long bytes : hotspot.getThreadAllocatedBytes(threads.getAllThreadIds()))
+                sum += Math.max(0L, bytes);
+            return sum;
+        } catch(LinkageError e) {
+            return -1L;
+        }
+    }
+
+    /** Clears measurements and restarts rates; non-finite reset counts are kept by the layers */
+    @Override
+    public synchronized void reset()
+    {
+        rows.reset();
+        steps.reset();
+        Arrays.fill(measuredRows, 0L);
+        Arrays.fill(forwardNanos, 0L);
+        Arrays.fill(backwardNanos, 0L);
+        Arrays.fill(gradientNorms, Double.NaN);
+        Arrays.fill(updateNorms, Double.NaN);
+        startNanos = System.nanoTime();
+        startAllocated = allocatedBytes();
+    }
+
+    /** Registers this with the platform MBean server as oh.neural:type=TrainingMetrics,name=name */
+    public synchronized TrainingMetrics register(String name)
+    {
+        try {
+            ObjectName objectName = ObjectName.getInstance("oh.neural:type=TrainingMetrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.name = objectName;
+            return this;
+        } catch(JMException e) {
+            throw new IllegalStateException("cannot register training metrics " + name, e);
+        }
+    }
+
+    public synchronized void unregister()
+    {
+        if (name == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch(JMException e) {
+            throw new IllegalStateException("cannot unregister training metrics " + name, e);
+        } finally {
+            name = null;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder b = new StringBuilder(String.format(Locale.ROOT, "%d rows in %d steps, %.0f rows/s",
+                getRows(), getSteps(), getSamplesPerSecond()));
+        double[] forward = getForwardNanosPerRow(), backward = getBackwardNanosPerRow();
+        double[] gradients = getGradientNorms(), updates = getUpdateNorms();
+        long[] resets = getNonFiniteResets();
+        for(int x = 0; x < forward.length; x++)
+            if (!system.get(x).feedingLayers.isEmpty())
+                b.append(String.format(Locale.ROOT, 
+                        "%nlayer %d: forward %.0f ns/row, backward %.0f ns/row, |gradient| %.4g, |update| %.4g, %d resets",
+                        x, forward[x], backward[x], gradients[x], updates[x], resets[x]));
+        return b.toString();
+    }
+}
@@ -0,0 +1,37 @@
+package oh.neural;
+
+/** Attributes of TrainingMetrics exported over JMX; rates and averages are over the time
+ * since creation or the last reset. Arrays are indexed as layers in system.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public interface TrainingMetricsMXBean {
+
+    long getRows();
+
+    long getSteps();
+
+    double getSeconds();
+
+    double getSamplesPerSecond();
+
+    /** Average time of feeding a layer forward per row, in measured steps; NaN before any */
+    double[] getForwardNanosPerRow();
+
+    /** Average time of a layer's error terms, gradients and weight update per row, in measured steps */
+    double[] getBackwardNanosPerRow();
+
+    /** Gradient norms of the last measured step */
+    double[] getGradientNorms();
+
+    /** Weight update norms of the last measured step */
+    double[] getUpdateNorms();
+
+    /** NaN or infinite weights reset by weight updates, per layer, since the layers were created */
+    long[] getNonFiniteResets();
+
+    /** Bytes allocated per second by all live threads of the JVM, or NaN if not supported */
+    double getAllocatedBytesPerSecond();
+
+    void reset();
+}
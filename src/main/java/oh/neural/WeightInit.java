@@ -0,0 +1,131 @@
+package oh.neural;
+
+import java.util.stream.IntStream;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+
+/** A scheme for initial weights of a layer, from one of its feeding layers; see NodeLayer.weightInit.
+ *
+ * Weights are filled in blocks of whole rows, about BLOCK values each, in parallel on the common
+ * fork-join pool. Block b draws from a generator seeded with the seed and b alone, so weights
+ * depend on the seed only, not on the number of threads.
+ *
+ * Fan-in of a node counts the nodes of all its feeding layers at the time of init. NodeLayer.addFeedingLayer
+ * initializes only the new connection, so with several feeding layers, earlier connections are scaled
+ * by a smaller fan-in unless all are reset after the last is added; see NodeLayer.addFeedingLayer.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public abstract class WeightInit {
+
+    /** Values per block with a generator of its own */
+    public static final int BLOCK = 1 << 14;
+
+    /** Uniform in +-0.5 * NodeLayer.glorotBengioWeightFactor (Glorot and Bengio [2010]) */
+    public static final WeightInit glorotBengio = new WeightInit() {
+        @Override
+        public void init(NodeLayer layer, int feedingLayerIndex, long seed)
+        {
+            final double limit = 0.5 * layer.glorotBengioWeightFactor(layer.transferFunction);
+            fill(layer.weights[feedingLayerIndex], seed,
+                    (random, row, offset, length) -> Prob.fillFromU(random, row, -limit, limit, offset, offset + length - 1));
+        }
+    };
+
+    /** Normal with standard deviation sqrt(2 / fan-in), for rectifiers (He et al. [2015]) */
+    public static final WeightInit he = normal(2.0);
+
+    /** Normal with standard deviation sqrt(1 / fan-in) (LeCun et al. [1998]) */
+    public static final WeightInit lecun = normal(1.0);
+
+    /** Fills weights from a feeding layer of given layer. */
+    public abstract void init(NodeLayer layer, int feedingLayerIndex, long seed);
+
+    /** Normal with standard deviation sqrt(scale / fan-in) */
+    public static WeightInit normal(final double scale)
+    {
+        return new WeightInit() {
+            @Override
+            public void init(NodeLayer layer, int feedingLayerIndex, long seed)
+            {
+                final double sd = Math.sqrt(scale / Math.max(1, fanIn(layer)));
+                fill(layer.weights[feedingLayerIndex], seed,
+                        (random, row, offset, length) -> Prob.fillFromN(random, row, 0.0, sd, offset, offset + length - 1));
+            }
+        };
+    }
+
+    /** Orthonormal rows, or columns if there are more rows than columns, times gain (Saxe et al. [2014]).
+     * Gaussian values are drawn in parallel; they are orthonormalized by modified Gram-Schmidt
+     * in one thread, at a cost of rows * cols * min(rows, cols).
+     */
+    public static WeightInit orthogonal(final double gain)
+    {
+        return new WeightInit() {
+            @Override
+            public void init(NodeLayer layer, int feedingLayerIndex, long seed)
+            {
+                WeightMatrix w = layer.weights[feedingLayerIndex];
+                fill(w, seed, (random, row, offset, length) -> Prob.fillFromN(random, row, 0.0, 1.0, offset, offset + length - 1));
+                if (w.rows <= w.cols)
+                {
+                    orthonormalize(w, gain);
+                    return;
+                }
+                WeightMatrix t = WeightMatrix.flat(w.cols, w.rows);
+                for(int i = 0; i < w.rows; i++)
+                    for(int j = 0; j < w.cols; j++)
+                        t.set(j, i, w.get(i, j));
+                orthonormalize(t, gain);
+                for(int i = 0; i < w.rows; i++)
+                    for(int j = 0; j < w.cols; j++)
+                        w.set(i, j, t.get(j, i));
+            }
+        };
+    }
+
+    static int fanIn(NodeLayer layer)
+    {
+        int fanIn = 0;
+        for(NodeLayer feeding : layer.feedingLayers)
+            fanIn += feeding.size();
+        return fanIn;
+    }
+
+    /** Makes rows of w orthogonal and of length gain; rows are expected to be independent,
+     * as random rows are, and no more than columns. A row of zero norm, as with no columns, is left as is. */
+    static void orthonormalize(WeightMatrix w, double gain)
+    {
+        for(int i = 0; i < w.rows; i++)
+        {
+            double[] row = w.row(i);
+            int offset = w.offset(i);
+            for(int k = 0; k < i; k++)
+            {
+                double projection = Kernels.dot(w.row(k), w.offset(k), row, offset, w.cols) / (gain * gain);
+                Kernels.axpy(-projection, w.row(k), w.offset(k), row, offset, w.cols);
+            }
+            double norm = Math.sqrt(Kernels.dot(row, offset, row, offset, w.cols));
+            if (norm > 0.0)
+                Kernels.scale(gain / norm, row, offset, row, offset, w.cols);
+        }
+    }
+
+    /** Fills length values of row from offset */
+    interface RowFill
+    {
+        void fill(Rng random, double[] row, int offset, int length);
+    }
+
+    /** Fills rows of w in blocks, in parallel if there are several */
+    static void fill(final WeightMatrix w, final long seed, final RowFill rowFill)
+    {
+        final int rowsPerBlock = Math.max(1, BLOCK / Math.max(1, w.cols));
+        int blocks = (w.rows + rowsPerBlock - 1) / rowsPerBlock;
+        IntStream range = IntStream.range(0, blocks);
+        (blocks > 1 ? range.parallel() : range).forEach(b -> {
+            Rng random = Rng.xoroshiro(Rng.splitMix64(seed + b));
+            for(int i = b * rowsPerBlock; i < Math.min(w.rows, (b + 1) * rowsPerBlock); i++)
+                rowFill.fill(random, w.row(i), w.offset(i), w.cols);
+        });
+    }
+}
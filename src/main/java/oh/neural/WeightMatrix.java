@@ -0,0 +1,83 @@
+package oh.neural;
+
+import java.util.Arrays;
+
+/** Weights from one feeding layer into a receiving layer,
+ * one row per receiving node, one column per feeding node.
+ *
+ * Storage is either a single row-major double[] (flat)
+ * or jagged rows shared with NodeLayer.transmissionWeights.
+ * Kernels iterate a row as row(i)[offset(i) + j], j in [0, cols),
+ * which reads contiguous memory with both storages.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public final class WeightMatrix {
+
+    public final int rows;
+    public final int cols;
+    final double[] values;
+    final double[][] jagged;
+
+    private WeightMatrix(int rows, int cols, double[] values, double[][] jagged)
+    {
+        this.rows = rows;
+        this.cols = cols;
+        this.values = values;
+        this.jagged = jagged;
+    }
+
+    public static WeightMatrix flat(int rows, int cols)
+    {
+        return new WeightMatrix(rows, cols, new double[rows * cols], null);
+    }
+
+    /** A view over jagged rows; writes through to the given arrays. */
+    public static WeightMatrix wrap(double[][] rows)
+    {
+        int cols = rows.length == 0 ? 0 : rows[0].length;
+        return new WeightMatrix(rows.length, cols, null, rows);
+    }
+
+    public boolean isFlat() { return values != null; }
+
+    /** Backing array of given row */
+    public double[] row(int i)
+    {
+        return values != null ? values : jagged[i];
+    }
+
+    /** Offset of given row in the array returned by row(i) */
+    public int offset(int i)
+    {
+        return values != null ? i * cols : 0;
+    }
+
+    public double get(int i, int j)
+    {
+        return values != null ? values[i * cols + j] : jagged[i][j];
+    }
+
+    public void set(int i, int j, double x)
+    {
+        if (values != null)
+            values[i * cols + j] = x;
+        else
+            jagged[i][j] = x;
+    }
+
+    /** Copies given row to a new array */
+    public double[] copyRow(int i)
+    {
+        return Arrays.copyOfRange(row(i), offset(i), offset(i) + cols);
+    }
+
+    /** Copies weights to a new jagged array */
+    public double[][] toArray()
+    {
+        double[][] ret = new double[rows][];
+        for(int i = 0; i < rows; i++)
+            ret[i] = copyRow(i);
+        return ret;
+    }
+}
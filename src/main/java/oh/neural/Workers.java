@@ -0,0 +1,56 @@
+package oh.neural;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Worker threads and sample order shared by ParallelTrainer and HogwildTrainer.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+final class Workers {  private Workers(){}
+
+    /** A fixed pool of daemon threads of given name */
+    static ExecutorService pool(int threads, final String name)
+    {
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Shuffles rows [0, count) in place (Fisher-Yates) */
+    static void shuffle(double[][] rows, int count, Random random)
+    {
+        for(int i = count - 1; i > 0; i--)
+        {
+            int j = random.nextInt(i + 1);
+            double[] tmp = rows[i];
+            rows[i] = rows[j];
+            rows[j] = tmp;
+        }
+    }
+
+    /** Runs tasks and waits for all of them.
+     * A task's runtime exception is rethrown as such, other failures and interruption as IllegalStateException.
+     */
+    static void invokeAll(ExecutorService executor, List<Callable<Void>> tasks)
+    {
+        try {
+            for(Future<Void> f : executor.invokeAll(tasks))
+                f.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while training", e);
+        } catch(ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException)e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
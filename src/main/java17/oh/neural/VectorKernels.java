@@ -0,0 +1,258 @@
+package oh.neural;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/** Kernels on SIMD vectors of the preferred species of the platform.
+ * Arrays shorter than one vector, and the tails of longer ones, are left to the scalar loops.
+ *
+ * Compiled for JDK 17 into the multi-release part of the jar; see Kernels.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+final class VectorKernels extends Kernels.Scalar {
+
+    static final VectorSpecies<Double> D = DoubleVector.SPECIES_PREFERRED;
+    static final VectorSpecies<Float> F = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    String name()
+    {
+        return "vector";
+    }
+
+    @Override
+    double dot(double[] x, int xOffset, double[] y, int yOffset, int length)
+    {
+        int bound = D.loopBound(length);
+        if (bound == 0)
+            return super.dot(x, xOffset, y, yOffset, length);
+        DoubleVector sum = DoubleVector.zero(D);
+        int i = 0;
+        for(; i < bound; i += D.length())
+            sum = DoubleVector.fromArray(D, x, xOffset + i)
+                    .mul(DoubleVector.fromArray(D, y, yOffset + i))
+                    .add(sum);
+        return sum.reduceLanes(VectorOperators.ADD)
+                + super.dot(x, xOffset + i, y, yOffset + i, length - i);
+    }
+
+    @Override
+    double squaredDistance(double[] x, int xOffset, double[] y, int yOffset, int length)
+    {
+        int bound = D.loopBound(length);
+        if (bound == 0)
+            return super.squaredDistance(x, xOffset, y, yOffset, length);
+        DoubleVector sum = DoubleVector.zero(D);
+        int i = 0;
+        for(; i < bound; i += D.length())
+        {
+            DoubleVector delta = DoubleVector.fromArray(D, x, xOffset + i)
+                    .sub(DoubleVector.fromArray(D, y, yOffset + i));
+            sum = delta.mul(delta).add(sum);
+        }
+        return sum.reduceLanes(VectorOperators.ADD)
+                + super.squaredDistance(x, xOffset + i, y, yOffset + i, length - i);
+    }
+
+    @Override
+    void axpy(double a, double[] x, int xOffset, double[] y, int yOffset, int length)
+    {
+        int bound = D.loopBound(length);
+        int i = 0;
+        for(; i < bound; i += D.length())
+            DoubleVector.fromArray(D, x, xOffset + i).mul(a)
+                    .add(DoubleVector.fromArray(D, y, yOffset + i))
+                    .intoArray(y, yOffset + i);
+        super.axpy(a, x, xOffset + i, y, yOffset + i, length - i);
+    }
+
+    @Override
+    void dot4(double[] x, int xOffset, double[] w0, int o0, double[] w1, int o1,
+            double[] w2, int o2, double[] w3, int o3, int length, double[] out, int outOffset)
+    {
+        int bound = D.loopBound(length);
+        if (bound == 0)
+        {
+            super.dot4(x, xOffset, w0, o0, w1, o1, w2, o2, w3, o3, length, out, outOffset);
+            return;
+        }
+        DoubleVector s0 = DoubleVector.zero(D), s1 = s0, s2 = s0, s3 = s0;
+        int i = 0;
+        for(; i < bound; i += D.length())
+        {
+            DoubleVector xi = DoubleVector.fromArray(D, x, xOffset + i);
+            s0 = xi.mul(DoubleVector.fromArray(D, w0, o0 + i)).add(s0);
+            s1 = xi.mul(DoubleVector.fromArray(D, w1, o1 + i)).add(s1);
+            s2 = xi.mul(DoubleVector.fromArray(D, w2, o2 + i)).add(s2);
+            s3 = xi.mul(DoubleVector.fromArray(D, w3, o3 + i)).add(s3);
+        }
+        out[outOffset] += s0.reduceLanes(VectorOperators.ADD);
+        out[outOffset + 1] += s1.reduceLanes(VectorOperators.ADD);
+        out[outOffset + 2] += s2.reduceLanes(VectorOperators.ADD);
+        out[outOffset + 3] += s3.reduceLanes(VectorOperators.ADD);
+        super.dot4(x, xOffset + i, w0, o0 + i, w1, o1 + i, w2, o2 + i, w3, o3 + i, length - i, out, outOffset);
+    }
+
+    @Override
+    void squaredDistance4(double[] x, int xOffset, double[] w0, int o0, double[] w1, int o1,
+            double[] w2, int o2, double[] w3, int o3, int length, double[] out, int outOffset)
+    {
+        int bound = D.loopBound(length);
+        if (bound == 0)
+        {
+            super.squaredDistance4(x, xOffset, w0, o0, w1, o1, w2, o2, w3, o3, length, out, outOffset);
+            return;
+        }
+        DoubleVector s0 = DoubleVector.zero(D), s1 = s0, s2 = s0, s3 = s0;
+        int i = 0;
+        for(; i < bound; i += D.length())
+        {
+            DoubleVector xi = DoubleVector.fromArray(D, x, xOffset + i);
+            DoubleVector d0 = xi.sub(DoubleVector.fromArray(D, w0, o0 + i));
+            DoubleVector d1 = xi.sub(DoubleVector.fromArray(D, w1, o1 + i));
+            DoubleVector d2 = xi.sub(DoubleVector.fromArray(D, w2, o2 + i));
+            DoubleVector d3 = xi.sub(DoubleVector.fromArray(D, w3, o3 + i));
+            s0 = d0.mul(d0).add(s0);
+            s1 = d1.mul(d1).add(s1);
+            s2 = d2.mul(d2).add(s2);
+            s3 = d3.mul(d3).add(s3);
+        }
+        out[outOffset] += s0.reduceLanes(VectorOperators.ADD);
+        out[outOffset + 1] += s1.reduceLanes(VectorOperators.ADD);
+        out[outOffset + 2] += s2.reduceLanes(VectorOperators.ADD);
+        out[outOffset + 3] += s3.reduceLanes(VectorOperators.ADD);
+        super.squaredDistance4(x, xOffset + i, w0, o0 + i, w1, o1 + i, w2, o2 + i, w3, o3 + i, length - i, out, outOffset);
+    }
+
+    @Override
+    void axpy4(double a0, double[] x0, int o0, double a1, double[] x1, int o1,
+            double a2, double[] x2, int o2, double a3, double[] x3, int o3, double[] y, int yOffset, int length)
+    {
+        int bound = D.loopBound(length);
+        int i = 0;
+        for(; i < bound; i += D.length())
+            DoubleVector.fromArray(D, x0, o0 + i).mul(a0)
+                    .add(DoubleVector.fromArray(D, x1, o1 + i).mul(a1))
+                    .add(DoubleVector.fromArray(D, x2, o2 + i).mul(a2))
+                    .add(DoubleVector.fromArray(D, x3, o3 + i).mul(a3))
+                    .add(DoubleVector.fromArray(D, y, yOffset + i))
+                    .intoArray(y, yOffset + i);
+        super.axpy4(a0, x0, o0 + i, a1, x1, o1 + i, a2, x2, o2 + i, a3, x3, o3 + i, y, yOffset + i, length - i);
+    }
+
+    @Override
+    boolean isFinite(double[] x, int offset, int length)
+    {
+        int bound = D.loopBound(length);
+        DoubleVector zero = DoubleVector.zero(D);
+        int i = 0;
+        for(; i < bound; i += D.length())
+            zero = DoubleVector.fromArray(D, x, offset + i).mul(0.0).add(zero);
+        return zero.reduceLanes(VectorOperators.ADD) == 0.0
+                && super.isFinite(x, offset + i, length - i);
+    }
+
+    @Override
+    void add(double[] x, double[] y, double[] out, int length)
+    {
+        int bound = D.loopBound(length);
+        int i = 0;
+        for(; i < bound; i += D.length())
+            DoubleVector.fromArray(D, x, i).add(DoubleVector.fromArray(D, y, i)).intoArray(out, i);
+        for(; i < length; i++)
+            out[i] = x[i] + y[i];
+    }
+
+    @Override
+    void sub(double[] x, double[] y, double[] out, int length)
+    {
+        int bound = D.loopBound(length);
+        int i = 0;
+        for(; i < bound; i += D.length())
+            DoubleVector.fromArray(D, x, i).sub(DoubleVector.fromArray(D, y, i)).intoArray(out, i);
+        for(; i < length; i++)
+            out[i] = x[i] - y[i];
+    }
+
+    @Override
+    void mul(double[] x, double[] y, double[] out, int length)
+    {
+        int bound = D.loopBound(length);
+        int i = 0;
+        for(; i < bound; i += D.length())
+            DoubleVector.fromArray(D, x, i).mul(DoubleVector.fromArray(D, y, i)).intoArray(out, i);
+        for(; i < length; i++)
+            out[i] = x[i] * y[i];
+    }
+
+    @Override
+    void scale(double a, double[] x, int xOffset, double[] out, int outOffset, int length)
+    {
+        int bound = D.loopBound(length);
+        int i = 0;
+        for(; i < bound; i += D.length())
+            DoubleVector.fromArray(D, x, xOffset + i).mul(a).intoArray(out, outOffset + i);
+        super.scale(a, x, xOffset + i, out, outOffset + i, length - i);
+    }
+
+    @Override
+    float dot(float[] x, int xOffset, float[] y, int yOffset, int length)
+    {
+        int bound = F.loopBound(length);
+        if (bound == 0)
+            return super.dot(x, xOffset, y, yOffset, length);
+        FloatVector sum = FloatVector.zero(F);
+        int i = 0;
+        for(; i < bound; i += F.length())
+            sum = FloatVector.fromArray(F, x, xOffset + i)
+                    .mul(FloatVector.fromArray(F, y, yOffset + i))
+                    .add(sum);
+        return sum.reduceLanes(VectorOperators.ADD)
+                + super.dot(x, xOffset + i, y, yOffset + i, length - i);
+    }
+
+    @Override
+    float squaredDistance(float[] x, int xOffset, float[] y, int yOffset, int length)
+    {
+        int bound = F.loopBound(length);
+        if (bound == 0)
+            return super.squaredDistance(x, xOffset, y, yOffset, length);
+        FloatVector sum = FloatVector.zero(F);
+        int i = 0;
+        for(; i < bound; i += F.length())
+        {
+            FloatVector delta = FloatVector.fromArray(F, x, xOffset + i)
+                    .sub(FloatVector.fromArray(F, y, yOffset + i));
+            sum = delta.mul(delta).add(sum);
+        }
+        return sum.reduceLanes(VectorOperators.ADD)
+                + super.squaredDistance(x, xOffset + i, y, yOffset + i, length - i);
+    }
+
+    @Override
+    void axpy(float a, float[] x, int xOffset, float[] y, int yOffset, int length)
+    {
+        int bound = F.loopBound(length);
+        int i = 0;
+        for(; i < bound; i += F.length())
+            FloatVector.fromArray(F, x, xOffset + i).mul(a)
+                    .add(FloatVector.fromArray(F, y, yOffset + i))
+                    .intoArray(y, yOffset + i);
+        super.axpy(a, x, xOffset + i, y, yOffset + i, length - i);
+    }
+
+    @Override
+    boolean isFinite(float[] x, int offset, int length)
+    {
+        int bound = F.loopBound(length);
+        FloatVector zero = FloatVector.zero(F);
+        int i = 0;
+        for(; i < bound; i += F.length())
+            zero = FloatVector.fromArray(F, x, offset + i).mul(0f).add(zero);
+        return zero.reduceLanes(VectorOperators.ADD) == 0f
+                && super.isFinite(x, offset + i, length - i);
+    }
+}
@@ -0,0 +1,73 @@
+package oh.neural;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+import org.junit.Assume;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/** A per-sample training step allocates nothing once compiled.
+ *
+ * Interpreted and C1-compiled code allocates where C2 would not (iterators, vector objects),
+ * so the result depends on compilation. The build runs this test in a JVM of its own,
+ * see the "allocation" surefire execution in pom.xml: scalar kernels, C2 only, and compilation
+ * in the foreground (-Xbatch), so that the same warm-up always ends in the same compiled code.
+ * Elsewhere the test is skipped.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public class AllocationTest {
+
+    static final int WARMUP_ROUNDS = 5;
+
+    @Test
+    public void testTrainStepDoesNotAllocate() {
+        Assume.assumeTrue("scalar".equals(Kernels.implementation())
+                && ManagementFactory.getRuntimeMXBean().getInputArguments().contains("-Xbatch"));
+        NodeLayer in = new NodeLayer(4);
+        NodeLayer a = new NodeLayer(32, true);
+        NodeLayer b = new NodeLayer(16);
+        NodeLayer out = new NodeLayer(2);
+        a.transferFunction = Fn.Transfer.tanh(1.0);
+        a.deltaFunction = Fn.Transfer.tanhD1(1.0);
+        b.transferFunction = Fn.Transfer.sigmoid(3.0);
+        b.deltaFunction = Fn.Transfer.sigmoidD1(3.0);
+        out.transferFunction = Fn.Transfer.linear(1.0);
+        out.deltaFunction = Fn.Transfer.linearD1(1.0);
+        Rng random = Rng.xoroshiro(1L);
+        for(NodeLayer layer : new NodeLayer[]{ a, b, out })
+            layer.random = random.split();
+        List<NodeLayer> system = new ArrayList<>();
+        a.addFeedingLayer(in, system);
+        b.addFeedingLayer(a, system);
+        out.addFeedingLayer(b, system);
+        int[] targetValueOffsets = new int[]{-1, -1, -1, 4};
+        double[][] lrc = new double[system.size()][];
+        for(int i = 0; i < lrc.length; i++)
+            lrc[i] = Doubles.fill(system.get(i).size(), 0.001);
+        double[][] data = new double[64][6];
+        for(double[] sample : data)
+            Prob.fillFromU(random, sample, 0, 1, 0, sample.length - 1);
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long[] allocated = new long[WARMUP_ROUNDS + 1];
+        for(int round = 0; round < allocated.length; round++)
+        {
+            long before = threads.getThreadAllocatedBytes(thread);
+            for(int s = 0; s < 50000; s++)
+            {
+                double[] sample = data[s % data.length];
+                System.arraycopy(sample, 0, in.nodeValues, 0, in.size());
+                FeedForwardNetwork.feedForward(system);
+                FeedForwardNetwork.backpropagate(system, sample, targetValueOffsets, lrc);
+            }
+            allocated[round] = threads.getThreadAllocatedBytes(thread) - before;
+        }
+        System.out.println("allocated bytes per round " + Arrays.toString(allocated));
+        assertEquals(0, allocated[WARMUP_ROUNDS]);
+    }
+}
@@ -0,0 +1,162 @@
+package oh.neural;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/** Biases against the same network with a constant input node in their place,
+ * and biases through every path of feeding forward.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public class BiasTest {
+
+    /** in -> a -> out with biases in a and out */
+    static List<NodeLayer> biased(double[][][] initialWeights, double[][] initialBiases)
+    {
+        List<NodeLayer> system = ParallelTrainerTest.network(initialWeights);
+        for(int x = 1; x < 3; x++)
+        {
+            system.get(x).addBiases();
+            System.arraycopy(initialBiases[x], 0, system.get(x).biases, 0, initialBiases[x].length);
+        }
+        return system;
+    }
+
+    /** in, one -> a -> out, one -> out; weights from the constant node one in place of biases */
+    static List<NodeLayer> constantInput(double[][][] initialWeights, double[][] initialBiases)
+    {
+        List<NodeLayer> biased = ParallelTrainerTest.network(initialWeights);
+        NodeLayer in = biased.get(0), a = biased.get(1), out = biased.get(2);
+        NodeLayer one = new NodeLayer(1, true);
+        one.nodeValues[0] = 1.0;
+        a.addFeedingLayer(one, null);
+        out.addFeedingLayer(one, null);
+        for(int x = 1; x < 3; x++)
+            for(int i = 0; i < initialBiases[x].length; i++)
+                biased.get(x).weights[1].set(i, 0, initialBiases[x][i]);
+        return new ArrayList<>(Arrays.asList(in, one, a, out));
+    }
+
+    static void assertSameParameters(List<NodeLayer> biased, List<NodeLayer> constantInput, double delta)
+    {
+        for(int x = 1; x < 3; x++)
+        {
+            NodeLayer b = biased.get(x), c = constantInput.get(x + 1);
+            double[][] w = b.weights[0].toArray();
+            for(int i = 0; i < w.length; i++)
+                assertArrayEquals(w[i], c.weights[0].copyRow(i), delta);
+            for(int i = 0; i < b.size(); i++)
+                assertEquals(b.biases[i], c.weights[1].get(i, 0), delta);
+        }
+    }
+
+    @Test
+    public void testSameAsConstantInput() {
+        double[][][] initialWeights = new double[3][][];
+        double[][] initialBiases = { null, new double[40], new double[1] };
+        for(int x = 1; x < 3; x++)
+            Prob.fillFromU(initialBiases[x], -0.5, 0.5);
+        double[][] data = ParallelTrainerTest.data(256);
+        double[][] lrc = new double[][]{ Doubles.fill(1, 0.1), Doubles.fill(40, 0.1), Doubles.fill(1, 0.1) };
+        double[][] lrcC = new double[][]{ lrc[0], Doubles.fill(1, 0.1), lrc[1], lrc[2] };
+        int[] inputs = { 0, -1, -1 }, targets = { -1, -1, 1 };
+        int[] inputsC = { 0, -1, -1, -1 }, targetsC = { -1, -1, -1, 1 };
+
+        // per sample
+        List<NodeLayer> b = biased(initialWeights, initialBiases);
+        List<NodeLayer> c = constantInput(initialWeights, initialBiases);
+        CompiledNetwork bn = FeedForwardNetwork.compile(b), cn = FeedForwardNetwork.compile(c);
+        for(double[] sample : data)
+        {
+            b.get(0).nodeValues[0] = c.get(0).nodeValues[0] = sample[0];
+            bn.train(sample, targets, lrc);
+            cn.train(sample, targetsC, lrcC);
+        }
+        assertFalse(b.get(1).biases[0] == initialBiases[1][0]);
+        assertSameParameters(b, c, 1e-9);
+
+        // mini-batches, with an optimizer
+        b = biased(initialWeights, initialBiases);
+        c = constantInput(initialWeights, initialBiases);
+        bn = FeedForwardNetwork.compile(b);
+        cn = FeedForwardNetwork.compile(c);
+        bn.optimizer = Optimizer.adam(b, 0.9, 0.999, 1e-8);
+        cn.optimizer = Optimizer.adam(c, 0.9, 0.999, 1e-8);
+        Batch bb = new Batch(bn, 32), cb = new Batch(cn, 32);
+        for(int from = 0; from < data.length; from += 32)
+        {
+            FeedForwardNetwork.feedForward(bb, data, from, from + 32, inputs);
+            FeedForwardNetwork.backpropagate(bb, data, from, from + 32, targets, lrc);
+            FeedForwardNetwork.feedForward(cb, data, from, from + 32, inputsC);
+            FeedForwardNetwork.backpropagate(cb, data, from, from + 32, targetsC, lrcC);
+        }
+        assertSameParameters(b, c, 1e-9);
+
+        // in parallel
+        b = biased(initialWeights, initialBiases);
+        c = constantInput(initialWeights, initialBiases);
+        ParallelTrainer bt = new ParallelTrainer(FeedForwardNetwork.compile(b), 2, 32, 5L);
+        ParallelTrainer ct = new ParallelTrainer(FeedForwardNetwork.compile(c), 2, 32, 5L);
+        for(int epoch = 0; epoch < 3; epoch++)
+        {
+            bt.trainEpoch(data, inputs, targets, lrc);
+            ct.trainEpoch(data, inputsC, targetsC, lrcC);
+        }
+        bt.shutdown();
+        ct.shutdown();
+        assertSameParameters(b, c, 1e-9);
+    }
+
+    @Test
+    public void testFeedForwardPaths() throws Exception {
+        List<NodeLayer> system = ModelTest.network();
+        Model unbiased = Model.snapshot(system);
+        for(int x = 1; x < system.size(); x++)
+        {
+            system.get(x).addBiases();
+            Prob.fillFromU(system.get(x).biases, -0.5, 0.5);
+        }
+        NodeLayer out = system.get(system.size() - 1);
+        Model model = Model.snapshot(system);
+        Model offHeap = Model.snapshot(FeedForwardNetwork.compile(system), true);
+        FloatNetwork floats = new FloatNetwork(system);
+        int[] inputValueOffsets = { 0, -1, -1, -1 };
+        double[][] samples = new double[50][3];
+        for(double[] sample : samples)
+            Prob.fillFromU(sample, -1, 1);
+        Batch batch = new Batch(system, samples.length);
+        batch.feedForward(samples, 0, samples.length, inputValueOffsets);
+        Path path = Files.createTempFile("network", ".ohnn");
+        try {
+            NetworkFile.write(system, path);
+            Model mapped = NetworkFile.map(path);
+            Model read = Model.snapshot(NetworkFile.read(path));
+            for(int s = 0; s < samples.length; s++)
+            {
+                system.get(0).nodeValues = samples[s].clone();
+                FeedForwardNetwork.feedForward(system);
+                double[] expected = out.nodeValues.clone();
+                assertFalse(Arrays.equals(expected, unbiased.predict(samples[s], new double[2])));
+                assertArrayEquals(expected, batch.getValues(system.size() - 1, s, new double[2]), 1e-12);
+                assertArrayEquals(expected, model.predict(samples[s], new double[2]), 1e-12);
+                assertArrayEquals(expected, offHeap.predict(samples[s], new double[2]), 1e-12);
+                assertArrayEquals(expected, mapped.predict(samples[s], new double[2]), 1e-12);
+                assertArrayEquals(expected, read.predict(samples[s], new double[2]), 1e-12);
+                floats.setInputs(samples[s], inputValueOffsets);
+                floats.forward();
+                for(int i = 0; i < 2; i++)
+                    assertEquals(expected[i], floats.values[system.size() - 1][i], 1e-4);
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package oh.neural;
+
+import java.nio.DoubleBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Maps a dataset in several segments and compares it with the same rows in memory.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public class DDArrayTest {
+
+    @Test
+    public void testMapped() throws Exception {
+        double[][] samples = SampleStreamTest.samples(100, 5);
+        Path path = Files.createTempFile("samples", ".ohds");
+        Path csv = Files.createTempFile("samples", ".csv");
+        try {
+            DDArray.write(samples, 0, 3, path);
+            DDArray memory = new DDArray(samples, 0, 3);
+            DDArray mapped = DDArray.map(path, 7);
+            assertTrue(mapped.isMapped());
+            assertEquals(15, mapped.segments.length);
+            assertEquals(100, mapped.rows);
+            assertEquals(5, mapped.columns);
+            assertEquals(500L, memory.valueCount());
+            assertEquals(memory.valueCount(), mapped.valueCount());
+            for(int i = 0; i < samples.length; i++)
+            {
+                DoubleBuffer row = mapped.row(i);
+                assertTrue(row.isDirect());
+                assertEquals(5, row.remaining());
+                for(int j = 0; j < 5; j++)
+                {
+                    assertEquals(samples[i][j], row.get(j), 0.0);
+                    assertEquals(samples[i][j], mapped.get(i, j), 0.0);
+                    assertEquals(memory.next(), mapped.next(), 0.0);
+                }
+                assertArrayEquals(samples[i], mapped.get(i, new double[5]), 0.0);
+            }
+
+            int[] order = mapped.shuffle(new Random(1L));
+            int[] sorted = order.clone();
+            Arrays.sort(sorted);
+            for(int i = 0; i < sorted.length; i++)
+                assertEquals(i, sorted[i]);
+            double[][] batch = new double[10][5];
+            mapped.get(order, 20, 30, batch);
+            for(int k = 0; k < 10; k++)
+                assertArrayEquals(samples[order[20 + k]], batch[k], 0.0);
+
+            StringBuilder text = new StringBuilder();
+            for(double[] sample : samples)
+            {
+                for(int j = 0; j < sample.length; j++)
+                    text.append(j == 0 ? "" : ",").append(sample[j]);
+                text.append('\n');
+            }
+            Files.write(csv, text.toString().getBytes(StandardCharsets.US_ASCII));
+            DDArray.fromCsv(csv, 5, 0, 3, path);
+            DDArray converted = DDArray.map(path);
+            assertEquals(1, converted.segments.length);
+            for(int i = 0; i < samples.length; i++)
+                assertArrayEquals(samples[i], converted.get(i, new double[5]), 0.0);
+        } finally {
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(csv);
+        }
+    }
+
+    @Test
+    public void testWideRows() throws Exception {
+        // rows wider than the writer's 64 KB block
+        double[][] samples = SampleStreamTest.samples(3, 10000);
+        Path path = Files.createTempFile("samples", ".ohds");
+        try {
+            DDArray.write(samples, 0, 9999, path);
+            DDArray mapped = DDArray.map(path);
+            assertEquals(30000L, mapped.valueCount());
+            for(int i = 0; i < samples.length; i++)
+                assertArrayEquals(samples[i], mapped.get(i, new double[10000]), 0.0);
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void testTrainEpoch() throws Exception {
+        List<NodeLayer> system = ModelTest.network();
+        for(NodeLayer layer : system.subList(1, system.size()))
+            layer.transferFunction = Fn.Transfer.fused(layer.transferFunction);
+        double[][] samples = new double[2000][5];
+        for(double[] sample : samples)
+        {
+            Prob.fillFromU(sample, -1, 1);
+            sample[3] = sample[0] * sample[1];
+            sample[4] = sample[2] * 0.5;
+        }
+        Path path = Files.createTempFile("samples", ".ohds");
+        CompiledNetwork network = FeedForwardNetwork.compile(system);
+        ParallelTrainer trainer = new ParallelTrainer(network, 2, 16, 1L);
+        Model before = Model.snapshot(network);
+        try {
+            DDArray.write(samples, 0, 3, path);
+            DDArray data = DDArray.map(path, 300);
+            assertArrayEquals(new int[]{ 0, -1, -1, -1 }, data.inputValueOffsets(system));
+            assertArrayEquals(new int[]{ -1, -1, -1, 3 }, data.targetValueOffsets(system));
+            double[][] lrc = new double[system.size()][];
+            for(int x = 0; x < lrc.length; x++)
+                lrc[x] = Doubles.fill(system.get(x).size(), 0.05);
+            for(int epoch = 0; epoch < 20; epoch++)
+                trainer.trainEpoch(data, lrc);
+        } finally {
+            trainer.shutdown();
+            Files.deleteIfExists(path);
+        }
+        Model after = Model.snapshot(network);
+        double errorBefore = 0, errorAfter = 0;
+        for(double[] sample : samples)
+        {
+            double[] in = new double[]{ sample[0], sample[1], sample[2] };
+            double[] a = before.predict(in, new double[2]), b = after.predict(in, new double[2]);
+            errorBefore += Math.abs(a[0] - sample[3]) + Math.abs(a[1] - sample[4]);
+            errorAfter += Math.abs(b[0] - sample[3]) + Math.abs(b[1] - sample[4]);
+        }
+        System.out.println("mapped training error " + errorBefore / samples.length + " -> " + errorAfter / samples.length);
+        assertTrue(errorAfter < errorBefore);
+    }
+}
@@ -0,0 +1,75 @@
+package oh.neural;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Compares destination, in-place and range variants with allocating ones, and sums with exact sums.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public class DoublesTest {
+
+    @Test
+    public void testVariants() {
+        double[] A = new double[37], B = new double[37];
+        Prob.fillFromU(A, 0.1, 2);
+        Prob.fillFromU(B, 0.1, 2);
+        double[] out = new double[37];
+        assertArrayEquals(Doubles.sub(A, B), Doubles.sub(A, B, out), 0.0);
+        assertArrayEquals(Doubles.div(A, B), Doubles.div(A, B, out), 0.0);
+        assertArrayEquals(Doubles.mul(A, 3.0), Doubles.mul(A, 3.0, out), 0.0);
+        assertArrayEquals(Doubles.sub(A, 3.0), Doubles.sub(A, 3.0, out), 0.0);
+        assertArrayEquals(Doubles.pow(A, 1.5), Doubles.pow(A, 1.5, out), 0.0);
+        assertArrayEquals(Doubles.counter(A), Doubles.counter(A, out), 0.0);
+
+        double[] inPlace = A.clone();
+        assertArrayEquals(Doubles.add(A, B), Doubles.add(inPlace, B, inPlace), 0.0);
+        inPlace = A.clone();
+        assertArrayEquals(Doubles.sqrt(A), Doubles.sqrt(inPlace, inPlace), 0.0);
+
+        double[] range = new double[40];
+        Doubles.mul(A, 2, B, 5, range, 1, 30);
+        for(int i = 0; i < 30; i++)
+            assertEquals(A[2 + i] * B[5 + i], range[1 + i], 0.0);
+        assertEquals(0.0, range[0], 0.0);
+        assertEquals(0.0, range[31], 0.0);
+
+        double[] Y = B.clone();
+        Doubles.scaleAdd(2.0, A, 0.5, Y);
+        for(int i = 0; i < Y.length; i++)
+            assertEquals(2.0 * A[i] + 0.5 * B[i], Y[i], 1e-15);
+        Y = B.clone();
+        Doubles.mulAdd(A, A, Y);
+        assertArrayEquals(Doubles.add(Doubles.sqr(A), B), Y, 1e-15);
+        assertArrayEquals(Doubles.add(Doubles.mul(A, 0.3), B), Doubles.axpy(0.3, A, B.clone()), 1e-15);
+        assertEquals(Math.sqrt(Doubles.sum(Doubles.sqr(A))), Doubles.norm(A), 1e-12);
+        A[17] = 5.0;
+        assertEquals(5.0, Doubles.max(A), 0.0);
+        A[3] = Double.NaN;
+        assertTrue(Double.isNaN(Doubles.max(A)));
+    }
+
+    @Test
+    public void testSums() {
+        // 1 + n * 1e-16 and -1: plain summation loses the small terms
+        int n = 1 << 20;
+        double[] A = Doubles.fill(n + 2, 1e-16);
+        A[0] = 1.0;
+        A[n + 1] = -1.0;
+        double exact = n * 1e-16;
+        System.out.println("sum " + Doubles.sum(A) + ", pairwise " + Doubles.pairwiseSum(A, 0, A.length)
+                + ", kahan " + Doubles.kahanSum(A, 0, A.length) + ", exact " + exact);
+        assertEquals(exact, Doubles.kahanSum(A, 0, A.length), 1e-18);
+        assertEquals(exact, Doubles.pairwiseSum(A, 1, n + 1), 1e-18);
+        assertTrue(Math.abs(Doubles.sum(A) - exact) > 1e-12);
+
+        double[] B = new double[3 * Doubles.PARALLEL_THRESHOLD + 17];
+        Prob.fillFromU(B, -1, 1);
+        assertEquals(Doubles.pairwiseSum(B, 0, B.length), Doubles.parallelSum(B), 0.0);
+        double[] Y = B.clone(), expected = B.clone();
+        Kernels.axpy(0.5, B, 0, expected, 0, B.length);
+        assertArrayEquals(expected, Doubles.parallelAxpy(0.5, B, Y), 0.0);
+    }
+}
@@ -7,6 +7,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import oh.neural.FeedForwardNetwork.NodeLayer;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.junit.Test;
 
 public class FeedForwardNetworkTest {
@@ -152,4 +156,243 @@ soOut:  for(int epoch = 0; epoch < maxEpochs; epoch++)
 
     }
 
+    @Test
+    public void testFlatWeightsMatchJagged() {
+        List<NodeLayer> jagged = new ArrayList<>();
+        List<NodeLayer> flat = new ArrayList<>();
+        for(List<NodeLayer> system : Arrays.asList(jagged, flat))
+        {
+            boolean flatWeights = system == flat;
+            NodeLayer in = new NodeLayer(3, flatWeights);
+            NodeLayer a = new NodeLayer(7, flatWeights);
+            NodeLayer out = new NodeLayer(2, flatWeights);
+            a.transferFunction = Fn.Transfer.sigmoid(3.0);
+            a.deltaFunction = Fn.Transfer.sigmoidD1(3.0);
+            out.transferFunction = Fn.Transfer.linear(1.0);
+            out.deltaFunction = Fn.Transfer.linearD1(1.0);
+            a.addFeedingLayer(in, system);
+            out.addFeedingLayer(a, system);
+        }
+        for(int x = 0; x < jagged.size(); x++)
+        {
+            WeightMatrix[] from = jagged.get(x).weights;
+            WeightMatrix[] to = flat.get(x).weights;
+            for(int k = 0; k < from.length; k++)
+                for(int i = 0; i < from[k].rows; i++)
+                    for(int j = 0; j < from[k].cols; j++)
+                        to[k].set(i, j, from[k].get(i, j));
+        }
+        int[] targetValueOffsets = new int[]{-1, -1, 3};
+        double[][] lrc = new double[][]{
+            Doubles.fill(3, 0.01), Doubles.fill(7, 0.01), Doubles.fill(2, 0.01)
+        };
+        for(int s = 0; s < 50; s++)
+        {
+            double[] sample = new double[]{Math.random(), Math.random(), Math.random(), Math.random(), Math.random()};
+            for(List<NodeLayer> system : Arrays.asList(jagged, flat))
+            {
+                system.get(0).nodeValues = Arrays.copyOfRange(sample, 0, 3);
+                FeedForwardNetwork.feedForward(system);
+                FeedForwardNetwork.backpropagate(system, sample, targetValueOffsets, lrc);
+            }
+            assertArrayEquals(jagged.get(2).nodeValues, flat.get(2).nodeValues, 0.0);
+        }
+        assertArrayEquals(jagged.get(2).weights[0].toArray()[1], flat.get(2).weights[0].toArray()[1], 0.0);
+        assertArrayEquals(jagged.get(2).transmissionWeights[0][1], jagged.get(2).weights[0].copyRow(1), 0.0);
+    }
+
+    @Test
+    public void testBatch() {
+        NodeLayer in = new NodeLayer(1, true);
+        NodeLayer a = new NodeLayer(12, true);
+        NodeLayer out = new NodeLayer(1, true);
+        a.transferFunction = Fn.Transfer.sigmoid(3.0);
+        a.deltaFunction = Fn.Transfer.sigmoidD1(3.0);
+        out.transferFunction = Fn.Transfer.linear(1.0);
+        out.deltaFunction = Fn.Transfer.linearD1(1.0);
+        // seeded data and initial weights: a random start may already sit close to the fit
+        Rng random = Rng.xoroshiro(1L);
+        a.random = random.split();
+        out.random = random.split();
+        List<NodeLayer> system = new ArrayList<>();
+        a.addFeedingLayer(in, system);
+        out.addFeedingLayer(a, system);
+        int[] inputValueOffsets = new int[]{0, -1, -1};
+        int[] targetValueOffsets = new int[]{-1, -1, 1};
+        double[][] lrc = new double[][]{ Doubles.fill(1, 0.1), Doubles.fill(12, 0.1), Doubles.fill(1, 0.1) };
+
+        double[][] data = new double[256][];
+        for(int i = 0; i < data.length; i++)
+        {
+            double x = random.nextDouble();
+            data[i] = new double[]{ x, 1 - (x * x + Math.sin(x*10)*0.2) };
+        }
+        Batch batch = new Batch(system, 16);
+        batch.feedForward(data, 0, 16, inputValueOffsets);
+        for(int s = 0; s < 16; s++)
+        {
+            in.nodeValues = Arrays.copyOfRange(data[s], 0, 1);
+            FeedForwardNetwork.feedForward(system);
+            assertArrayEquals(out.nodeValues, batch.getValues(2, s, new double[1]), 1e-12);
+        }
+
+        double errorStart = batchError(batch, data, inputValueOffsets);
+        for(int epoch = 0; epoch < 300; epoch++)
+            for(int from = 0; from < data.length; from += batch.capacity)
+            {
+                FeedForwardNetwork.feedForward(batch, data, from, from + batch.capacity, inputValueOffsets);
+                FeedForwardNetwork.backpropagate(batch, data, from, from + batch.capacity, targetValueOffsets, lrc);
+            }
+        double errorEnd = batchError(batch, data, inputValueOffsets);
+        System.out.println("batch avg error " + errorStart + " -> " + errorEnd);
+        assertTrue(errorEnd < errorStart / 2);
+    }
+
+    @Test
+    public void testFusedDerivative() {
+        NodeLayer in = new NodeLayer(1, true);
+        NodeLayer a = new NodeLayer(12, true);
+        NodeLayer out = new NodeLayer(1, true);
+        a.transferFunction = Fn.Transfer.tanhFused(2.0);
+        out.transferFunction = Fn.Transfer.linearFused(1.0);
+        a.deltaFunction = out.deltaFunction = x -> { throw new AssertionError("deltaFunction called"); };
+        Rng random = Rng.xoroshiro(1L);
+        in.random = random.split();
+        a.random = random.split();
+        out.random = random.split();
+        List<NodeLayer> system = new ArrayList<>();
+        a.addFeedingLayer(in, system);
+        out.addFeedingLayer(a, system);
+        int[] inputValueOffsets = new int[]{0, -1, -1};
+        int[] targetValueOffsets = new int[]{-1, -1, 1};
+        double[][] lrc = new double[][]{ Doubles.fill(1, 0.1), Doubles.fill(12, 0.1), Doubles.fill(1, 0.1) };
+        double[][] data = new double[256][];
+        for(int i = 0; i < data.length; i++)
+        {
+            double x = random.nextDouble();
+            data[i] = new double[]{ x, 1 - (x * x + Math.sin(x*10)*0.2) };
+        }
+        Batch batch = new Batch(system, 16);
+        double errorStart = batchError(batch, data, inputValueOffsets);
+        for(int epoch = 0; epoch < 100; epoch++)
+            for(double[] sample : data)
+            {
+                in.nodeValues[0] = sample[0];
+                FeedForwardNetwork.feedForward(system);
+                FeedForwardNetwork.backpropagate(system, sample, targetValueOffsets, lrc);
+            }
+        for(int i = 0; i < a.size(); i++)
+            assertEquals(a.transferFunction.f(a.preActivations[i]), a.nodeValues[i], 0.0);
+        double errorSample = batchError(batch, data, inputValueOffsets);
+        for(int epoch = 0; epoch < 200; epoch++)
+            for(int from = 0; from < data.length; from += batch.capacity)
+            {
+                FeedForwardNetwork.feedForward(batch, data, from, from + batch.capacity, inputValueOffsets);
+                FeedForwardNetwork.backpropagate(batch, data, from, from + batch.capacity, targetValueOffsets, lrc);
+            }
+        double errorEnd = batchError(batch, data, inputValueOffsets);
+        System.out.println("fused avg error " + errorStart + " -> " + errorSample + " -> " + errorEnd);
+        assertTrue(errorSample < Math.min(errorStart, 0.25));
+        assertTrue(errorEnd < 0.25);
+    }
+
+    private double batchError(Batch batch, double[][] data, int[] inputValueOffsets)
+    {
+        double error = 0;
+        for(int from = 0; from < data.length; from += batch.capacity)
+        {
+            batch.feedForward(data, from, from + batch.capacity, inputValueOffsets);
+            for(int b = 0; b < batch.rows; b++)
+                error += Math.abs(batch.values[2][b] - data[from + b][1]);
+        }
+        return error / data.length;
+    }
+
+    @Test
+    public void testCompile() {
+        NodeLayer in = new NodeLayer(2);
+        NodeLayer a = new NodeLayer(5);
+        NodeLayer b = new NodeLayer(4);
+        NodeLayer out = new NodeLayer(1);
+        for(NodeLayer layer : Arrays.asList(a, b, out))
+        {
+            layer.transferFunction = Fn.Transfer.sigmoid(3.0);
+            layer.deltaFunction = Fn.Transfer.sigmoidD1(3.0);
+        }
+        out.transferFunction = Fn.Transfer.linear(1.0);
+        out.deltaFunction = Fn.Transfer.linearD1(1.0);
+        List<NodeLayer> system = new ArrayList<>();
+        a.addFeedingLayer(in, system);
+        b.addFeedingLayer(in, system);
+        b.addFeedingLayer(a, system);
+        out.addFeedingLayer(b, system);
+        out.addFeedingLayer(a, system);
+        List<NodeLayer> shuffled = Arrays.asList(out, b, in, a);
+
+        CompiledNetwork network = FeedForwardNetwork.compile(shuffled);
+        assertArrayEquals(new int[]{2, 3, 1, 0}, network.systemIndices);
+        assertArrayEquals(new int[]{3, 2, 1}, network.backward);
+
+        in.nodeValues = new double[]{0.3, 0.7};
+        FeedForwardNetwork.feedForward(Arrays.asList(in, a, b, out));
+        double expected = out.nodeValues[0];
+        out.nodeValues[0] = 0;
+        network.forward();
+        assertEquals(expected, out.nodeValues[0], 0.0);
+
+        double[][] lrc = new double[][]{ Doubles.fill(1, 0.1), Doubles.fill(4, 0.1), Doubles.fill(2, 0.1), Doubles.fill(5, 0.1) };
+        double[] sample = new double[]{0.3, 0.7, 0.1};
+        for(int s = 0; s < 200; s++)
+            network.train(sample, new int[]{2, -1, -1, -1}, lrc);
+        assertTrue(Math.abs(out.nodeValues[0] - 0.1) < Math.abs(expected - 0.1));
+
+        // out feeds b back; the layer fed by out is blocked by the cycle but not on it
+        b.addFeedingLayer(out, null);
+        NodeLayer c = new NodeLayer(1);
+        c.transferFunction = Fn.Transfer.linear(1.0);
+        c.deltaFunction = Fn.Transfer.linearD1(1.0);
+        c.addFeedingLayer(out, system);
+        try {
+            FeedForwardNetwork.compile(system);
+            fail("cycle not detected");
+        } catch(IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            int bx = system.indexOf(b), outx = system.indexOf(out);
+            assertTrue(e.getMessage(), e.getMessage().contains("layers " + outx + " -> " + bx + " -> " + outx + " "));
+        }
+    }
+
+    @Test
+    public void testInputFunctionApply() {
+        NodeLayer in = new NodeLayer(7);
+        NodeLayer in2 = new NodeLayer(3, true);
+        NodeLayer a = new NodeLayer(9, true);
+        a.transferFunction = Fn.Transfer.linear(1.0);
+        a.addFeedingLayer(in, null);
+        a.addFeedingLayer(in2, null);
+        Prob.fillFromU(in.nodeValues, -1, 1);
+        Prob.fillFromU(in2.nodeValues, -1, 1);
+        double[][] feedingValues = new double[][]{ in.nodeValues, in2.nodeValues };
+        for(FeedForwardNetwork.InputFunction f : Arrays.asList(FeedForwardNetwork.InputFunction.dot, FeedForwardNetwork.InputFunction.diff))
+        {
+            double[] expected = new double[9], layerWide = new double[9], batch = new double[9];
+            for(int i = 0; i < 9; i++)
+                expected[i] = f.f(a, i);
+            f.apply(a, layerWide);
+            f.apply(a, feedingValues, batch, 1);
+            assertArrayEquals(expected, layerWide, 1e-12);
+            assertArrayEquals(expected, batch, 1e-12);
+        }
+
+        // per-node functions are adapted to the layer-wide contract
+        a.inputFunction = (layer, i) -> 2.0 * FeedForwardNetwork.InputFunction.dot.f(layer, i);
+        a.feedForward();
+        for(int i = 0; i < 9; i++)
+            assertEquals(2.0 * FeedForwardNetwork.InputFunction.dot.f(a, i), a.nodeValues[i], 1e-12);
+        try {
+            a.inputFunction.apply(a, feedingValues, new double[9], 1);
+            fail("batch apply of a per-node function");
+        } catch(UnsupportedOperationException e) {
+        }
+    }
 }
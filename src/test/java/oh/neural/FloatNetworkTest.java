@@ -0,0 +1,66 @@
+package oh.neural;
+
+import java.util.List;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Compares single precision networks against the double precision path.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public class FloatNetworkTest {
+
+    @Test
+    public void testForwardMatchesDouble() {
+        List<NodeLayer> system = ModelTest.network();
+        system.get(3).deltaFunction = Fn.Transfer.linearD1(1.0);
+        CompiledNetwork network = FeedForwardNetwork.compile(system);
+        FloatNetwork floats = new FloatNetwork(network);
+        int[] inputValueOffsets = new int[]{0, -1, -1, -1};
+        double maxError = 0.0;
+        for(int s = 0; s < 1000; s++)
+        {
+            double[] in = new double[3];
+            Prob.fillFromU(in, -1, 1);
+            system.get(0).nodeValues = in.clone();
+            network.forward();
+            floats.setInputs(in, inputValueOffsets);
+            floats.forward();
+            for(int i = 0; i < 2; i++)
+                maxError = Math.max(maxError, Math.abs(system.get(3).nodeValues[i] - floats.values[3][i]));
+        }
+        System.out.println("float forward, max abs error " + maxError);
+        assertTrue(maxError < 1e-4);
+    }
+
+    @Test
+    public void testTrainingMatchesDouble() {
+        double[][][] initialWeights = new double[3][][];
+        double[][] data = ParallelTrainerTest.data(1000);
+        int[] inputValueOffsets = new int[]{0, -1, -1};
+        int[] targetValueOffsets = new int[]{-1, -1, 1};
+        double[][] lrc = new double[][]{ Doubles.fill(1, 0.05), Doubles.fill(40, 0.05), Doubles.fill(1, 0.05) };
+
+        List<NodeLayer> system = ParallelTrainerTest.network(initialWeights);
+        CompiledNetwork network = FeedForwardNetwork.compile(system);
+        List<NodeLayer> floatSystem = ParallelTrainerTest.network(initialWeights);
+        FloatNetwork floats = new FloatNetwork(floatSystem);
+        float[][] floatLrc = FloatNetwork.learningRateCoefficients(lrc);
+        double errorStart = ParallelTrainerTest.error(new Batch(network, data.length), data, inputValueOffsets, 1);
+        for(int epoch = 0; epoch < 20; epoch++)
+            for(double[] sample : data)
+            {
+                system.get(0).nodeValues[0] = sample[0];
+                network.train(sample, targetValueOffsets, lrc);
+                floats.train(sample, inputValueOffsets, targetValueOffsets, floatLrc);
+            }
+        floats.store();
+        double error = ParallelTrainerTest.error(new Batch(network, data.length), data, inputValueOffsets, 1);
+        double floatError = ParallelTrainerTest.error(new Batch(floatSystem, data.length), data, inputValueOffsets, 1);
+        System.out.println("avg error " + errorStart + " -> double " + error + ", float " + floatError);
+        assertTrue(error < errorStart);
+        assertEquals(error, floatError, 0.01 * error);
+    }
+}
@@ -0,0 +1,143 @@
+package oh.neural;
+
+import java.util.Arrays;
+import java.util.List;
+import oh.neural.Fn.Dd;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public class FnTest {
+
+    static final List<Dd> TRANSFER_FUNCTIONS = Arrays.asList(
+            Fn.Transfer.linear(1.5), Fn.Transfer.linearD1(1.5),
+            Fn.Transfer.staircase(8), Fn.Transfer.staircaseD1(8),
+            Fn.Transfer.sigmoid(3.0), Fn.Transfer.sigmoidD1(3.0),
+            Fn.Transfer.tanh(2.0), Fn.Transfer.tanhD1(2.0),
+            Fn.Transfer.softsign(), Fn.Transfer.softsignD1(),
+            Fn.Transfer.gaussian(1.5), Fn.Transfer.gaussianD1(1.5));
+
+    @Test
+    public void testApplyMatchesF() {
+        double[] in = new double[1000];
+        Prob.fillFromU(in, -5, 5);
+        in[0] = 0.0;
+        in[1] = 150.0;
+        in[2] = -150.0;
+        for(Dd f : TRANSFER_FUNCTIONS)
+        {
+            double[] expected = new double[in.length];
+            for(int i = 0; i < in.length; i++)
+                expected[i] = f.f(in[i]);
+            double[] out = new double[in.length];
+            f.apply(in, out);
+            assertArrayEquals(expected, out, 0.0);
+            double[] inPlace = in.clone();
+            f.apply(inPlace, inPlace, 0, inPlace.length);
+            assertArrayEquals(expected, inPlace, 0.0);
+        }
+    }
+
+    @Test
+    public void testFused() {
+        Dd[][] pairs = {
+            { Fn.Transfer.linearFused(1.5), Fn.Transfer.linearD1(1.5) },
+            { Fn.Transfer.tanhFused(2.0), Fn.Transfer.tanhD1(2.0) },
+            { Fn.Transfer.softsignFused(), Fn.Transfer.softsignD1() },
+            { Fn.Transfer.gaussianFused(1.5), Fn.Transfer.gaussianD1(1.5) },
+            { Fn.Transfer.fused(Fn.Transfer.staircase(8)), Fn.Transfer.staircaseD1(8) },
+        };
+        double[] in = new double[1000];
+        Prob.fillFromU(in, -5, 5);
+        for(Dd[] pair : pairs)
+        {
+            Fn.Transfer.Fused fused = (Fn.Transfer.Fused)pair[0];
+            double[] out = new double[in.length], d = new double[in.length];
+            fused.apply(in, out);
+            fused.d1(in, out, d, 0, in.length);
+            for(int i = 0; i < in.length; i++)
+            {
+                assertEquals(fused.transfer.f(in[i]), out[i], 0.0);
+                assertEquals(pair[1].f(in[i]), d[i], 1e-15);
+            }
+        }
+        // sigmoidD1 is defined on output
+        Fn.Transfer.Fused sigmoid = Fn.Transfer.sigmoidFused(3.0);
+        for(double x : in)
+            assertEquals(Fn.Transfer.sigmoidD1(3.0).f(sigmoid.f(x)), sigmoid.d1(x, sigmoid.f(x)), 0.0);
+        Fn.Transfer.Fused approximate = Fn.Transfer.fused(Fn.Transfer.tanhApproximation(2.0, 1e-5));
+        assertEquals(0.75, approximate.d1(0.3, 0.5), 0.0);
+    }
+
+    @Test
+    public void testFusedNumeric() {
+        double[] xs = { -3.0, -1.0, -0.5, -0.1, 0.1, 0.5, 1.0, 3.0 };
+        double h = 1e-3;
+        // {fused, factor, offset}: d1 = factor * f'(x) + offset, by the conventions of the D1 functions:
+        // tanh(steepness) is tanh(steepness * x / 2) and tanhD1 leaves out steepness / 2;
+        // sigmoidD1 is positive for this decreasing sigmoid and adds 0.1 against flat spots
+        Object[][] cases = {
+            { Fn.Transfer.linearFused(1.5), 1.0, 0.0 },
+            { Fn.Transfer.tanhFused(3.0), 2.0 / 3.0, 0.0 },
+            { Fn.Transfer.softsignFused(), 1.0, 0.0 },
+            { Fn.Transfer.gaussianFused(1.5), 1.0, 0.0 },
+            { Fn.Transfer.sigmoidFused(3.0), -1.0, 0.1 },
+        };
+        for(Object[] c : cases)
+        {
+            Fn.Transfer.Fused fused = (Fn.Transfer.Fused)c[0];
+            double factor = (Double)c[1], offset = (Double)c[2];
+            for(double x : xs)
+            {
+                double numeric = (fused.f(x + h) - fused.f(x - h)) / (2 * h);
+                assertEquals(fused.transfer + " at " + x, factor * numeric + offset, fused.d1(x, fused.f(x)), 1e-4);
+            }
+        }
+    }
+
+    @Test
+    public void testFloatTransfer() {
+        double[] in = new double[1000];
+        Prob.fillFromU(Rng.xoroshiro(1L), in, -5, 5, 0, in.length - 1);
+        in[0] = -1.0;
+        for(Dd f : TRANSFER_FUNCTIONS)
+        {
+            Fn.Ff ff = Fn.FloatTransfer.of(f);
+            for(double x : in)
+                assertEquals(f + " at " + x, f.f((float)x), ff.f((float)x), 1e-5 * Math.max(1.0, Math.abs(f.f((float)x))));
+        }
+    }
+
+    @Test
+    public void testApproximation() {
+        Fn.Transfer.Approximation[] approximations = {
+            Fn.Transfer.tanhApproximation(2.0, 1e-5),
+            Fn.Transfer.sigmoidApproximation(3.0, 1e-5),
+            Fn.Transfer.gaussianApproximation(1.5, 1e-6),
+            Fn.Transfer.approximate(Fn.Transfer.softsign(), -10, 10, 1e-4),
+        };
+        double[] in = new double[100000];
+        Prob.fillFromU(in, -30, 30);
+        for(Fn.Transfer.Approximation a : approximations)
+        {
+            System.out.println("approximation over [" + a.min + ", " + a.max + "], "
+                    + a.table.length + " entries, max error " + a.maxError);
+            double[] out = new double[in.length];
+            a.apply(in, out);
+            double error = 0.0;
+            for(int i = 0; i < in.length; i++)
+            {
+                assertEquals(a.f(in[i]), out[i], 0.0);
+                error = Math.max(error, Math.abs(out[i] - a.exact.f(in[i])));
+                if (in[i] < a.min || in[i] > a.max)
+                    assertEquals(a.exact.f(in[i]), out[i], 0.0);
+            }
+            assertTrue("error " + error, error <= 1.5 * a.maxError);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package oh.neural;
+
+import java.util.List;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+import org.junit.Test;
+import static org.junit.Assert.assertTrue;
+
+/** Hogwild training of seeded data and weights converges, on one thread and on several.
+ * Convergence per wall-clock second is compared by HogwildBenchmark.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public class HogwildTrainerTest {
+
+    @Test
+    public void testConverging() {
+        double[][][] initialWeights = new double[3][][];
+        double[][] data = ParallelTrainerTest.data(1000);
+        int[] inputValueOffsets = new int[]{0, -1, -1};
+        int[] targetValueOffsets = new int[]{-1, -1, 1};
+        double[][] lrc = new double[][]{ Doubles.fill(1, 0.05), Doubles.fill(40, 0.05), Doubles.fill(1, 0.05) };
+
+        for(int threads : new int[]{1, 4})
+        {
+            List<NodeLayer> system = ParallelTrainerTest.network(initialWeights);
+            CompiledNetwork network = FeedForwardNetwork.compile(system);
+            HogwildTrainer trainer = new HogwildTrainer(network, threads, 7L);
+            Batch eval = new Batch(network, data.length);
+            double errorStart = ParallelTrainerTest.error(eval, data, inputValueOffsets, 1);
+            try {
+                for(int epoch = 0; epoch < 20; epoch++)
+                    trainer.trainEpoch(data, inputValueOffsets, targetValueOffsets, lrc);
+            } finally {
+                trainer.shutdown();
+            }
+            double errorEnd = ParallelTrainerTest.error(eval, data, inputValueOffsets, 1);
+            System.out.println("hogwild, " + threads + " thread(s), avg error " + errorStart + " -> " + errorEnd);
+            assertTrue(errorEnd < Math.min(errorStart, 0.2));
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package oh.neural;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Compares kernels in use against the scalar implementation, across lengths and offsets.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public class KernelsTest {
+
+    @Test
+    public void testAgainstScalar() {
+        System.out.println("kernels: " + Kernels.implementation());
+        Kernels.Scalar scalar = new Kernels.Scalar();
+        for(int length = 0; length < 70; length++)
+            for(int offset = 0; offset < 3; offset++)
+            {
+                double[] x = new double[length + offset], y = new double[length + 2 * offset];
+                Prob.fillFromU(x, -1, 1);
+                Prob.fillFromU(y, -1, 1);
+                assertEquals(scalar.dot(x, offset, y, 2 * offset, length),
+                        Kernels.dot(x, offset, y, 2 * offset, length), 1e-12);
+                assertEquals(scalar.squaredDistance(x, offset, y, 2 * offset, length),
+                        Kernels.squaredDistance(x, offset, y, 2 * offset, length), 1e-12);
+                double[] expected = y.clone();
+                scalar.axpy(0.3, x, offset, expected, 2 * offset, length);
+                Kernels.axpy(0.3, x, offset, y, 2 * offset, length);
+                assertArrayEquals(expected, y, 0.0);
+                assertTrue(Kernels.isFinite(y, 0, y.length));
+                if (length > 0)
+                {
+                    y[2 * offset + length - 1] = Double.NaN;
+                    assertFalse(Kernels.isFinite(y, 2 * offset, length));
+                    y[2 * offset + length - 1] = Double.NEGATIVE_INFINITY;
+                    assertFalse(Kernels.isFinite(y, 2 * offset, length));
+                }
+
+                float[] fx = new float[length + offset], fy = new float[length + offset];
+                for(int i = 0; i < fx.length; i++)
+                {
+                    fx[i] = (float)x[i];
+                    fy[i] = (float)y[i] / 2f;
+                }
+                assertEquals(scalar.dot(fx, offset, fy, offset, length),
+                        Kernels.dot(fx, offset, fy, offset, length), 1e-4);
+                assertEquals(scalar.squaredDistance(fx, offset, fy, offset, length),
+                        Kernels.squaredDistance(fx, offset, fy, offset, length), 1e-4);
+            }
+    }
+
+    @Test
+    public void testElementWise() {
+        double[] a = new double[37], b = new double[37];
+        Prob.fillFromU(a, -1, 1);
+        Prob.fillFromU(b, 1, 2);
+        double[] sum = Doubles.add(a, b), difference = Doubles.sub(a, b), product = Doubles.dot(a, b);
+        double[] scaled = Doubles.mul(a, 3.0), linear = new double[a.length];
+        Fn.Transfer.linear(3.0).apply(a, linear);
+        for(int i = 0; i < a.length; i++)
+        {
+            assertEquals(a[i] + b[i], sum[i], 0.0);
+            assertEquals(a[i] - b[i], difference[i], 0.0);
+            assertEquals(a[i] * b[i], product[i], 0.0);
+            assertEquals(a[i] * 3.0, scaled[i], 0.0);
+            assertEquals(a[i] * 3.0, linear[i], 0.0);
+        }
+    }
+}
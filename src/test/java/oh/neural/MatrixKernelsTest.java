@@ -0,0 +1,76 @@
+package oh.neural;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+
+/** Compares blocked matrix products against plain loops, for flat and jagged weights,
+ * with sizes that are not multiples of the register and cache blocks.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public class MatrixKernelsTest {
+
+    static WeightMatrix matrix(int rows, int cols, boolean flat)
+    {
+        WeightMatrix w = flat ? WeightMatrix.flat(rows, cols) : WeightMatrix.wrap(new double[rows][cols]);
+        for(int i = 0; i < rows; i++)
+            for(int j = 0; j < cols; j++)
+                w.set(i, j, Math.random() - 0.5);
+        return w;
+    }
+
+    static double[] random(int length)
+    {
+        double[] x = new double[length];
+        Prob.fillFromU(x, -1, 1);
+        return x;
+    }
+
+    @Test
+    public void testAgainstLoops() {
+        int[][] sizes = { {1, 1}, {3, 7}, {4, 4}, {9, 13}, {6, MatrixKernels.COLUMN_BLOCK + 5} };
+        for(int[] size : sizes)
+            for(boolean flat : new boolean[]{ true, false })
+            {
+                int n = size[0], m = size[1], rows = 5;
+                WeightMatrix w = matrix(n, m, flat);
+                double[] x = random(rows * m), e = random(rows * n);
+                double[] y = new double[rows * n], distances = new double[rows * n], t = new double[rows * m];
+                double[] g = new double[n * m];
+                double[] expectedY = new double[rows * n], expectedDistances = new double[rows * n];
+                double[] expectedT = new double[rows * m], expectedG = new double[n * m];
+                for(int b = 0; b < rows; b++)
+                    for(int i = 0; i < n; i++)
+                        for(int j = 0; j < m; j++)
+                        {
+                            double delta = x[b * m + j] - w.get(i, j);
+                            expectedY[b * n + i] += w.get(i, j) * x[b * m + j];
+                            expectedDistances[b * n + i] += delta * delta;
+                            expectedT[b * m + j] += w.get(i, j) * e[b * n + i];
+                            expectedG[i * m + j] += e[b * n + i] * x[b * m + j];
+                        }
+
+                MatrixKernels.multiply(w, x, y, rows);
+                MatrixKernels.squaredDistances(w, x, distances, rows);
+                MatrixKernels.multiplyTransposed(w, e, t, rows);
+                MatrixKernels.addOuterProducts(e, n, x, m, g, rows);
+                assertArrayEquals(expectedY, y, 1e-10);
+                assertArrayEquals(expectedDistances, distances, 1e-10);
+                assertArrayEquals(expectedT, t, 1e-10);
+                assertArrayEquals(expectedG, g, 1e-10);
+
+                double[] y1 = new double[n + 1], t1 = new double[m + 2];
+                double[] d1 = new double[n + 1];
+                MatrixKernels.multiply(w, x, m, y1, 1);
+                MatrixKernels.squaredDistances(w, x, m, d1, 1);
+                MatrixKernels.multiplyTransposed(w, e, n, t1, 2);
+                for(int i = 0; i < n; i++)
+                {
+                    assertArrayEquals(new double[]{ expectedY[n + i] }, new double[]{ y1[1 + i] }, 1e-10);
+                    assertArrayEquals(new double[]{ expectedDistances[n + i] }, new double[]{ d1[1 + i] }, 1e-10);
+                }
+                for(int j = 0; j < m; j++)
+                    assertArrayEquals(new double[]{ expectedT[m + j] }, new double[]{ t1[2 + j] }, 1e-10);
+            }
+    }
+}
@@ -0,0 +1,90 @@
+package oh.neural;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public class ModelTest {
+
+    static List<NodeLayer> network()
+    {
+        NodeLayer in = new NodeLayer(3);
+        NodeLayer a = new NodeLayer(20, true);
+        NodeLayer b = new NodeLayer(10);
+        NodeLayer out = new NodeLayer(2);
+        a.transferFunction = Fn.Transfer.tanh(2.0);
+        b.transferFunction = Fn.Transfer.gaussian(1.5);
+        b.inputFunction = FeedForwardNetwork.InputFunction.diff;
+        out.transferFunction = Fn.Transfer.linear(1.0);
+        List<NodeLayer> system = new ArrayList<>();
+        a.addFeedingLayer(in, system);
+        b.addFeedingLayer(a, system);
+        out.addFeedingLayer(b, system);
+        out.addFeedingLayer(a, system);
+        return system;
+    }
+
+    @Test
+    public void testConcurrentPredict() throws Exception {
+        final List<NodeLayer> system = network();
+        final Model model = Model.snapshot(system);
+        final double[][] inputs = new double[500][3];
+        final double[][] expected = new double[inputs.length][];
+        for(int s = 0; s < inputs.length; s++)
+        {
+            Prob.fillFromU(inputs[s], -1, 1);
+            system.get(0).nodeValues = inputs[s].clone();
+            FeedForwardNetwork.feedForward(system);
+            expected[s] = system.get(system.size() - 1).nodeValues.clone();
+        }
+        // later changes to layers do not affect the snapshot
+        system.get(1).weights[0].set(0, 0, 100.0);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<double[][]>> results = new ArrayList<>();
+        for(int t = 0; t < 8; t++)
+            results.add(executor.submit(() -> {
+                double[][] out = new double[inputs.length][model.outputSize];
+                Model.Workspace ws = model.newWorkspace();
+                for(int s = 0; s < inputs.length; s++)
+                    model.predict(inputs[s], out[s], ws);
+                return out;
+            }));
+        for(Future<double[][]> result : results)
+            for(int s = 0; s < inputs.length; s++)
+                assertArrayEquals(expected[s], result.get()[s], 1e-12);
+        executor.shutdown();
+        assertArrayEquals(expected[0], model.predict(inputs[0], new double[2]), 1e-12);
+    }
+
+    @Test
+    public void testOffHeapSnapshot() {
+        List<NodeLayer> system = network();
+        CompiledNetwork network = FeedForwardNetwork.compile(system);
+        Model heap = Model.snapshot(network, false);
+        Model direct = Model.snapshot(network, true);
+        assertFalse(heap.isOffHeap());
+        assertTrue(direct.isOffHeap());
+        for(int s = 0; s < 100; s++)
+        {
+            double[] in = new double[heap.inputSize];
+            Prob.fillFromU(in, -1, 1);
+            assertArrayEquals(heap.predict(in, new double[2]), direct.predict(in, new double[2]), 0.0);
+        }
+        // nothing is off heap in a model without weights
+        List<NodeLayer> inputOnly = new ArrayList<>();
+        inputOnly.add(new NodeLayer(3, true));
+        assertFalse(Model.snapshot(FeedForwardNetwork.compile(inputOnly), true).isOffHeap());
+    }
+}
@@ -0,0 +1,47 @@
+package oh.neural;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public class NetworkFileTest {
+
+    @Test
+    public void testWriteMapRead() throws Exception {
+        List<NodeLayer> system = ModelTest.network();
+        system.get(2).deltaFunction = Fn.Transfer.gaussianD1(1.5);
+        system.get(1).transferFunction = Fn.Transfer.tanhFused(2.0);
+        Model snapshot = Model.snapshot(system);
+        Path path = Files.createTempFile("network", ".ohnn");
+        try {
+            NetworkFile.write(system, path);
+            assertEquals(0, Files.size(path) % 8);
+            Model mapped = NetworkFile.map(path);
+            assertTrue(mapped.isOffHeap());
+            List<NodeLayer> read = NetworkFile.read(path);
+            Model readSnapshot = Model.snapshot(read);
+            assertEquals(system.size(), read.size());
+            assertEquals(1.5, ((Fn.Partials.PartialDXdd)read.get(2).deltaFunction).param, 0.0);
+            assertTrue(read.get(1).transferFunction instanceof Fn.Transfer.Fused);
+            for(int s = 0; s < 100; s++)
+            {
+                double[] in = new double[snapshot.inputSize];
+                Prob.fillFromU(in, -1, 1);
+                double[] expected = snapshot.predict(in, new double[snapshot.outputSize]);
+                assertArrayEquals(expected, mapped.predict(in, new double[mapped.outputSize]), 0.0);
+                assertArrayEquals(expected, readSnapshot.predict(in, new double[readSnapshot.outputSize]), 0.0);
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package oh.neural;
+
+import java.util.List;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public class OptimizerTest {
+
+    static final int[] inputValueOffsets = new int[]{0, -1, -1};
+    static final int[] targetValueOffsets = new int[]{-1, -1, 1};
+
+    static double[][] lrc(double rate)
+    {
+        return new double[][]{ Doubles.fill(1, rate), Doubles.fill(40, rate), Doubles.fill(1, rate) };
+    }
+
+    static void step(Batch batch, double[][] data, int from, int to, double[][] lrc)
+    {
+        batch.feedForward(data, from, to, inputValueOffsets);
+        batch.accumulateGradients(data, from, targetValueOffsets);
+        batch.applyGradients(lrc);
+    }
+
+    @Test
+    public void testSgdEqualsPlainUpdate() {
+        double[][][] initialWeights = new double[3][][];
+        double[][] data = ParallelTrainerTest.data(256);
+        double[][] lrc = lrc(0.3);
+
+        double[][] result = null;
+        for(int run = 0; run < 2; run++)
+        {
+            List<NodeLayer> system = ParallelTrainerTest.network(initialWeights);
+            CompiledNetwork network = FeedForwardNetwork.compile(system);
+            if (run == 1)
+                network.optimizer = Optimizer.sgd(system);
+            Batch batch = new Batch(network, 32);
+            for(int from = 0; from < data.length; from += 32)
+                step(batch, data, from, from + 32, lrc);
+            double[][] weights = system.get(1).weights[0].toArray();
+            if (result != null)
+                for(int i = 0; i < weights.length; i++)
+                    assertArrayEquals(result[i], weights[i], 0.0);
+            result = weights;
+        }
+    }
+
+    @Test
+    public void testFirstSteps() {
+        double[][][] initialWeights = new double[3][][];
+        double[][] data = ParallelTrainerTest.data(64);
+        double rate = 0.01;
+        List<NodeLayer> system = ParallelTrainerTest.network(initialWeights);
+        CompiledNetwork network = FeedForwardNetwork.compile(system);
+        WeightMatrix w = system.get(2).weights[0];
+
+        // the first bias-corrected Adam step moves each weight by about rate, in the direction of its gradient
+        network.optimizer = Optimizer.adam(system, 0.9, 0.999, 1e-8);
+        Batch batch = new Batch(network, data.length);
+        batch.feedForward(data, 0, data.length, inputValueOffsets);
+        batch.accumulateGradients(data, 0, targetValueOffsets);
+        double[] g = batch.gradients[2][0].clone();
+        double[] before = w.toArray()[0];
+        batch.applyGradients(lrc(rate));
+        double[] after = w.toArray()[0];
+        for(int j = 0; j < g.length; j++)
+            if (Math.abs(g[j]) > 1e-3)
+                assertEquals(rate * Math.signum(g[j]), after[j] - before[j], rate * 1e-3);
+
+        // momentum: the second step of the same gradient moves weights (1 + momentum) times as far as the first
+        network.optimizer = Optimizer.momentum(system, 0.5);
+        double[] s = new double[3];
+        for(int t = 0; t < 2; t++)
+        {
+            double[] from = w.toArray()[0];
+            Kernels.axpy(1.0, g, 0, batch.gradients[2][0], 0, g.length);
+            batch.gradientRows = 1;
+            batch.applyGradients(lrc(rate));
+            double[] to = w.toArray()[0];
+            s[t] = to[0] - from[0];
+        }
+        assertEquals(rate * g[0], s[0], 1e-12);
+        assertEquals(1.5 * s[0], s[1], 1e-12);
+
+        network.optimizer.reset();
+        assertEquals(0L, network.optimizer.steps);
+        assertEquals(0.0, network.optimizer.first[2][0][0], 0.0);
+    }
+
+    @Test
+    public void testAdamWDecaysWeightsOnly() {
+        List<NodeLayer> system = ParallelTrainerTest.network(new double[3][][]);
+        system.get(2).addBiases();
+        system.get(2).biases[0] = 0.5;
+        CompiledNetwork network = FeedForwardNetwork.compile(system);
+        network.optimizer = Optimizer.adamW(system, 0.9, 0.999, 1e-8, 0.1);
+        Batch batch = new Batch(network, 1);
+        WeightMatrix w = system.get(2).weights[0];
+        double[] before = w.toArray()[0];
+
+        // with zero gradients only the decay moves weights
+        batch.gradientRows = 1;
+        batch.applyGradients(lrc(0.01));
+        double[] after = w.toArray()[0];
+        for(int j = 0; j < before.length; j++)
+            assertEquals(before[j] * (1.0 - 0.01 * 0.1), after[j], 1e-15);
+        assertEquals(0.5, system.get(2).biases[0], 0.0);
+    }
+
+    @Test
+    public void testConvergingAndDeterministic() {
+        double[][][] initialWeights = new double[3][][];
+        double[][] data = ParallelTrainerTest.data(1000);
+        String[] names = { "momentum", "nesterov", "rmsProp", "adam", "adamW" };
+        double[] rates = { 0.1, 0.1, 0.003, 0.003, 0.003 };
+        for(int o = 0; o < names.length; o++)
+        {
+            double[][] result = null;
+            for(int run = 0; run < 2; run++)
+            {
+                List<NodeLayer> system = ParallelTrainerTest.network(initialWeights);
+                CompiledNetwork network = FeedForwardNetwork.compile(system);
+                network.optimizer = optimizer(names[o], system);
+                ParallelTrainer trainer = new ParallelTrainer(network, 2, 64, 7L);
+                Batch eval = new Batch(network, data.length);
+                double errorStart = ParallelTrainerTest.error(eval, data, inputValueOffsets, 1);
+                for(int epoch = 0; epoch < 100; epoch++)
+                    trainer.trainEpoch(data, inputValueOffsets, targetValueOffsets, lrc(rates[o]));
+                trainer.shutdown();
+                double errorEnd = ParallelTrainerTest.error(eval, data, inputValueOffsets, 1);
+                System.out.println(names[o] + " avg error " + errorStart + " -> " + errorEnd);
+                assertTrue(errorEnd < Math.min(errorStart, 0.2));
+
+                double[][] weights = system.get(1).weights[0].toArray();
+                if (result != null)
+                    for(int i = 0; i < weights.length; i++)
+                        assertArrayEquals(result[i], weights[i], 0.0);
+                result = weights;
+            }
+        }
+    }
+
+    static Optimizer optimizer(String name, List<NodeLayer> system)
+    {
+        switch(name)
+        {
+            case "momentum": return Optimizer.momentum(system, 0.9);
+            case "nesterov": return Optimizer.nesterov(system, 0.9);
+            case "rmsProp": return Optimizer.rmsProp(system, 0.9, 1e-8);
+            case "adam": return Optimizer.adam(system, 0.9, 0.999, 1e-8);
+            default: return Optimizer.adamW(system, 0.9, 0.999, 1e-8, 1e-4);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package oh.neural;
+
+import java.util.ArrayList;
+import java.util.List;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public class ParallelTrainerTest {
+
+    /** Seed of data and initial weights, so that bounds on convergence hold on every run */
+    static final long SEED = 7L;
+
+    static List<NodeLayer> network(double[][][] initialWeights)
+    {
+        NodeLayer in = new NodeLayer(1, true);
+        NodeLayer a = new NodeLayer(40, true);
+        NodeLayer out = new NodeLayer(1, true);
+        a.transferFunction = Fn.Transfer.tanh(2.0);
+        a.deltaFunction = Fn.Transfer.tanhD1(2.0);
+        out.transferFunction = Fn.Transfer.linear(1.0);
+        out.deltaFunction = Fn.Transfer.linearD1(1.0);
+        Rng random = Rng.xoroshiro(SEED);
+        a.random = random.split();
+        out.random = random.split();
+        List<NodeLayer> system = new ArrayList<>();
+        a.addFeedingLayer(in, system);
+        out.addFeedingLayer(a, system);
+        for(int x = 1; x < system.size(); x++)
+        {
+            WeightMatrix w = system.get(x).weights[0];
+            if (initialWeights[x] == null)
+                initialWeights[x] = w.toArray();
+            for(int i = 0; i < w.rows; i++)
+                for(int j = 0; j < w.cols; j++)
+                    w.set(i, j, initialWeights[x][i][j]);
+        }
+        return system;
+    }
+
+    static double[][] data(int size)
+    {
+        Rng random = Rng.xoroshiro(SEED);
+        double[][] data = new double[size][];
+        for(int i = 0; i < data.length; i++)
+        {
+            double x = random.nextDouble();
+            data[i] = new double[]{ x, 1 - (x * x + Math.sin(x*10)*0.2) };
+        }
+        return data;
+    }
+
+    @Test
+    public void testDeterministicAndConverging() {
+        double[][][] initialWeights = new double[3][][];
+        double[][] data = data(1000);
+        int[] inputValueOffsets = new int[]{0, -1, -1};
+        int[] targetValueOffsets = new int[]{-1, -1, 1};
+        double[][] lrc = new double[][]{ Doubles.fill(1, 0.3), Doubles.fill(40, 0.3), Doubles.fill(1, 0.3) };
+
+        double[][] result = null;
+        for(int run = 0; run < 2; run++)
+        {
+            List<NodeLayer> system = network(initialWeights);
+            CompiledNetwork network = FeedForwardNetwork.compile(system);
+            ParallelTrainer trainer = new ParallelTrainer(network, 4, 64, 7L);
+            Batch eval = new Batch(network, data.length);
+            double errorStart = error(eval, data, inputValueOffsets, 1);
+            for(int epoch = 0; epoch < 300; epoch++)
+                trainer.trainEpoch(data, inputValueOffsets, targetValueOffsets, lrc);
+            trainer.shutdown();
+            double errorEnd = error(eval, data, inputValueOffsets, 1);
+            System.out.println("parallel avg error " + errorStart + " -> " + errorEnd);
+            assertTrue(errorEnd < Math.min(errorStart, 0.2));
+
+            double[][] weights = system.get(1).weights[0].toArray();
+            if (result != null)
+                for(int i = 0; i < weights.length; i++)
+                    assertArrayEquals(result[i], weights[i], 0.0);
+            result = weights;
+        }
+    }
+
+    static double error(Batch batch, double[][] data, int[] inputValueOffsets, int target)
+    {
+        batch.feedForward(data, 0, data.length, inputValueOffsets);
+        double error = 0;
+        for(int b = 0; b < batch.rows; b++)
+            error += Math.abs(batch.values[2][b] - data[b][target]);
+        return error / data.length;
+    }
+}
@@ -0,0 +1,80 @@
+package oh.neural;
+
+import java.util.List;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Reproducibility of seeded generators, and moments of the distributions filled by Prob.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public class RngTest {
+
+    @Test
+    public void testGenerators() {
+        for(Rng random : new Rng[]{ Rng.xoroshiro(42L), Rng.splittable(42L), Rng.current() })
+        {
+            double[] u = new double[100000];
+            Prob.fillFromU(random, u, -1, 3, 0, u.length - 1);
+            double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+            for(double v : u)
+            {
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            assertTrue(min >= -1 && max < 3);
+            assertEquals(1.0, Doubles.sum(u) / u.length, 0.02);
+
+            double[] n = new double[100001];
+            Prob.fillFromN(random, n, 2, 0.5, 0, n.length - 1);
+            assertEquals(2.0, Doubles.sum(n) / n.length, 0.01);
+            assertEquals(0.25, Doubles.sum(Doubles.sqr(Doubles.sub(n, 2.0))) / n.length, 0.01);
+
+            Prob.fillFromTruncatedN(random, n, 2, 0.5, 0, n.length - 1);
+            for(double v : n)
+                assertTrue(Math.abs(v - 2.0) <= 1.0);
+            // variance of a normal truncated at 2 sd is 0.774 sd^2
+            assertEquals(0.774 * 0.25, Doubles.sum(Doubles.sqr(Doubles.sub(n, 2.0))) / n.length, 0.005);
+
+            int[] counts = new int[7];
+            for(int i = 0; i < 70000; i++)
+                counts[random.nextInt(7)]++;
+            for(int c : counts)
+                assertEquals(10000, c, 400);
+        }
+
+        Rng a = Rng.xoroshiro(7L), b = Rng.xoroshiro(7L);
+        for(int i = 0; i < 100; i++)
+            assertEquals(a.nextLong(), b.nextLong());
+        Rng c = a.split(), d = a.split();
+        assertFalse(c.nextLong() == d.nextLong());
+        assertFalse(Rng.xoroshiro(7L).nextLong() == Rng.xoroshiro(8L).nextLong());
+    }
+
+    @Test
+    public void testSeededWeights() {
+        List<NodeLayer> first = ModelTest.network(), second = ModelTest.network();
+        FeedForwardNetwork.resetWeights(first, 5L);
+        FeedForwardNetwork.resetWeights(second, 5L);
+        for(int x = 0; x < first.size(); x++)
+            for(int k = 0; k < first.get(x).weights.length; k++)
+            {
+                double[][] w = first.get(x).weights[k].toArray();
+                for(int i = 0; i < w.length; i++)
+                    assertArrayEquals(w[i], second.get(x).weights[k].toArray()[i], 0.0);
+            }
+
+        NodeLayer in = new NodeLayer(3), out = new NodeLayer(2, true);
+        NodeLayer in2 = new NodeLayer(3), out2 = new NodeLayer(2);
+        out.transferFunction = out2.transferFunction = Fn.Transfer.tanh(1.0);
+        out.random = Rng.xoroshiro(9L);
+        out.addFeedingLayer(in, null);
+        out2.random = Rng.xoroshiro(9L);
+        out2.addFeedingLayer(in2, null);
+        assertArrayEquals(out.weights[0].toArray()[1], out2.weights[0].toArray()[1], 0.0);
+    }
+}
@@ -0,0 +1,186 @@
+package oh.neural;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Streams binary and CSV files with a chunk size that does not divide the row count.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public class SampleStreamTest {
+
+    static double[][] samples(int rows, int columns)
+    {
+        double[][] samples = new double[rows][columns];
+        for(double[] sample : samples)
+            Prob.fillFromU(sample, -1000, 1000);
+        samples[0][0] = 0.1;
+        samples[0][1] = -2.5e-300;
+        samples[1][0] = 123456789.0123456789;
+        samples[1][1] = -0.0;
+        return samples;
+    }
+
+    static void assertStream(double[][] expected, SampleStream stream) throws IOException
+    {
+        int row = 0;
+        for(SampleStream.Chunk chunk = stream.next(); chunk != null; chunk = stream.next())
+            for(int r = 0; r < chunk.count; r++)
+                assertArrayEquals(expected[row++], chunk.rows[r], 0.0);
+        assertEquals(expected.length, row);
+        assertNull(stream.next());
+    }
+
+    @Test
+    public void testBinaryAndCsv() throws Exception {
+        double[][] samples = samples(1000, 5);
+        Path binary = Files.createTempFile("samples", ".bin");
+        Path csv = Files.createTempFile("samples", ".csv");
+        try {
+            SampleStream.writeBinary(samples, binary);
+            List<String> lines = new ArrayList<>();
+            for(double[] sample : samples)
+            {
+                StringBuilder line = new StringBuilder();
+                for(double d : sample)
+                    line.append(line.length() == 0 ? "" : ",").append(d);
+                lines.add(line.toString());
+            }
+            lines.add("");
+            Files.write(csv, String.join("\r\n", lines).getBytes(StandardCharsets.US_ASCII));
+            try(SampleStream stream = SampleStream.binary(binary, 5, 64)) {
+                assertStream(samples, stream);
+            }
+            try(SampleStream stream = SampleStream.csv(csv, 5, 64)) {
+                assertStream(samples, stream);
+            }
+            try(SampleStream stream = SampleStream.binary(binary, 5, 1000)) {
+                assertStream(samples, stream);
+            }
+
+            Files.write(csv, "1,2,3\n4,5\n".getBytes(StandardCharsets.US_ASCII));
+            try(SampleStream stream = SampleStream.csv(csv, 3, 10)) {
+                stream.next();
+                fail();
+            } catch(IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("line 2"));
+            }
+            // closing before the end stops the reader
+            SampleStream.binary(binary, 5, 10).close();
+        } finally {
+            Files.deleteIfExists(binary);
+            Files.deleteIfExists(csv);
+        }
+    }
+
+    /** A failing reader ends the stream with an exception instead of leaving next() waiting */
+    @Test(timeout = 10000)
+    public void testReaderFailure() throws Exception {
+        Path csv = Files.createTempFile("samples", ".csv");
+        Path binary = Files.createTempFile("samples", ".bin");
+        try {
+            StringBuilder lines = new StringBuilder();
+            for(int i = 0; i < 25; i++)
+                lines.append(i).append(",1,2\n");
+            lines.append("25,1,x\n26,1,2\n");
+            Files.write(csv, lines.toString().getBytes(StandardCharsets.US_ASCII));
+            try(SampleStream stream = SampleStream.csv(csv, 3, 10)) {
+                assertEquals(10, stream.next().count);
+                assertEquals(10, stream.next().count);
+                stream.next();
+                fail("malformed row not detected");
+            } catch(IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("line 26"));
+            }
+
+            // a runtime exception in the reader, here from a chunk row the caller broke
+            SampleStream.writeBinary(samples(100, 2), binary);
+            try(SampleStream stream = SampleStream.binary(binary, 2, 10)) {
+                stream.next().rows[0] = null;
+                for(int i = 0; i < 10; i++)
+                    stream.next();
+                fail("reader failure not reported");
+            } catch(IOException e) {
+                assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof NullPointerException);
+            }
+        } finally {
+            Files.deleteIfExists(csv);
+            Files.deleteIfExists(binary);
+        }
+    }
+
+    @Test
+    public void testParseDouble() {
+        String[] numbers = { "0", "-0", "1", "+1.5", ".5", "5.", "0.1", "1e22", "1e23", "123456789012345",
+            "1234567890123456789", "0.000001234", "1.7976931348623157E308", "4.9E-324", "-3.25e-7",
+            "NaN", "Infinity", "2.2250738585072014E-308", "9007199254740993" };
+        for(String n : numbers)
+        {
+            byte[] b = n.getBytes(StandardCharsets.US_ASCII);
+            assertEquals(n, Double.parseDouble(n), SampleStream.parseDouble(b, 0, b.length), 0.0);
+            assertEquals(n, Double.doubleToRawLongBits(Double.parseDouble(n)),
+                    Double.doubleToRawLongBits(SampleStream.parseDouble(b, 0, b.length)));
+        }
+        for(int i = 0; i < 100000; i++)
+        {
+            String n = Double.toString((Math.random() - 0.5) * Math.pow(10, (int)(Math.random() * 20) - 10));
+            byte[] b = n.getBytes(StandardCharsets.US_ASCII);
+            assertEquals(n, Double.doubleToRawLongBits(Double.parseDouble(n)),
+                    Double.doubleToRawLongBits(SampleStream.parseDouble(b, 0, b.length)));
+        }
+    }
+
+    @Test
+    public void testTrainFromStream() throws Exception {
+        List<FeedForwardNetwork.NodeLayer> system = ModelTest.network();
+        for(FeedForwardNetwork.NodeLayer layer : system.subList(1, system.size()))
+            layer.transferFunction = Fn.Transfer.fused(layer.transferFunction);
+        CompiledNetwork network = FeedForwardNetwork.compile(system);
+        double[][] samples = new double[2000][5];
+        for(double[] sample : samples)
+        {
+            Prob.fillFromU(sample, -1, 1);
+            sample[3] = sample[0] * sample[1];
+            sample[4] = sample[2] * 0.5;
+        }
+        int[] inputValueOffsets = new int[]{ 0, -1, -1, -1 };
+        int[] targetValueOffsets = new int[]{ -1, -1, -1, 3 };
+        double[][] lrc = new double[system.size()][];
+        for(int x = 0; x < lrc.length; x++)
+            lrc[x] = Doubles.fill(system.get(x).size(), 0.05);
+        Model before = Model.snapshot(network);
+        Path binary = Files.createTempFile("samples", ".bin");
+        ParallelTrainer trainer = new ParallelTrainer(network, 2, 16, 1L);
+        try {
+            SampleStream.writeBinary(samples, binary);
+            for(int epoch = 0; epoch < 20; epoch++)
+                try(SampleStream stream = SampleStream.binary(binary, 5, 300)) {
+                    trainer.train(stream, inputValueOffsets, targetValueOffsets, lrc);
+                }
+        } finally {
+            trainer.shutdown();
+            Files.deleteIfExists(binary);
+        }
+        Model after = Model.snapshot(network);
+        double errorBefore = 0, errorAfter = 0;
+        for(double[] sample : samples)
+        {
+            double[] in = new double[]{ sample[0], sample[1], sample[2] };
+            double[] a = before.predict(in, new double[2]), b = after.predict(in, new double[2]);
+            errorBefore += Math.abs(a[0] - sample[3]) + Math.abs(a[1] - sample[4]);
+            errorAfter += Math.abs(b[0] - sample[3]) + Math.abs(b[1] - sample[4]);
+        }
+        System.out.println("stream training error " + errorBefore / samples.length + " -> " + errorAfter / samples.length);
+        assertTrue(errorAfter < errorBefore);
+    }
+}
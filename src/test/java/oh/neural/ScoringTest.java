@@ -0,0 +1,109 @@
+package oh.neural;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Scores a file in parallel chunks and compares results, in order, with Model.predict.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public class ScoringTest {
+
+    @Test
+    public void testScore() throws Exception {
+        Model model = Model.snapshot(ModelTest.network());
+        double[][] samples = SampleStreamTest.samples(1000, 4);
+        double[][] expected = new double[samples.length][];
+        for(int r = 0; r < samples.length; r++)
+        {
+            double[] in = new double[]{ samples[r][1], samples[r][2], samples[r][3] };
+            expected[r] = model.predict(in, new double[model.outputSize]);
+        }
+        Path input = Files.createTempFile("samples", ".bin");
+        Path binary = Files.createTempFile("scores", ".bin");
+        Path csv = Files.createTempFile("scores", ".csv");
+        try(Scoring scoring = new Scoring(model, 3)) {
+            SampleStream.writeBinary(samples, input);
+            try(SampleStream in = SampleStream.binary(input, 4, 64);
+                    Scoring.Output out = Scoring.Output.binary(binary)) {
+                Scoring.Report report = scoring.score(in, 1, out);
+                System.out.println("scoring " + report);
+                assertEquals(samples.length, report.rows);
+            }
+            try(SampleStream in = SampleStream.binary(binary, model.outputSize, 100)) {
+                SampleStreamTest.assertStream(expected, in);
+            }
+            try(SampleStream in = SampleStream.binary(input, 4, 1000);
+                    Scoring.Output out = Scoring.Output.csv(csv, 4)) {
+                scoring.score(in, 1, out);
+            }
+            List<String> lines = Files.readAllLines(csv, StandardCharsets.US_ASCII);
+            assertEquals(samples.length, lines.size());
+            for(int r = 0; r < samples.length; r++)
+            {
+                String[] values = lines.get(r).split(",");
+                assertEquals(model.outputSize, values.length);
+                for(int j = 0; j < values.length; j++)
+                    assertEquals(expected[r][j], Double.parseDouble(values[j]), 0.50001e-4);
+            }
+        } finally {
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(binary);
+            Files.deleteIfExists(csv);
+        }
+    }
+
+    @Test
+    public void testLongestCsvValues() throws Exception {
+        Path csv = Files.createTempFile("scores", ".csv");
+        try {
+            try {
+                Scoring.Output.csv(csv, Scoring.MAX_DECIMALS + 1);
+                fail();
+            } catch(IllegalArgumentException expected) {
+            }
+            // thousands of the longest values, through several flushes
+            double[] values = new double[2000];
+            for(int i = 0; i < values.length; i++)
+                values[i] = i % 2 == 0 ? -Double.MAX_VALUE : Double.MAX_VALUE;
+            try(Scoring.Output out = Scoring.Output.csv(csv, Scoring.MAX_DECIMALS)) {
+                out.write(values, 1000, 2);
+            }
+            List<String> lines = Files.readAllLines(csv, StandardCharsets.US_ASCII);
+            assertEquals(1000, lines.size());
+            assertEquals(String.format(Locale.ROOT, "%." + Scoring.MAX_DECIMALS + "f", -Double.MAX_VALUE), 
+                    lines.get(999).split(",")[0]);
+        } finally {
+            Files.deleteIfExists(csv);
+        }
+    }
+
+    @Test
+    public void testFormat() {
+        byte[] b = new byte[400];
+        double[] special = { 0.0, -0.0, 0.5, -0.0004, 0.0005, 1.5, -2.5, 999.9996, 1e300, -1e-300,
+            Double.NaN, Double.POSITIVE_INFINITY, Double.MIN_VALUE, 123456789012.345 };
+        for(double v : special)
+            for(int decimals = 0; decimals < 6; decimals++)
+                assertEquals(String.format(Locale.ROOT, "%." + decimals + "f", v),
+                        new String(b, 0, Scoring.format(v, decimals, b, 0), StandardCharsets.US_ASCII));
+        assertEquals("0.1", new String(b, 0, Scoring.format(0.1, -1, b, 0), StandardCharsets.US_ASCII));
+        Rng random = Rng.xoroshiro(19L);
+        for(int i = 0; i < 100000; i++)
+        {
+            double v = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12) - 4);
+            int decimals = random.nextInt(8);
+            String s = new String(b, 0, Scoring.format(v, decimals, b, 0), StandardCharsets.US_ASCII);
+            String expected = String.format(Locale.ROOT, "%." + decimals + "f", v);
+            assertTrue(v + " to " + decimals + " decimals: " + s + " vs " + expected, s.equals(expected)
+                    || Math.abs(Double.parseDouble(s) - Double.parseDouble(expected)) <= 1.01 * Math.pow(10, -decimals));
+        }
+    }
+}
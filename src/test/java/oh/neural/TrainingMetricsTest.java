@@ -0,0 +1,176 @@
+package oh.neural;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import oh.neural.FeedForwardNetwork.NodeLayer;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Measures the same step per sample, with a Batch and with ParallelTrainer, from equal weights.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public class TrainingMetricsTest {
+
+    @Test
+    public void testMeasurements() throws Exception {
+        double[][][] initialWeights = new double[3][][];
+        double[] sample = { 0.7, 0.2 };
+        double[][] samples = { sample, sample };
+        int[] inputValueOffsets = new int[]{0, -1, -1};
+        int[] targetValueOffsets = new int[]{-1, -1, 1};
+        double[][] lrc = new double[][]{ Doubles.fill(1, 0.3), Doubles.fill(40, 0.3), Doubles.fill(1, 0.3) };
+        double[][] zero = new double[][]{ new double[1], new double[40], new double[1] };
+
+        List<NodeLayer> system = ParallelTrainerTest.network(initialWeights);
+        CompiledNetwork perSample = FeedForwardNetwork.compile(system);
+        TrainingMetrics metrics = new TrainingMetrics(system, 1);
+        perSample.listener = metrics;
+        system.get(0).nodeValues[0] = sample[0];
+        perSample.train(sample, targetValueOffsets, lrc);
+        double[] gradientNorms = metrics.getGradientNorms();
+        double[] updateNorms = metrics.getUpdateNorms();
+        System.out.println(metrics);
+        assertEquals(1, metrics.getRows());
+        assertEquals(1, metrics.getSteps());
+        assertTrue(Double.isNaN(gradientNorms[0]));
+        for(int x = 1; x < 3; x++)
+        {
+            assertTrue(gradientNorms[x] > 0.0);
+            assertEquals(0.3 * gradientNorms[x], updateNorms[x], 1e-12);
+            assertFalse(Double.isNaN(metrics.getForwardNanosPerRow()[x]));
+            assertFalse(Double.isNaN(metrics.getBackwardNanosPerRow()[x]));
+        }
+
+        // the first batch step is not measured; it learns nothing, so the second starts from initial weights
+        CompiledNetwork batched = FeedForwardNetwork.compile(ParallelTrainerTest.network(initialWeights));
+        TrainingMetrics batchMetrics = new TrainingMetrics(batched.system, 1);
+        batched.listener = batchMetrics;
+        Batch batch = new Batch(batched, 1);
+        for(double[][] rates : new double[][][]{ zero, lrc })
+        {
+            batch.feedForward(samples, 0, 1, inputValueOffsets);
+            batch.accumulateGradients(samples, 0, targetValueOffsets);
+            batch.applyGradients(rates);
+        }
+        assertEquals(2, batchMetrics.getSteps());
+        // per sample, hidden error terms are computed from output weights already updated
+        assertEquals(gradientNorms[2], batchMetrics.getGradientNorms()[2], 1e-12);
+        assertEquals(updateNorms[2], batchMetrics.getUpdateNorms()[2], 1e-12);
+        // ...so hidden layers agree when the output layer does not learn
+        List<NodeLayer> frozenSystem = ParallelTrainerTest.network(initialWeights);
+        CompiledNetwork frozen = FeedForwardNetwork.compile(frozenSystem);
+        TrainingMetrics frozenMetrics = new TrainingMetrics(frozenSystem, 1);
+        frozen.listener = frozenMetrics;
+        frozenSystem.get(0).nodeValues[0] = sample[0];
+        frozen.train(sample, targetValueOffsets, new double[][]{ lrc[0], lrc[1], zero[2] });
+        assertEquals(frozenMetrics.getGradientNorms()[1], batchMetrics.getGradientNorms()[1], 1e-12);
+
+        CompiledNetwork parallel = FeedForwardNetwork.compile(ParallelTrainerTest.network(initialWeights));
+        TrainingMetrics parallelMetrics = new TrainingMetrics(parallel.system, 1);
+        parallel.listener = parallelMetrics;
+        ParallelTrainer trainer = new ParallelTrainer(parallel, 2, 2, 1L);
+        try {
+            trainer.trainBatch(samples, 0, 2, inputValueOffsets, targetValueOffsets, lrc);
+        } finally {
+            trainer.shutdown();
+        }
+        assertEquals(2, parallelMetrics.getRows());
+        assertArrayEquals(batchMetrics.getGradientNorms(), parallelMetrics.getGradientNorms(), 1e-12);
+        assertArrayEquals(batchMetrics.getUpdateNorms(), parallelMetrics.getUpdateNorms(), 1e-12);
+    }
+
+    @Test
+    public void testOptimizerUpdateNorms() {
+        double[][] data = ParallelTrainerTest.data(64);
+        int[] inputValueOffsets = new int[]{0, -1, -1};
+        int[] targetValueOffsets = new int[]{-1, -1, 1};
+        double[][] lrc = new double[][]{ Doubles.fill(1, 0.01), Doubles.fill(40, 0.01), Doubles.fill(1, 0.01) };
+        for(int threads = 0; threads < 3; threads += 2)
+        {
+            List<NodeLayer> system = ParallelTrainerTest.network(new double[3][][]);
+            system.get(1).addBiases();
+            CompiledNetwork network = FeedForwardNetwork.compile(system);
+            network.optimizer = Optimizer.adam(system, 0.9, 0.999, 1e-8);
+            TrainingMetrics metrics = new TrainingMetrics(system, 1);
+            network.listener = metrics;
+            double[][] before = { null, parameters(system.get(1)), parameters(system.get(2)) };
+            if (threads == 0)
+            {
+                Batch batch = new Batch(network, data.length);
+                batch.measuring = true;
+                batch.feedForward(data, 0, data.length, inputValueOffsets);
+                batch.accumulateGradients(data, 0, targetValueOffsets);
+                batch.applyGradients(lrc);
+            }
+            else
+            {
+                ParallelTrainer trainer = new ParallelTrainer(network, threads, data.length, 1L);
+                try {
+                    trainer.trainBatch(data, 0, data.length, inputValueOffsets, targetValueOffsets, lrc);
+                } finally {
+                    trainer.shutdown();
+                }
+            }
+            // the first Adam step moves every parameter by about the rate, far from the SGD step
+            for(int x = 1; x < 3; x++)
+            {
+                double[] after = parameters(system.get(x));
+                double change = Math.sqrt(Kernels.squaredDistance(before[x], 0, after, 0, after.length));
+                assertEquals(change, metrics.getUpdateNorms()[x], 1e-12);
+                assertEquals(0.01 * Math.sqrt(after.length), change, 0.01 * Math.sqrt(after.length) * 0.1);
+            }
+        }
+    }
+
+    /** Weights and biases of a layer in one array */
+    static double[] parameters(NodeLayer layer)
+    {
+        double[][] w = layer.weights[0].toArray();
+        double[] ret = new double[w.length * w[0].length + (layer.biases != null ? layer.size() : 0)];
+        for(int i = 0; i < w.length; i++)
+            System.arraycopy(w[i], 0, ret, i * w[i].length, w[i].length);
+        if (layer.biases != null)
+            System.arraycopy(layer.biases, 0, ret, w.length * w[0].length, layer.size());
+        return ret;
+    }
+
+    @Test
+    public void testNonFiniteResetsAndJmx() throws Exception {
+        List<NodeLayer> system = ParallelTrainerTest.network(new double[3][][]);
+        CompiledNetwork network = FeedForwardNetwork.compile(system);
+        TrainingMetrics metrics = new TrainingMetrics(system, 10).register("TrainingMetricsTest");
+        network.listener = metrics;
+        double[][] lrc = new double[][]{ Doubles.fill(1, 0.3), Doubles.fill(40, 0.3), Doubles.fill(1, 0.3) };
+        double[] sample = { 0.5, 0.1 };
+        system.get(0).nodeValues[0] = sample[0];
+        try {
+            system.get(2).weights[0].set(0, 3, Double.NaN);
+            system.get(2).applyGradients(new double[][]{ new double[40] }, lrc[2], 1.0);
+            assertTrue(Math.abs(system.get(2).weights[0].get(0, 3)) <= 0.5);
+            assertEquals(1L, metrics.getNonFiniteResets()[2]);
+            for(int s = 0; s < 100; s++)
+                network.train(sample, new int[]{-1, -1, 1}, lrc);
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("oh.neural:type=TrainingMetrics,name=\"TrainingMetricsTest\"");
+            assertEquals(100L, server.getAttribute(name, "Rows"));
+            assertEquals(100L, server.getAttribute(name, "Steps"));
+            assertArrayEquals(new long[]{ 0, 0, 1 }, (long[])server.getAttribute(name, "NonFiniteResets"));
+            double[] gradientNorms = (double[])server.getAttribute(name, "GradientNorms");
+            assertTrue(gradientNorms[1] >= 0.0 && gradientNorms[2] >= 0.0);
+            double allocation = (Double)server.getAttribute(name, "AllocatedBytesPerSecond");
+            assertTrue(Double.isNaN(allocation) || allocation >= 0.0);
+            System.out.println(metrics);
+            server.invoke(name, "reset", new Object[0], new String[0]);
+            assertEquals(0L, metrics.getRows());
+        } finally {
+            metrics.unregister();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package oh.neural;
+
+import oh.neural.FeedForwardNetwork.NodeLayer;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/** Block-seeded parallel initialization against a serial fill, and properties of the schemes.
+ *
+ * @author Paavo Toivanen https://github.com/pvto
+ */
+public class WeightInitTest {
+
+    static NodeLayer layer(int size, int feedingSize, WeightInit weightInit)
+    {
+        NodeLayer in = new NodeLayer(feedingSize), layer = new NodeLayer(size, true);
+        layer.transferFunction = Fn.Transfer.tanh(1.0);
+        layer.weightInit = weightInit;
+        layer.random = Rng.xoroshiro(3L);
+        layer.addFeedingLayer(in, null);
+        return layer;
+    }
+
+    @Test
+    public void testBlocks() {
+        NodeLayer layer = layer(1000, 100, WeightInit.he);
+        WeightMatrix w = layer.weights[0];
+        long seed = Rng.xoroshiro(3L).nextLong();
+        int rowsPerBlock = WeightInit.BLOCK / 100;
+        double sd = Math.sqrt(2.0 / 100), sumOfSquares = 0.0;
+        for(int b = 0; b * rowsPerBlock < w.rows; b++)
+        {
+            Rng random = Rng.xoroshiro(Rng.splitMix64(seed + b));
+            for(int i = b * rowsPerBlock; i < Math.min(w.rows, (b + 1) * rowsPerBlock); i++)
+            {
+                double[] expected = new double[100];
+                Prob.fillFromN(random, expected, 0.0, sd, 0, 99);
+                assertArrayEquals(expected, w.copyRow(i), 0.0);
+                sumOfSquares += Kernels.dot(expected, 0, expected, 0, 100);
+            }
+        }
+        assertEquals(sd, Math.sqrt(sumOfSquares / (w.rows * w.cols)), 0.01 * sd);
+
+        // a second feeding layer leaves the first connection as it was
+        double[][] before = w.toArray();
+        layer.addFeedingLayer(new NodeLayer(50), null);
+        double[][] after = layer.weights[0].toArray();
+        for(int i = 0; i < before.length; i++)
+            assertArrayEquals(before[i], after[i], 0.0);
+        assertEquals(Math.sqrt(2.0 / 150), Math.sqrt(Kernels.dot(layer.weights[1].values, 0, layer.weights[1].values, 0, 
+                1000 * 50) / (1000 * 50)), 0.01);
+    }
+
+    @Test
+    public void testOrthogonal() {
+        for(int[] shape : new int[][]{ { 30, 200 }, { 200, 30 }, { 64, 64 } })
+        {
+            WeightMatrix w = layer(shape[0], shape[1], WeightInit.orthogonal(2.0)).weights[0];
+            boolean rows = w.rows <= w.cols;
+            int n = Math.min(w.rows, w.cols), m = Math.max(w.rows, w.cols);
+            for(int a = 0; a < n; a++)
+                for(int b = 0; b < n; b++)
+                {
+                    double dot = 0.0;
+                    for(int k = 0; k < m; k++)
+                        dot += rows ? w.get(a, k) * w.get(b, k) : w.get(k, a) * w.get(k, b);
+                    assertEquals(a == b ? 4.0 : 0.0, dot, 1e-9);
+                }
+        }
+        // rows of zero norm stay zero, rather than NaN
+        WeightMatrix zero = WeightMatrix.flat(3, 5);
+        WeightInit.orthonormalize(zero, 2.0);
+        assertArrayEquals(new double[5], zero.copyRow(2), 0.0);
+        assertEquals(0, layer(4, 0, WeightInit.orthogonal(2.0)).weights[0].cols);
+    }
+}